@@ -82,4 +82,68 @@ alter table test_case add column biz_id varchar(500) default '-1' not null comme
 alter table exec_record
     add column fail_count int(10) default 0 not null comment '失败个数' after success_count,
     add column block_count int(10) default 0 not null comment '阻塞个数' after success_count,
-    add column ignore_count int(10) default 0 not null comment '不执行个数' after success_count;
\ No newline at end of file
+    add column ignore_count int(10) default 0 not null comment '不执行个数' after success_count;
+
+## 文件夹由biz表中的一份json拆成文件夹表和用例关联表，请执行以下SQL
+## 旧数据不需要手动迁移，第一次访问某条业务线的文件夹时会自动从biz.content导入，之后biz.content不再更新
+create table biz_folder
+(
+    id                   bigint auto_increment comment '主键'
+        primary key,
+    product_line_id      bigint       default 0                 not null comment '业务线id',
+    channel              int(1)       default 0                 not null comment '渠道',
+    folder_id            varchar(64)  default ''                not null comment '文件夹id，用例的biz_id引用的就是它',
+    parent_id            varchar(64)  default ''                not null comment '父文件夹id，顶级文件夹为空',
+    text                 varchar(255) default ''                not null comment '文件夹名称',
+    sort                 int(10)      default 0                 not null comment '同级文件夹中的顺序',
+    gmt_created          timestamp    default CURRENT_TIMESTAMP not null comment '创建时间',
+    gmt_modified         timestamp    default CURRENT_TIMESTAMP not null on update CURRENT_TIMESTAMP comment '更新时间',
+    unique key uk_line_folder (product_line_id, channel, folder_id)
+)
+    comment '文件夹';
+
+create table case_folder
+(
+    id                   bigint auto_increment comment '主键'
+        primary key,
+    product_line_id      bigint       default 0                 not null comment '业务线id',
+    channel              int(1)       default 0                 not null comment '渠道',
+    folder_id            varchar(64)  default ''                not null comment '文件夹id',
+    case_id              bigint       default 0                 not null comment '用例id',
+    gmt_created          timestamp    default CURRENT_TIMESTAMP not null comment '创建时间',
+    unique key uk_line_folder_case (product_line_id, channel, folder_id, case_id),
+    key idx_case_id (case_id)
+)
+    comment '用例与文件夹的关联';
+
+# 文件夹每次修改版本号+1，用来校验各实例缓存的文件夹树是否过期
+alter table biz add column version bigint default 0 not null comment '文件夹版本号';
+
+## 用例全文检索，依赖MySQL 5.7.6以上的ngram分词，默认ngram_token_size=2，关键字至少两个字
+## 已有用例的节点文本需要调用一次 /api/case/reindex 导入，之后随用例保存增量更新
+alter table test_case add fulltext key ft_title (title) with parser ngram;
+
+create table case_node_text
+(
+    id                   bigint auto_increment comment '主键'
+        primary key,
+    case_id              bigint       default 0                 not null comment '用例id',
+    node_id              varchar(64)  default ''                not null comment '脑图节点id',
+    text                 text                                   null comment '节点文本',
+    note                 text                                   null comment '节点备注',
+    gmt_modified         timestamp    default CURRENT_TIMESTAMP not null on update CURRENT_TIMESTAMP comment '更新时间',
+    unique key uk_case_node (case_id, node_id),
+    fulltext key ft_text (text, note) with parser ngram
+)
+    comment '用例节点文本，用于全文检索';
+
+## 备份改为全量快照+增量，每隔一段只存一份完整内容，其余只存相对上一个备份的JSON-Patch
+## 旧数据base_id为0，都视为快照，不需要迁移
+alter table case_backup
+    add column base_id bigint default 0 not null comment '增量所基于的上一个备份id，0表示全量快照',
+    add column snapshot_id bigint default 0 not null comment '这一串增量开头的快照id，快照本身为0',
+    add column depth int(10) default 0 not null comment '距离快照的增量个数',
+    add column case_patch longblob null comment 'gzip压缩后的JSON-Patch',
+    add key idx_snapshot_id (snapshot_id);
+
+## 用例内容、执行结果、备份内容压缩存储(可选)，开启前单独执行同目录下的content-compress.sql
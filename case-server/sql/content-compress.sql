@@ -0,0 +1,8 @@
+## 可选迁移：用例内容、执行结果、备份内容压缩存储
+## 只有准备把 application.properties 中的 codec.content.compress 改为true时才需要执行，先执行本脚本再打开开关
+## 改成二进制后原有的文本原样保留，读取时按头部区分压缩和未压缩的内容，不需要迁移数据
+alter table test_case modify column case_content longblob null comment '用例内容';
+alter table exec_record modify column case_content longblob null comment '任务执行内容';
+alter table case_backup
+    modify column case_content longblob null comment '用例内容',
+    modify column record_content longblob null comment '任务执行内容';
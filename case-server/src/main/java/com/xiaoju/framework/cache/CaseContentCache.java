@@ -0,0 +1,174 @@
+package com.xiaoju.framework.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.xiaoju.framework.entity.persistent.TestCase;
+import com.xiaoju.framework.entity.xmind.CaseNode;
+import com.xiaoju.framework.mapper.TestCaseMapper;
+import com.xiaoju.framework.util.CaseNodeUtil;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.Date;
+
+/**
+ * 用例内容缓存
+ * 用例内容动辄几MB，打开协同、统计任务、圈选等都要整份读出来，这里在进程内缓存原始内容以及解析后的树
+ *
+ * 1. 按照字节数限制大小，淘汰策略是caffeine的W-TinyLFU
+ * 2. 每次读取先查一次gmt_modified，版本一致才使用缓存，其他实例对用例的修改也能感知到
+ * 3. gmt_modified精度只到秒，并且部分写路径会沿用旧的gmt_modified，所以所有写用例的地方还需要主动失效
+ *
+ * @author didi
+ * @date 2026/10/18
+ */
+@Component
+public class CaseContentCache {
+
+    @Resource
+    private TestCaseMapper caseMapper;
+
+    private final Cache<Long, CaseContent> cache;
+
+    public CaseContentCache(@Value("${cache.case-content.max-bytes:268435456}") long maxBytes) {
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((Long id, CaseContent content) -> content.weight())
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * 获取用例内容
+     *
+     * @param caseId 用例id
+     * @return 用例内容，用例不存在时返回null
+     */
+    public CaseContent get(Long caseId) {
+        Date version = caseMapper.selectVersion(caseId);
+        if (version == null) {
+            cache.invalidate(caseId);
+            return null;
+        }
+        CaseContent cached = cache.getIfPresent(caseId);
+        if (cached != null && cached.getVersion() == version.getTime()) {
+            return cached;
+        }
+        TestCase testCase = caseMapper.selectContent(caseId);
+        if (testCase == null) {
+            return null;
+        }
+        CaseContent loaded = new CaseContent(caseId, testCase.getGmtModified().getTime(), testCase.getCaseContent());
+        cache.put(caseId, loaded);
+        return loaded;
+    }
+
+    /**
+     * 获取用例的原始内容
+     *
+     * @param caseId 用例id
+     * @return 用例内容，用例不存在时返回null
+     */
+    public String getContent(Long caseId) {
+        CaseContent content = get(caseId);
+        return content == null ? null : content.getContent();
+    }
+
+    /**
+     * 用例被修改或者删除时调用
+     */
+    public void invalidate(Long caseId) {
+        cache.invalidate(caseId);
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    public long size() {
+        return cache.estimatedSize();
+    }
+
+    public long weightedSize() {
+        return cache.policy().eviction().map(e -> e.weightedSize().orElse(0L)).orElse(0L);
+    }
+
+    /**
+     * 某个版本的用例内容
+     */
+    public static class CaseContent {
+
+        private final Long caseId;
+
+        private final long version;
+
+        private final String content;
+
+        private volatile CaseNode root;
+
+        private volatile CaseIndex index;
+
+        CaseContent(Long caseId, long version, String content) {
+            this.caseId = caseId;
+            this.version = version;
+            this.content = content == null ? "" : content;
+        }
+
+        public Long getCaseId() {
+            return caseId;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        public String getContent() {
+            return content;
+        }
+
+        /**
+         * 解析后的根节点，不带原始data，只用于统计
+         * 所有人共享同一棵树，只能以prune=false调用{@link CaseNodeUtil#mergeAndCount}或者调用{@link CaseNodeUtil#countLeaves}，不能修改
+         */
+        public CaseNode getRoot() {
+            CaseNode result = root;
+            if (result == null) {
+                synchronized (this) {
+                    result = root;
+                    if (result == null) {
+                        result = CaseNodeUtil.parse(content, false).getRoot();
+                        root = result;
+                    }
+                }
+            }
+            return result;
+        }
+
+        /**
+         * 圈选索引，与解析后的树一样跟着版本缓存，用例保存后版本变化自然会重建
+         */
+        public CaseIndex getIndex() {
+            CaseIndex result = index;
+            if (result == null) {
+                synchronized (this) {
+                    result = index;
+                    if (result == null) {
+                        result = CaseIndex.build(getRoot());
+                        index = result;
+                    }
+                }
+            }
+            return result;
+        }
+
+        /**
+         * 估算占用的字节数：原始内容每个字符2字节，解析后的树按原始内容的一半估算，圈选索引每个叶子每个标签只占1bit，忽略不计
+         */
+        int weight() {
+            long bytes = (long) content.length() * 3;
+            return (int) Math.min(Integer.MAX_VALUE, bytes);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.xiaoju.framework.cache;
+
+import com.xiaoju.framework.entity.xmind.CaseNode;
+
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 一个版本的用例上按优先级、标签圈选的索引，编辑页圈选弹窗每勾选一次都会统计一次
+ *
+ * 叶子节点按先序遍历的顺序编号，一个节点下的叶子正好是连续的一段编号。
+ * 每个优先级、每个标签对应一个BitSet，某个节点命中时把它下面的整段叶子都置上，
+ * 即到根的路径上有节点命中的叶子。统计时同一类条件取并集，优先级和标签之间取交集，不再遍历树
+ *
+ * 圈选规则与原来的编辑页一致，根节点也参与优先级、标签的判断
+ * 构建完成后只读，可以被多个线程共享
+ *
+ * @author didi
+ * @date 2026/10/18
+ * @see com.xiaoju.framework.util.CaseNodeUtil#countLeaves
+ */
+public class CaseIndex {
+
+    private final int total;
+
+    private final Map<Integer, BitSet> priorities;
+
+    private final Map<String, BitSet> tags;
+
+    private CaseIndex(int total, Map<Integer, BitSet> priorities, Map<String, BitSet> tags) {
+        this.total = total;
+        this.priorities = priorities;
+        this.tags = tags;
+    }
+
+    /**
+     * 一次遍历构建索引
+     *
+     * @param root 根节点，不会被修改
+     * @return 索引
+     */
+    public static CaseIndex build(CaseNode root) {
+        Map<Integer, BitSet> priorities = new HashMap<>();
+        // 保持标签第一次出现的顺序
+        Map<String, BitSet> tags = new LinkedHashMap<>();
+        int leaves = 0;
+
+        // 栈中保存访问到一半的节点、下一个要访问的子节点以及进入时的叶子编号
+        Deque<CaseNode> nodes = new ArrayDeque<>();
+        Deque<int[]> frames = new ArrayDeque<>();
+        nodes.push(root);
+        frames.push(new int[]{0, 0});
+        while (!nodes.isEmpty()) {
+            CaseNode node = nodes.peek();
+            int[] frame = frames.peek();
+            List<CaseNode> children = node.getChildren();
+            if (frame[0] < children.size()) {
+                nodes.push(children.get(frame[0]++));
+                frames.push(new int[]{0, leaves});
+                continue;
+            }
+            if (node.isLeaf()) {
+                leaves++;
+            }
+            // 所有子孙都访问完，[frame[1], leaves)就是这个节点下的叶子
+            int from = frame[1];
+            if (node.getPriority() != CaseNode.ABSENT) {
+                priorities.computeIfAbsent(node.getPriority(), k -> new BitSet()).set(from, leaves);
+            }
+            if (node.getResource() != null) {
+                for (String tag : node.getResource()) {
+                    if (tag != null) {
+                        tags.computeIfAbsent(tag, k -> new BitSet()).set(from, leaves);
+                    }
+                }
+            }
+            nodes.pop();
+            frames.pop();
+        }
+        return new CaseIndex(leaves, priorities, tags);
+    }
+
+    /**
+     * @return 叶子节点总数
+     */
+    public int getTotal() {
+        return total;
+    }
+
+    /**
+     * @return 用例中出现过的所有标签
+     */
+    public Set<String> getTags() {
+        return Collections.unmodifiableSet(tags.keySet());
+    }
+
+    /**
+     * 统计圈选后剩下的叶子节点个数
+     *
+     * @param priorityList 圈选的优先级 ["1", "2"....]，为空表示不按优先级圈选，不是数字的优先级不会命中
+     * @param tagList 圈选的标签，为空表示不按标签圈选
+     * @return 叶子节点个数
+     */
+    public int count(Collection<String> priorityList, Collection<String> tagList) {
+        BitSet chosen = null;
+        if (priorityList != null && !priorityList.isEmpty()) {
+            Set<BitSet> sets = new LinkedHashSet<>();
+            for (String priority : priorityList) {
+                BitSet set = priorities.get(toInt(priority));
+                if (set != null) {
+                    sets.add(set);
+                }
+            }
+            chosen = union(sets);
+        }
+        if (tagList != null && !tagList.isEmpty()) {
+            Set<BitSet> sets = new LinkedHashSet<>();
+            for (String tag : tagList) {
+                BitSet set = tags.get(tag);
+                if (set != null) {
+                    sets.add(set);
+                }
+            }
+            BitSet union = union(sets);
+            if (chosen == null) {
+                chosen = union;
+            } else {
+                chosen = (BitSet) chosen.clone();
+                chosen.and(union);
+            }
+        }
+        return chosen == null ? total : chosen.cardinality();
+    }
+
+    /**
+     * 只有一个集合时直接返回，不复制
+     */
+    private static BitSet union(Set<BitSet> sets) {
+        if (sets.size() == 1) {
+            return sets.iterator().next();
+        }
+        BitSet union = new BitSet();
+        for (BitSet set : sets) {
+            union.or(set);
+        }
+        return union;
+    }
+
+    private static Integer toInt(String value) {
+        try {
+            return value == null ? null : Integer.valueOf(value.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,395 @@
+package com.xiaoju.framework.cache;
+
+import com.xiaoju.framework.entity.dto.DirNodeDto;
+import org.springframework.util.StringUtils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 一条业务线的文件夹树以及每个文件夹下所有用例的索引
+ *
+ * 每个文件夹保存两份有序的caseId数组：
+ * own 直接挂在这个文件夹上的用例
+ * all 这个文件夹以及所有子孙文件夹的用例，即列表页展示的内容
+ *
+ * 修改文件夹、移动用例时只需要从发生变化的文件夹开始向上重算all，某一层没有变化就可以停止
+ * 所有方法都持有当前对象的锁，调用方修改并落库时也需要持有同一把锁
+ *
+ * @author didi
+ * @date 2026/10/18
+ */
+public class DirIndex {
+
+    private static final long[] EMPTY = new long[0];
+
+    private final String rootId;
+
+    private final Map<String, Folder> folders = new HashMap<>();
+
+    private long version;
+
+    private static class Folder {
+        private final String id;
+        private String text;
+        private final String parentId;
+        private final List<String> children = new ArrayList<>();
+        private long[] own = EMPTY;
+        private long[] all = EMPTY;
+
+        Folder(String id, String text, String parentId) {
+            this.id = id;
+            this.text = text;
+            this.parentId = parentId;
+        }
+    }
+
+    private DirIndex(String rootId, long version) {
+        this.rootId = rootId;
+        this.version = version;
+    }
+
+    /**
+     * 根据文件夹树构建索引
+     *
+     * @param root 文件夹树，caseIds是直接挂在该文件夹上的用例
+     * @param version 文件夹树的版本
+     */
+    public static DirIndex build(DirNodeDto root, long version) {
+        DirIndex index = new DirIndex(root.getId(), version);
+        // 先序遍历建立文件夹，再倒序计算all，保证子文件夹先算完
+        List<Folder> order = new ArrayList<>();
+        Deque<DirNodeDto> nodes = new ArrayDeque<>();
+        Deque<String> parents = new ArrayDeque<>();
+        nodes.push(root);
+        parents.push("");
+        while (!nodes.isEmpty()) {
+            DirNodeDto node = nodes.pop();
+            String parentId = parents.pop();
+            Folder folder = new Folder(node.getId(), node.getText(), parentId.isEmpty() ? null : parentId);
+            folder.own = toSortedArray(node.getCaseIds());
+            index.folders.put(folder.id, folder);
+            order.add(folder);
+            for (DirNodeDto child : node.getChildren()) {
+                folder.children.add(child.getId());
+            }
+            for (int i = node.getChildren().size() - 1; i >= 0; i--) {
+                nodes.push(node.getChildren().get(i));
+                parents.push(folder.id);
+            }
+        }
+        for (int i = order.size() - 1; i >= 0; i--) {
+            Folder folder = order.get(i);
+            long[] all = folder.own;
+            for (String child : folder.children) {
+                all = union(all, index.folders.get(child).all);
+            }
+            folder.all = all;
+        }
+        return index;
+    }
+
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    public synchronized void setVersion(long version) {
+        this.version = version;
+    }
+
+    public synchronized boolean contains(String folderId) {
+        return folders.containsKey(folderId);
+    }
+
+    /**
+     * 父文件夹id，顶级文件夹或者文件夹不存在时返回null
+     */
+    public synchronized String parentOf(String folderId) {
+        Folder folder = folders.get(folderId);
+        return folder == null ? null : folder.parentId;
+    }
+
+    /**
+     * 子文件夹个数，新增文件夹时作为它的顺序
+     */
+    public synchronized int childCount(String folderId) {
+        Folder folder = folders.get(folderId);
+        return folder == null ? 0 : folder.children.size();
+    }
+
+    /**
+     * 文件夹以及所有子孙文件夹的id
+     *
+     * @param folderId 文件夹id
+     * @return id列表，文件夹不存在时返回空列表
+     */
+    public synchronized List<String> subtree(String folderId) {
+        List<String> result = new ArrayList<>();
+        if (!folders.containsKey(folderId)) {
+            return result;
+        }
+        Deque<String> stack = new ArrayDeque<>();
+        stack.push(folderId);
+        while (!stack.isEmpty()) {
+            String id = stack.pop();
+            result.add(id);
+            List<String> children = folders.get(id).children;
+            for (int i = children.size() - 1; i >= 0; i--) {
+                stack.push(children.get(i));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 文件夹以及子孙文件夹下的所有用例，返回的数组不能修改
+     *
+     * @param folderId 文件夹id
+     * @return 有序的caseId，文件夹不存在时返回null
+     */
+    public synchronized long[] getCaseIds(String folderId) {
+        Folder folder = folders.get(folderId);
+        return folder == null ? null : folder.all;
+    }
+
+    /**
+     * 生成一棵新的文件夹树，调用方可以随意修改
+     *
+     * @param withDescendants true时caseIds包含子孙文件夹的用例，false时只包含直接挂在该文件夹上的用例，即落库的格式
+     */
+    public synchronized DirNodeDto toTree(boolean withDescendants) {
+        DirNodeDto root = null;
+        Deque<Folder> stack = new ArrayDeque<>();
+        Deque<DirNodeDto> parents = new ArrayDeque<>();
+        stack.push(folders.get(rootId));
+        parents.push(new DirNodeDto());
+        while (!stack.isEmpty()) {
+            Folder folder = stack.pop();
+            DirNodeDto parent = parents.pop();
+            DirNodeDto node = toNode(folder, withDescendants);
+            if (root == null) {
+                root = node;
+            } else {
+                parent.getChildren().add(node);
+            }
+            for (int i = folder.children.size() - 1; i >= 0; i--) {
+                stack.push(folders.get(folder.children.get(i)));
+                parents.push(node);
+            }
+        }
+        return root;
+    }
+
+    /**
+     * 只转换文件夹本身，不包含子文件夹
+     */
+    private DirNodeDto toNode(Folder folder, boolean withDescendants) {
+        DirNodeDto node = new DirNodeDto();
+        node.setId(folder.id);
+        node.setText(folder.text);
+        node.setParentId(folder.parentId);
+        long[] ids = withDescendants ? folder.all : folder.own;
+        Set<String> caseIds = new LinkedHashSet<>(ids.length * 4 / 3 + 1);
+        for (long id : ids) {
+            caseIds.add(String.valueOf(id));
+        }
+        node.setCaseIds(caseIds);
+        return node;
+    }
+
+    /**
+     * 复制一份索引，之后对副本的修改不影响当前索引
+     * 用例id数组修改时都是整体替换，不会原地修改，可以直接共享
+     */
+    public synchronized DirIndex copy() {
+        DirIndex copy = new DirIndex(rootId, version);
+        for (Folder folder : folders.values()) {
+            Folder f = new Folder(folder.id, folder.text, folder.parentId);
+            f.children.addAll(folder.children);
+            f.own = folder.own;
+            f.all = folder.all;
+            copy.folders.put(f.id, f);
+        }
+        return copy;
+    }
+
+    /**
+     * 新增文件夹，新文件夹下没有用例，不影响其他文件夹的索引
+     */
+    public synchronized void addFolder(String parentId, String id, String text) {
+        Folder parent = folders.get(parentId);
+        parent.children.add(id);
+        folders.put(id, new Folder(id, text, parentId));
+    }
+
+    public synchronized void renameFolder(String id, String text) {
+        folders.get(id).text = text;
+    }
+
+    /**
+     * 删除文件夹以及其下所有子文件夹
+     *
+     * @param parentId 父文件夹id
+     * @param id 被删除的文件夹id
+     * @return 是否删除了
+     */
+    public synchronized boolean removeFolder(String parentId, String id) {
+        Folder parent = folders.get(parentId);
+        if (parent == null || !parent.children.remove(id)) {
+            return false;
+        }
+        removeSubtree(id);
+        refreshUpward(parent);
+        return true;
+    }
+
+    private void removeSubtree(String id) {
+        Deque<String> stack = new ArrayDeque<>();
+        stack.push(id);
+        while (!stack.isEmpty()) {
+            Folder folder = folders.remove(stack.pop());
+            if (folder != null) {
+                folder.children.forEach(stack::push);
+            }
+        }
+    }
+
+    /**
+     * 把用例加入、移出文件夹，先加入后移出，不存在的文件夹直接忽略
+     *
+     * @param caseId 用例id
+     * @param addIds 需要加入的文件夹
+     * @param rmIds 需要移出的文件夹
+     */
+    public synchronized void moveCase(long caseId, Collection<String> addIds, Collection<String> rmIds) {
+        List<Folder> touched = new ArrayList<>();
+        for (String id : addIds) {
+            Folder folder = folders.get(id);
+            if (folder != null) {
+                folder.own = union(folder.own, new long[]{caseId});
+                touched.add(folder);
+            }
+        }
+        for (String id : rmIds) {
+            Folder folder = folders.get(id);
+            if (folder != null) {
+                folder.own = remove(folder.own, caseId);
+                touched.add(folder);
+            }
+        }
+        for (Folder folder : touched) {
+            refreshUpward(folder);
+        }
+    }
+
+    /**
+     * 把一批用例加入文件夹，每个文件夹只合并、向上重算一次，批量导入时使用
+     *
+     * @param caseIds 用例id
+     * @param folderIds 需要加入的文件夹，不存在的直接忽略
+     */
+    public synchronized void addCases(Collection<Long> caseIds, Collection<String> folderIds) {
+        long[] ids = new long[caseIds.size()];
+        int n = 0;
+        for (Long id : caseIds) {
+            ids[n++] = id;
+        }
+        Arrays.sort(ids);
+        for (String id : folderIds) {
+            Folder folder = folders.get(id);
+            if (folder != null) {
+                folder.own = union(folder.own, ids);
+                refreshUpward(folder);
+            }
+        }
+    }
+
+    /**
+     * 从folder开始逐层向上重算all，某一层没有变化时上面的也不会变化
+     */
+    private void refreshUpward(Folder folder) {
+        while (folder != null) {
+            long[] all = folder.own;
+            for (String child : folder.children) {
+                all = union(all, folders.get(child).all);
+            }
+            if (Arrays.equals(all, folder.all)) {
+                return;
+            }
+            folder.all = all;
+            folder = folder.parentId == null ? null : folders.get(folder.parentId);
+        }
+    }
+
+    private static long[] toSortedArray(Collection<String> ids) {
+        if (ids == null || ids.isEmpty()) {
+            return EMPTY;
+        }
+        long[] result = new long[ids.size()];
+        int n = 0;
+        for (String id : ids) {
+            if (!StringUtils.isEmpty(id)) {
+                result[n++] = Long.parseLong(id.trim());
+            }
+        }
+        Arrays.sort(result, 0, n);
+        // 去重
+        int m = 0;
+        for (int i = 0; i < n; i++) {
+            if (m == 0 || result[m - 1] != result[i]) {
+                result[m++] = result[i];
+            }
+        }
+        return m == result.length ? result : Arrays.copyOf(result, m);
+    }
+
+    /**
+     * 两个有序数组求并集，其中一个为空时直接返回另一个
+     */
+    private static long[] union(long[] a, long[] b) {
+        if (b.length == 0) {
+            return a;
+        }
+        if (a.length == 0) {
+            return b;
+        }
+        long[] result = new long[a.length + b.length];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                result[n++] = a[i++];
+            } else if (a[i] > b[j]) {
+                result[n++] = b[j++];
+            } else {
+                result[n++] = a[i++];
+                j++;
+            }
+        }
+        while (i < a.length) {
+            result[n++] = a[i++];
+        }
+        while (j < b.length) {
+            result[n++] = b[j++];
+        }
+        return n == result.length ? result : Arrays.copyOf(result, n);
+    }
+
+    private static long[] remove(long[] a, long value) {
+        int pos = Arrays.binarySearch(a, value);
+        if (pos < 0) {
+            return a;
+        }
+        long[] result = new long[a.length - 1];
+        System.arraycopy(a, 0, result, 0, pos);
+        System.arraycopy(a, pos + 1, result, pos, a.length - pos - 1);
+        return result;
+    }
+}
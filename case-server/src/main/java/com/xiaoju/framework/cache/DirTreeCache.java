@@ -0,0 +1,49 @@
+package com.xiaoju.framework.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * 文件夹树缓存，每个(业务线, 渠道)一份{@link DirIndex}
+ * 是否过期由调用方按照biz的version判断，本进程内的修改在事务提交之后才增量更新缓存里的索引
+ *
+ * @author didi
+ * @date 2026/10/18
+ * @see com.xiaoju.framework.service.impl.DirServiceImpl
+ */
+@Component
+public class DirTreeCache {
+
+    private final Cache<String, DirIndex> cache;
+
+    public DirTreeCache(@Value("${cache.dir-tree.max-size:1000}") long maxSize) {
+        this.cache = Caffeine.newBuilder().maximumSize(maxSize).recordStats().build();
+    }
+
+    public DirIndex get(Long productLineId, Integer channel) {
+        return cache.getIfPresent(key(productLineId, channel));
+    }
+
+    public void put(Long productLineId, Integer channel, DirIndex index) {
+        cache.put(key(productLineId, channel), index);
+    }
+
+    public void invalidate(Long productLineId, Integer channel) {
+        cache.invalidate(key(productLineId, channel));
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    public long size() {
+        return cache.estimatedSize();
+    }
+
+    private static String key(Long productLineId, Integer channel) {
+        return productLineId + "-" + channel;
+    }
+}
@@ -0,0 +1,90 @@
+package com.xiaoju.framework.cache;
+
+import com.alibaba.fastjson.JSONObject;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.xiaoju.framework.entity.persistent.ExecRecord;
+import lombok.Data;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/**
+ * 执行任务统计信息缓存
+ * 任务列表中每个任务的统计都需要把用例内容和任务的执行结果合并一遍，用例大、任务多时非常慢
+ * 统计结果只取决于用例内容、圈选条件和执行结果，所以按照(用例, 用例版本, 任务, 圈选条件, 任务版本)缓存
+ *
+ * 版本取的是gmt_modified，部分写路径会沿用旧的gmt_modified，所以写用例、写任务时还会主动失效
+ *
+ * @author didi
+ * @date 2026/10/18
+ */
+@Component
+public class RecordStatsCache {
+
+    private final Cache<Key, JSONObject> cache;
+
+    public RecordStatsCache(@Value("${cache.record-stats.max-size:10000}") long maxSize) {
+        this.cache = Caffeine.newBuilder().maximumSize(maxSize).recordStats().build();
+    }
+
+    /**
+     * 获取统计信息，未命中时通过loader计算
+     * 返回的是缓存对象的浅拷贝，其中的progress是共享的，调用方不要修改
+     *
+     * @param caseId 用例id
+     * @param caseVersion 用例的gmt_modified
+     * @param record 执行任务
+     * @param env 任务的环境，与合并时使用的一致
+     * @param loader 计算统计信息
+     */
+    public JSONObject get(Long caseId, long caseVersion, ExecRecord record, Integer env, Supplier<JSONObject> loader) {
+        JSONObject count = cache.get(new Key(caseId, caseVersion, record, env), k -> loader.get());
+        return new JSONObject(count);
+    }
+
+    /**
+     * 用例内容修改、用例删除时失效该用例下所有任务的统计
+     */
+    public void invalidateCase(Long caseId) {
+        cache.asMap().keySet().removeIf(k -> Objects.equals(k.getCaseId(), caseId));
+    }
+
+    /**
+     * 任务的圈选条件、执行结果修改或者任务删除时失效
+     */
+    public void invalidateRecord(Long recordId) {
+        cache.asMap().keySet().removeIf(k -> Objects.equals(k.getRecordId(), recordId));
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    public long size() {
+        return cache.estimatedSize();
+    }
+
+    @Data
+    private static class Key {
+        private final Long caseId;
+        private final long caseVersion;
+        private final Long recordId;
+        private final int chooseHash;
+        private final long recordVersion;
+        private final Integer env;
+
+        Key(Long caseId, long caseVersion, ExecRecord record, Integer env) {
+            this.caseId = caseId;
+            this.caseVersion = caseVersion;
+            this.recordId = record.getId();
+            this.chooseHash = Objects.hashCode(record.getChooseContent());
+            this.recordVersion = record.getGmtModified() == null ? 0L : record.getGmtModified().getTime();
+            // 未圈选时是否只统计P0取决于环境
+            this.env = env;
+        }
+    }
+}
@@ -1,7 +1,14 @@
 package com.xiaoju.framework.config;
 
+import com.xiaoju.framework.cache.CaseContentCache;
+import com.xiaoju.framework.cache.RecordStatsCache;
+import com.xiaoju.framework.handler.HeartbeatScheduler;
+import com.xiaoju.framework.handler.OutboundQueue;
 import com.xiaoju.framework.handler.WebSocket;
+import com.xiaoju.framework.handler.WriteBehindFlusher;
 import com.xiaoju.framework.mapper.TestCaseMapper;
+import com.xiaoju.framework.mapper.handler.CompressedTextTypeHandler;
+import com.xiaoju.framework.service.CaseIndexService;
 import com.xiaoju.framework.service.RecordService;
 import org.apache.catalina.Context;
 import org.apache.catalina.connector.Connector;
@@ -108,8 +115,77 @@ public class ApplicationConfig {
      * 完成基于反射的实例构造
      */
     @Autowired
-    public void setWebsocketService(RecordService recordService, TestCaseMapper caseMapper) {
+    public void setWebsocketService(RecordService recordService, TestCaseMapper caseMapper, RecordStatsCache statsCache,
+                                    CaseContentCache contentCache, CaseIndexService indexService) {
         WebSocket.recordService = recordService;
         WebSocket.caseMapper = caseMapper;
+        WebSocket.statsCache = statsCache;
+        WebSocket.contentCache = contentCache;
+        WebSocket.indexService = indexService;
+    }
+
+    /**
+     * 给{@code WebSocket}的发送队列注入配置，原因同上
+     *
+     * @param coalesceThreshold 积压多少条后开始合并patch
+     * @param maxPendingChars 积压多少字符后丢弃patch并全量同步
+     * @param senderThreads 发送线程数
+     * @see OutboundQueue
+     */
+    @Autowired
+    public void setWebsocketOutbound(@Value("${websocket.outbound.coalesce-threshold:16}") int coalesceThreshold,
+                                     @Value("${websocket.outbound.max-pending-chars:4194304}") int maxPendingChars,
+                                     @Value("${websocket.outbound.sender-threads:4}") int senderThreads) {
+        OutboundQueue.coalesceThreshold = coalesceThreshold;
+        OutboundQueue.maxPendingChars = maxPendingChars;
+        OutboundQueue.start(senderThreads);
+    }
+
+    /**
+     * 给{@code WebSocket}的延迟落库注入配置，原因同上
+     *
+     * @param debounce 停止修改多久以后保存，单位ms
+     * @param maxStaleness 有未保存的修改时最长多久必须保存一次，单位ms
+     * @param interval 检查间隔，单位ms
+     * @see WriteBehindFlusher
+     */
+    @Autowired
+    public void setWebsocketFlush(@Value("${websocket.flush.debounce-ms:2000}") long debounce,
+                                  @Value("${websocket.flush.max-staleness-ms:30000}") long maxStaleness,
+                                  @Value("${websocket.flush.interval-ms:1000}") long interval) {
+        WriteBehindFlusher.debounce = debounce;
+        WriteBehindFlusher.maxStaleness = maxStaleness;
+        WriteBehindFlusher.start(interval);
+    }
+
+    /**
+     * 给{@code WebSocket}的心跳注入配置，原因同上
+     *
+     * @param interval 每个session多久ping一次，单位ms
+     * @param timeout 超过多久没有收到pong认为掉线，单位ms
+     * @param buckets 心跳分桶数，每次只处理一个桶
+     * @see HeartbeatScheduler
+     */
+    @Autowired
+    public void setWebsocketHeartbeat(@Value("${websocket.heartbeat.interval-ms:5000}") long interval,
+                                      @Value("${websocket.heartbeat.timeout-ms:10000}") long timeout,
+                                      @Value("${websocket.heartbeat.buckets:10}") int buckets) {
+        HeartbeatScheduler.timeout = timeout;
+        HeartbeatScheduler.start(interval, buckets);
+    }
+
+    /**
+     * 给大字段的类型处理器注入配置，类型处理器由mybatis实例化，原因同上
+     *
+     * @param compress 是否压缩写入，开启前需要先把对应的列改成LONGBLOB
+     * @param minSize 超过多少字符才压缩
+     * @param level deflate压缩级别
+     * @see CompressedTextTypeHandler
+     */
+    @Autowired
+    public void setContentCodec(@Value("${codec.content.compress:false}") boolean compress,
+                                @Value("${codec.content.min-size:4096}") int minSize,
+                                @Value("${codec.content.level:1}") int level) {
+        CompressedTextTypeHandler.configure(compress, minSize, level);
     }
 }
@@ -36,10 +36,10 @@ public class XmindConstant {
 
     public static final String ZIP_SUFFIX = "zip";
 
-    public static final String TEMP_FOLDER = "/temp/";
-
     public static final String CONTENT_JSON = "content.json";
 
+    public static final String CONTENT_XML = "content.xml";
+
     /**
      * xmind - zen 版本的xmind节点版本号
      */
@@ -0,0 +1,20 @@
+package com.xiaoju.framework.constants.enums;
+
+/**
+ * 批量导入任务的状态
+ *
+ * @author didi
+ * @date 2026/10/18
+ */
+public enum ImportStatusEnum {
+    // 排队等待前面的导入任务
+    WAITING,
+    // 解析文件中
+    PARSING,
+    // 写入用例以及文件夹
+    SAVING,
+    // 完成，个别文件解析失败也算完成
+    SUCCESS,
+    // 写入失败，整批都没有入库
+    FAILED
+}
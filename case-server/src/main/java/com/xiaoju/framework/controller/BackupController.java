@@ -3,6 +3,7 @@ package com.xiaoju.framework.controller;
 import com.xiaoju.framework.constants.enums.StatusCode;
 import com.xiaoju.framework.entity.exception.CaseServerException;
 import com.xiaoju.framework.entity.persistent.CaseBackup;
+import com.xiaoju.framework.entity.response.backup.BackupListResp;
 import com.xiaoju.framework.entity.response.controller.Response;
 import com.xiaoju.framework.service.CaseBackupService;
 import org.slf4j.Logger;
@@ -29,7 +30,7 @@ public class BackupController {
     CaseBackupService caseBackupService;
 
     /**
-     * 删除某个用例所有的备份记录
+     * 获取某个用例所有的备份记录，每一份都带完整内容，历史多时很重，建议使用/list + /get
      *
      * @param caseId 用例id
      * @param beginTime 开始时间
@@ -43,6 +44,32 @@ public class BackupController {
         return Response.success(caseBackupService.getBackupByCaseId(caseId, beginTime, endTime));
     }
 
+    /**
+     * 获取某个用例的备份历史，只有元数据
+     *
+     * @param caseId 用例id
+     * @param beginTime 开始时间
+     * @param endTime 结束时间
+     * @return 响应体
+     */
+    @GetMapping(value = "/list")
+    public Response<List<BackupListResp>> listBackup(@RequestParam @NotNull(message = "用例id为空") Long caseId,
+                                                     @RequestParam(required = false) String beginTime,
+                                                     @RequestParam(required = false) String endTime) {
+        return Response.success(caseBackupService.listBackup(caseId, beginTime, endTime));
+    }
+
+    /**
+     * 获取某一份备份的完整内容
+     *
+     * @param id 备份id
+     * @return 响应体
+     */
+    @GetMapping(value = "/get")
+    public Response<CaseBackup> getBackup(@RequestParam @NotNull(message = "备份id为空") Long id) {
+        return Response.success(caseBackupService.getBackup(id));
+    }
+
     /**
      * 删除某个用例所有的备份记录
      *
@@ -5,6 +5,7 @@ import com.xiaoju.framework.entity.exception.CaseServerException;
 import com.xiaoju.framework.entity.request.cases.*;
 import com.xiaoju.framework.entity.request.ws.WsSaveReq;
 import com.xiaoju.framework.entity.response.controller.Response;
+import com.xiaoju.framework.service.CaseIndexService;
 import com.xiaoju.framework.service.CaseService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,6 +29,9 @@ public class CaseController {
     @Resource
     CaseService caseService;
 
+    @Resource
+    CaseIndexService indexService;
+
     /**
      * 用例 - 根据文件夹id获取所有用例
      *
@@ -41,6 +45,7 @@ public class CaseController {
      * @param channel 1
      * @param pageNum 页码
      * @param pageSize 页面承载量
+     * @param lastId 游标分页时上一页最后一条用例的id，第一页传0，不传时按照pageNum分页
      * @return 分页接口
      */
     @GetMapping(value = "/list")
@@ -53,10 +58,12 @@ public class CaseController {
                                    @RequestParam(required = false)  String beginTime,
                                    @RequestParam(required = false)  String endTime,
                                    @RequestParam(defaultValue = "1") Integer pageNum,
-                                   @RequestParam(defaultValue = "10") Integer pageSize) {
-        return Response.success(caseService.getCaseList(
-                new CaseQueryReq(0, title, creator, requirementId, beginTime,
-                        endTime, channel, bizId, productLineId, pageNum, pageSize)));
+                                   @RequestParam(defaultValue = "10") Integer pageSize,
+                                   @RequestParam(required = false) Long lastId) {
+        CaseQueryReq request = new CaseQueryReq(0, title, creator, requirementId, beginTime,
+                endTime, channel, bizId, productLineId, pageNum, pageSize);
+        request.setLastId(lastId);
+        return Response.success(caseService.getCaseList(request));
     }
 
     /**
@@ -151,6 +158,36 @@ public class CaseController {
         return Response.success(caseService.listCreators(caseType, productLineId));
     }
 
+    /**
+     * 全文检索用例标题以及节点的文本、备注
+     *
+     * @param productLineId 业务线id
+     * @param channel 渠道
+     * @param keyword 关键字，至少两个字
+     * @param limit 最多返回的用例数
+     * @return 命中的用例以及节点id
+     */
+    @GetMapping(value = "/search")
+    public Response<?> search(@RequestParam @NotNull(message = "业务线id为空") Long productLineId,
+                              @RequestParam @NotNull(message = "渠道为空") Integer channel,
+                              @RequestParam @NotNull(message = "关键字为空") String keyword,
+                              @RequestParam(defaultValue = "20") Integer limit) {
+        return Response.success(indexService.search(productLineId, channel, keyword, Math.min(limit, 100)));
+    }
+
+    /**
+     * 重建一条业务线的全文索引，上线后导入已有用例时调用一次
+     *
+     * @param productLineId 业务线id
+     * @param channel 渠道
+     * @return 提交重建的用例数
+     */
+    @PostMapping(value = "/reindex")
+    public Response<?> reindex(@RequestParam @NotNull(message = "业务线id为空") Long productLineId,
+                               @RequestParam @NotNull(message = "渠道为空") Integer channel) {
+        return Response.success(indexService.reindex(productLineId, channel));
+    }
+
     /**
      * 配合detail 修改圈选用例时统计的用例条目数据
      *
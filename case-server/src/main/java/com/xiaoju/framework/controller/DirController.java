@@ -39,7 +39,7 @@ public class DirController {
     @GetMapping(value = "/list")
     public Response<?> getDirTree(@RequestParam @NotNull(message = "业务线id为空") Long productLineId,
                                   @RequestParam @NotNull(message = "渠道为空") Integer channel) {
-        return Response.success(dirService.getAllCaseDir(dirService.getDirTree(productLineId, channel)));
+        return Response.success(dirService.getCaseDir(productLineId, channel));
     }
 
     /**
@@ -94,7 +94,8 @@ public class DirController {
     public Response<?> deleteDir(@RequestBody DirDeleteReq request) {
         request.validate();
         try {
-            return Response.success(dirService.getAllCaseDir(dirService.delDir(request)));
+            dirService.delDir(request);
+            return Response.success(dirService.getCaseDir(request.getProductLineId(), request.getChannel()));
         } catch (CaseServerException e) {
             throw new CaseServerException(e.getLocalizedMessage(), e.getStatus());
         } catch (Exception e) {
@@ -0,0 +1,58 @@
+package com.xiaoju.framework.controller;
+
+import com.xiaoju.framework.cache.CaseContentCache;
+import com.xiaoju.framework.cache.DirTreeCache;
+import com.xiaoju.framework.cache.RecordStatsCache;
+import com.xiaoju.framework.entity.response.controller.Response;
+import com.xiaoju.framework.entity.response.monitor.CacheStatsResp;
+import com.xiaoju.framework.entity.response.monitor.WebsocketStatsResp;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 运行状态controller
+ *
+ * @author didi
+ * @date 2026/10/18
+ */
+@RestController
+@RequestMapping(value = "/api/monitor")
+public class MonitorController {
+
+    @Resource
+    private CaseContentCache contentCache;
+
+    @Resource
+    private RecordStatsCache statsCache;
+
+    @Resource
+    private DirTreeCache dirCache;
+
+    /**
+     * 查看协同连接的运行状态
+     *
+     * @return 响应体
+     */
+    @GetMapping(value = "/websocket")
+    public Response<WebsocketStatsResp> websocket() {
+        return Response.success(WebsocketStatsResp.build());
+    }
+
+    /**
+     * 查看本地缓存的命中率、淘汰情况
+     *
+     * @return 响应体
+     */
+    @GetMapping(value = "/cache")
+    public Response<List<CacheStatsResp>> cache() {
+        return Response.success(Arrays.asList(
+                CacheStatsResp.build("caseContent", contentCache.stats(), contentCache.size(), contentCache.weightedSize()),
+                CacheStatsResp.build("recordStats", statsCache.stats(), statsCache.size(), statsCache.size()),
+                CacheStatsResp.build("dirTree", dirCache.stats(), dirCache.size(), dirCache.size())));
+    }
+}
@@ -3,11 +3,12 @@ package com.xiaoju.framework.controller;
 import com.xiaoju.framework.constants.SystemConstant;
 import com.xiaoju.framework.constants.enums.StatusCode;
 import com.xiaoju.framework.entity.exception.CaseServerException;
+import com.xiaoju.framework.entity.request.cases.FileBatchImportReq;
 import com.xiaoju.framework.entity.request.cases.FileImportReq;
 import com.xiaoju.framework.entity.response.cases.ExportXmindResp;
+import com.xiaoju.framework.entity.response.cases.ImportProgressResp;
 import com.xiaoju.framework.entity.response.controller.Response;
 import com.xiaoju.framework.service.FileService;
-import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.MediaType;
@@ -18,6 +19,7 @@ import javax.annotation.Resource;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.validation.constraints.NotNull;
+import java.io.BufferedOutputStream;
 import java.net.URLEncoder;
 
 /**
@@ -33,6 +35,11 @@ public class UploadController {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(UploadController.class);
 
+    /**
+     * 导出时响应流的缓冲区大小
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
     @Resource
     FileService fileService;
 
@@ -64,6 +71,46 @@ public class UploadController {
         }
     }
 
+    /**
+     * 批量导入zip中的所有x-mind文件，每个文件创建一个用例，标题取文件名
+     * 解析和入库在后台执行，立即返回任务id
+     *
+     * @param file 包含多个xmind的zip文件
+     * @param creator 创建人
+     * @param bizId 文件夹id
+     * @param productLineId 业务线id
+     * @param description 描述
+     * @param channel 频道
+     * @param requirementId 需求idStr
+     * @return 任务id
+     */
+    @PostMapping(value = "/batchImport", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public Response<String> batchImportXmind(@RequestParam MultipartFile file, String creator, String bizId,
+                                             Long productLineId, String description, Integer channel, String requirementId) {
+        FileBatchImportReq req = new FileBatchImportReq(file, creator, productLineId, description, channel, requirementId, bizId);
+        req.validate();
+        try {
+            return Response.success(fileService.batchImportXmindFile(req));
+        } catch (CaseServerException e) {
+            throw new CaseServerException(e.getLocalizedMessage(), e.getStatus());
+        } catch (Exception e) {
+            LOGGER.error("[批量导入x-mind出错] 传参req={},错误原因={}", req.toString(), e.getMessage());
+            e.printStackTrace();
+            return Response.build(StatusCode.FILE_IMPORT_ERROR.getStatus(), StatusCode.FILE_IMPORT_ERROR.getMsg());
+        }
+    }
+
+    /**
+     * 查询批量导入的进度
+     *
+     * @param taskId 批量导入返回的任务id
+     * @return 进度
+     */
+    @GetMapping(value = "/importProgress")
+    public Response<ImportProgressResp> getImportProgress(@RequestParam @NotNull(message = "任务id为空") String taskId) {
+        return Response.success(fileService.getImportProgress(taskId));
+    }
+
     /**
      * 根据caseId导出用例
      * response 文件在http响应中输出
@@ -74,7 +121,8 @@ public class UploadController {
     public void exportXmind(@RequestParam @NotNull(message = "用例id为空") Long id, HttpServletRequest request, HttpServletResponse response) {
         try {
             ExportXmindResp resp = fileService.exportXmindFile(id, request.getHeader(SystemConstant.HTTP_USER_AGENT));
-            populateHttpResponse(response, resp.getData(), resp.getFileName());
+            populateHttpResponse(response, resp.getFileName());
+            resp.writeTo(new BufferedOutputStream(response.getOutputStream(), BUFFER_SIZE));
         } catch (CaseServerException e) {
             throw new CaseServerException(e.getLocalizedMessage(), e.getStatus());
         } catch (Exception e) {
@@ -86,12 +134,11 @@ public class UploadController {
 
     /**
      * DispatchServlet手动扔出响应
+     * 文件边生成边写，事先不知道长度，不设置Content-Length，走chunked传输
      */
-    private void populateHttpResponse(HttpServletResponse response, byte[] data, String fileName) throws Exception {
+    private void populateHttpResponse(HttpServletResponse response, String fileName) throws Exception {
         response.setContentType("application/octet-stream; charset=UTF-8");
         response.setHeader("Content-Disposition", "attachment; fileName=" + fileName + ";filename*=utf-8''" + URLEncoder.encode(fileName, "UTF-8"));
-        response.addHeader("Content-Length", "" + data.length);
         response.setStatus(StatusCode.SERVICE_RUN_SUCCESS.getStatus());
-        IOUtils.write(data, response.getOutputStream());
     }
 }
\ No newline at end of file
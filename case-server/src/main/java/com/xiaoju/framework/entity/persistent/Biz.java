@@ -38,6 +38,12 @@ public class Biz {
 
     /**
      * 存储的内容
+     * 文件夹已经迁移到{@link BizFolder}和{@link CaseFolder}，这里只在第一次迁移时读取
      */
     private String content;
+
+    /**
+     * 文件夹版本号，文件夹或者用例关联修改时+1
+     */
+    private Long version;
 }
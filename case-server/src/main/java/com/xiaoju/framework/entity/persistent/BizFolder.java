@@ -0,0 +1,53 @@
+package com.xiaoju.framework.entity.persistent;
+
+import lombok.Data;
+
+import java.util.Date;
+
+/**
+ * 文件夹节点
+ *
+ * 一个文件夹一行，替代原来{@link Biz}中整条业务线一份的json
+ *
+ * @author didi
+ * @date 2026/10/18
+ */
+@Data
+public class BizFolder {
+
+    private Long id;
+
+    /**
+     * 业务线id
+     */
+    private Long productLineId;
+
+    /**
+     * channel 当前默认1
+     */
+    private Integer channel;
+
+    /**
+     * 文件夹id，即原来json中的id，用例的bizId引用的就是它
+     */
+    private String folderId;
+
+    /**
+     * 父文件夹id，顶级文件夹为空串
+     */
+    private String parentId;
+
+    /**
+     * 文件夹名称
+     */
+    private String text;
+
+    /**
+     * 在同级文件夹中的顺序
+     */
+    private Integer sort;
+
+    private Date gmtCreated;
+
+    private Date gmtModified;
+}
@@ -7,6 +7,10 @@ import java.util.Date;
 /**
  * 备份
  *
+ * 备份分为全量快照和增量两种：
+ * 快照 baseId为0，caseContent是完整的用例内容
+ * 增量 baseId是上一个备份，casePatch是相对上一个备份的JSON-Patch，snapshotId是这一串增量开头的快照
+ *
  * @author didi
  * @date 2019/11/05
  */
@@ -21,4 +25,28 @@ public class CaseBackup {
     private String recordContent;
     private String extra;
     private Integer isDelete;
+
+    /**
+     * 增量所基于的上一个备份id，0表示全量快照
+     */
+    private Long baseId;
+
+    /**
+     * 这一串增量开头的快照id，快照本身为0
+     */
+    private Long snapshotId;
+
+    /**
+     * 距离快照的增量个数，快照本身为0
+     */
+    private Integer depth;
+
+    /**
+     * gzip压缩后的JSON-Patch，只有增量有
+     */
+    private byte[] casePatch;
+
+    public boolean isSnapshot() {
+        return baseId == null || baseId == 0L;
+    }
 }
@@ -0,0 +1,40 @@
+package com.xiaoju.framework.entity.persistent;
+
+import lombok.Data;
+
+import java.util.Date;
+
+/**
+ * 用例与文件夹的关联，一个用例可以挂在多个文件夹下
+ *
+ * @author didi
+ * @date 2026/10/18
+ */
+@Data
+public class CaseFolder {
+
+    private Long id;
+
+    /**
+     * 业务线id
+     */
+    private Long productLineId;
+
+    /**
+     * channel 当前默认1
+     */
+    private Integer channel;
+
+    /**
+     * 文件夹id
+     * @see BizFolder#getFolderId()
+     */
+    private String folderId;
+
+    /**
+     * 用例id
+     */
+    private Long caseId;
+
+    private Date gmtCreated;
+}
@@ -0,0 +1,39 @@
+package com.xiaoju.framework.entity.persistent;
+
+import lombok.Data;
+
+import java.util.Date;
+
+/**
+ * 用例中每个脑图节点的文本，用于全文检索
+ *
+ * @author didi
+ * @date 2026/10/18
+ */
+@Data
+public class CaseNodeText {
+
+    private Long id;
+
+    /**
+     * 用例id
+     */
+    private Long caseId;
+
+    /**
+     * 脑图节点id
+     */
+    private String nodeId;
+
+    /**
+     * 节点文本
+     */
+    private String text;
+
+    /**
+     * 节点备注
+     */
+    private String note;
+
+    private Date gmtModified;
+}
@@ -35,6 +35,11 @@ public class CaseQueryReq {
 
     private Integer pageSize;
 
+    /**
+     * 游标分页时上一页最后一条用例的id，第一页传0，为空时按照pageNum分页
+     */
+    private Long lastId;
+
     public CaseQueryReq(Integer caseType, String title, String creator, String reqIds, String beginTime, String endTime, Integer channel, String bizId, Long lineId, Integer pageNum, Integer pageSize) {
         this.caseType = caseType;
         this.title = title;
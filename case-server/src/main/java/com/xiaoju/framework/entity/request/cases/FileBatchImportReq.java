@@ -0,0 +1,57 @@
+package com.xiaoju.framework.entity.request.cases;
+
+import com.xiaoju.framework.entity.request.ParamValidate;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import org.springframework.util.StringUtils;
+import org.springframework.web.multipart.MultipartFile;
+
+/**
+ * 用例 批量导入，上传一个包含多个xmind文件的zip，每个xmind生成一个用例，标题取文件名
+ *
+ * @author didi
+ * @date 2026/10/18
+ */
+@Data
+@AllArgsConstructor
+public class FileBatchImportReq implements ParamValidate {
+
+    private MultipartFile file;
+
+    private String creator;
+
+    private Long productLineId;
+
+    private String description;
+
+    /**
+     * 默认为1，如果有其他需求，可以变为其他数字
+     */
+    private Integer channel;
+
+    private String requirementId;
+
+    /**
+     * 所有用例都放到这些文件夹下，多个用逗号分隔
+     */
+    private String bizId;
+
+    @Override
+    public void validate() {
+        if (channel == null || channel < 0) {
+            throw new IllegalArgumentException("渠道为空或者非法");
+        }
+        if (file == null || file.isEmpty()) {
+            throw new IllegalArgumentException("请先上传文件");
+        }
+        if (productLineId == null || productLineId < 0L) {
+            throw new IllegalArgumentException("业务线id为空或者非法");
+        }
+        if (StringUtils.isEmpty(creator)) {
+            throw new IllegalArgumentException("创建人为空");
+        }
+        if (StringUtils.isEmpty(bizId)) {
+            throw new IllegalArgumentException("文件夹id");
+        }
+    }
+}
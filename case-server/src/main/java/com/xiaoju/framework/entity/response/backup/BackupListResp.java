@@ -0,0 +1,47 @@
+package com.xiaoju.framework.entity.response.backup;
+
+import lombok.Data;
+
+import java.util.Date;
+
+/**
+ * 备份历史列表，只有元数据，内容通过/api/backup/get按需获取
+ *
+ * @author didi
+ * @date 2026/10/18
+ */
+@Data
+public class BackupListResp {
+
+    /**
+     * 备份id
+     */
+    private Long id;
+
+    /**
+     * 用例id
+     */
+    private Long caseId;
+
+    /**
+     * 用例标题
+     */
+    private String title;
+
+    /**
+     * 保存人
+     */
+    private String creator;
+
+    /**
+     * 保存时间
+     */
+    private Date gmtCreated;
+
+    private String extra;
+
+    /**
+     * 是否全量快照
+     */
+    private boolean snapshot;
+}
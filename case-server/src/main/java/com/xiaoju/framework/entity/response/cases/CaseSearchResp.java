@@ -0,0 +1,36 @@
+package com.xiaoju.framework.entity.response.cases;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 用例全文检索结果
+ *
+ * @author didi
+ * @date 2026/10/18
+ */
+@Data
+public class CaseSearchResp {
+
+    /**
+     * 用例id
+     */
+    private Long id;
+
+    /**
+     * 用例标题
+     */
+    private String title;
+
+    /**
+     * 标题是否命中
+     */
+    private boolean titleMatched;
+
+    /**
+     * 命中的节点id
+     */
+    private List<String> nodeIds = new ArrayList<>();
+}
@@ -1,9 +1,15 @@
 package com.xiaoju.framework.entity.response.cases;
 
 import lombok.Data;
+import org.xmind.core.CoreException;
+import org.xmind.core.IWorkbook;
+
+import java.io.IOException;
+import java.io.OutputStream;
 
 /**
  * 导出的xmind所含有的内容
+ * 不再落盘或者先序列化成byte[]，由调用方直接写到响应流里
  *
  * @author hcy
  * @date 2020/10/27
@@ -13,5 +19,14 @@ public class ExportXmindResp {
 
     private String fileName;
 
-    private byte[] data;
+    private IWorkbook workbook;
+
+    /**
+     * 把xmind压缩包直接写到输出流，写完后输出流会被关闭
+     *
+     * @param out 输出流
+     */
+    public void writeTo(OutputStream out) throws IOException, CoreException {
+        workbook.save(out);
+    }
 }
@@ -0,0 +1,52 @@
+package com.xiaoju.framework.entity.response.cases;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 批量导入的进度
+ *
+ * @author didi
+ * @date 2026/10/18
+ */
+@Data
+public class ImportProgressResp {
+
+    /**
+     * 任务id
+     */
+    private String taskId;
+
+    /**
+     * 任务状态
+     * @see com.xiaoju.framework.constants.enums.ImportStatusEnum
+     */
+    private String status;
+
+    /**
+     * zip中xmind文件的个数
+     */
+    private int total;
+
+    /**
+     * 已经解析完的个数，包含解析失败的
+     */
+    private int parsed;
+
+    /**
+     * 已经创建的用例id，全部入库后一次性给出
+     */
+    private List<Long> caseIds = new ArrayList<>();
+
+    /**
+     * 解析失败的文件以及原因，这些文件不会生成用例
+     */
+    private List<String> failures = new ArrayList<>();
+
+    /**
+     * 任务整体失败时的原因
+     */
+    private String message;
+}
@@ -21,6 +21,11 @@ public class PageModule<T> implements Serializable {
 
     private Long total;
 
+    /**
+     * 游标分页时下一页的lastId，没有下一页时为空
+     */
+    private Long nextId;
+
     public static <T> PageModule<T> buildPage(List<T> dataSource, Long total) {
         PageModule<T> obj = new PageModule<>();
         obj.setDataSources(dataSource);
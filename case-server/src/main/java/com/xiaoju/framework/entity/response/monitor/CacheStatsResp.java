@@ -0,0 +1,58 @@
+package com.xiaoju.framework.entity.response.monitor;
+
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import lombok.Data;
+
+/**
+ * 本地缓存的运行状态
+ *
+ * @author didi
+ * @date 2026/10/18
+ */
+@Data
+public class CacheStatsResp {
+
+    /**
+     * 缓存名称
+     */
+    private String name;
+
+    /**
+     * 当前条数
+     */
+    private long size;
+
+    /**
+     * 当前占用的权重，按字节限制的缓存即估算的字节数，按条数限制的缓存与size相同
+     */
+    private long weightedSize;
+
+    /**
+     * 累计命中、未命中次数以及命中率
+     */
+    private long hitCount;
+
+    private long missCount;
+
+    private double hitRate;
+
+    /**
+     * 累计被淘汰的条数以及权重，主动失效的不算在内
+     */
+    private long evictionCount;
+
+    private long evictionWeight;
+
+    public static CacheStatsResp build(String name, CacheStats stats, long size, long weightedSize) {
+        CacheStatsResp resp = new CacheStatsResp();
+        resp.setName(name);
+        resp.setSize(size);
+        resp.setWeightedSize(weightedSize);
+        resp.setHitCount(stats.hitCount());
+        resp.setMissCount(stats.missCount());
+        resp.setHitRate(stats.hitRate());
+        resp.setEvictionCount(stats.evictionCount());
+        resp.setEvictionWeight(stats.evictionWeight());
+        return resp;
+    }
+}
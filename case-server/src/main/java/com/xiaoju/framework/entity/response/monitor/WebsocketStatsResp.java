@@ -0,0 +1,59 @@
+package com.xiaoju.framework.entity.response.monitor;
+
+import com.xiaoju.framework.handler.HeartbeatScheduler;
+import com.xiaoju.framework.handler.WebSocket;
+import lombok.Data;
+
+/**
+ * 协同连接的运行状态
+ *
+ * @author didi
+ * @date 2026/10/18
+ */
+@Data
+public class WebsocketStatsResp {
+
+    /**
+     * 当前在线的session数
+     */
+    private int liveSessions;
+
+    /**
+     * 当前协同房间数
+     */
+    private int rooms;
+
+    /**
+     * 累计发送的ping数
+     */
+    private long pingCount;
+
+    /**
+     * 累计因为心跳超时被关闭的session数
+     */
+    private long evictCount;
+
+    /**
+     * 累计心跳出错次数
+     */
+    private long heartbeatErrorCount;
+
+    /**
+     * 最近一次、最长一次心跳tick的耗时，单位ms
+     */
+    private long lastTickCost;
+
+    private long maxTickCost;
+
+    public static WebsocketStatsResp build() {
+        WebsocketStatsResp resp = new WebsocketStatsResp();
+        resp.setLiveSessions(HeartbeatScheduler.getLiveCount());
+        resp.setRooms(WebSocket.rooms.size());
+        resp.setPingCount(HeartbeatScheduler.getPingCount());
+        resp.setEvictCount(HeartbeatScheduler.getEvictCount());
+        resp.setHeartbeatErrorCount(HeartbeatScheduler.getErrorCount());
+        resp.setLastTickCost(HeartbeatScheduler.getLastTickCost());
+        resp.setMaxTickCost(HeartbeatScheduler.getMaxTickCost());
+        return resp;
+    }
+}
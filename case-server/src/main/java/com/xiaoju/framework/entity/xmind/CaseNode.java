@@ -0,0 +1,61 @@
+package com.xiaoju.framework.entity.xmind;
+
+import com.alibaba.fastjson.JSONObject;
+import lombok.Data;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 用例节点的紧凑模型
+ * 只保留统计、圈选、合并执行结果时用到的字段，progress、priority使用基本类型，id做了intern
+ * 需要把节点还原成json时才会保留原始的data以及节点上的其他字段
+ *
+ * @author didi
+ * @date 2026/10/18
+ * @see com.xiaoju.framework.util.CaseNodeUtil
+ */
+@Data
+public class CaseNode {
+
+    /**
+     * progress、priority不存在时的取值
+     */
+    public static final int ABSENT = -1;
+
+    /**
+     * 节点id
+     */
+    private String id;
+
+    /**
+     * 用例行为 阻塞、失败、成功、不执行，不存在为ABSENT
+     */
+    private int progress = ABSENT;
+
+    /**
+     * 优先级，不存在为ABSENT
+     */
+    private int priority = ABSENT;
+
+    /**
+     * 标签，不存在为null
+     */
+    private String[] resource;
+
+    private List<CaseNode> children = Collections.emptyList();
+
+    /**
+     * 原始的data，只有需要还原成json时才会保留
+     */
+    private JSONObject data;
+
+    /**
+     * 节点上data、children以外的字段，同样只有需要还原成json时才会保留，没有时为null
+     */
+    private JSONObject extra;
+
+    public boolean isLeaf() {
+        return children.isEmpty();
+    }
+}
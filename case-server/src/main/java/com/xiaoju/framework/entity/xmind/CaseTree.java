@@ -0,0 +1,22 @@
+package com.xiaoju.framework.entity.xmind;
+
+import com.alibaba.fastjson.JSONObject;
+import lombok.Data;
+
+/**
+ * 解析后的用例内容
+ *
+ * @author didi
+ * @date 2026/10/18
+ * @see com.xiaoju.framework.util.CaseNodeUtil#parse(String, boolean)
+ */
+@Data
+public class CaseTree {
+
+    /**
+     * 除root以外的顶层字段，例如template、theme、base，只有需要还原成json时才会保留
+     */
+    private JSONObject meta;
+
+    private CaseNode root;
+}
@@ -0,0 +1,194 @@
+package com.xiaoju.framework.handler;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * websocket心跳调度
+ * 所有session按照加入顺序平均分到buckets个桶里，每interval/buckets执行一次tick，每次只处理一个桶
+ * 这样一轮interval内每个session都会被ping一次，但是每次tick只需要处理1/buckets的session，不会出现一次扫描全部连接的尖刺
+ *
+ * 1. ping只是放入session的发送队列，由发送线程异步发出，一个卡住的连接不会拖慢其他人的心跳
+ * 2. 超时的session交给单独的线程关闭，关闭时的保存等操作不会占用心跳线程
+ * 3. 每次tick都会兜住所有异常，任何一个session出错都不会让心跳停下来
+ *
+ * @author didi
+ * @date 2026/10/18
+ */
+public class HeartbeatScheduler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HeartbeatScheduler.class);
+
+    /**
+     * 超过多久没有收到pong认为掉线，单位ms
+     * @see com.xiaoju.framework.config.ApplicationConfig#setWebsocketHeartbeat(long, long, int)
+     */
+    public static long timeout = 10000L;
+
+    private static volatile Set<WebSocket>[] buckets = newBuckets(10);
+
+    private static final AtomicInteger next = new AtomicInteger();
+
+    private static int cursor;
+
+    private static ScheduledExecutorService scheduler;
+
+    private static ExecutorService evictor;
+
+    /**
+     * 统计信息
+     */
+    private static final AtomicInteger liveCount = new AtomicInteger();
+    private static final AtomicLong pingCount = new AtomicLong();
+    private static final AtomicLong evictCount = new AtomicLong();
+    private static final AtomicLong errorCount = new AtomicLong();
+    private static volatile long lastTickCost;
+    private static volatile long maxTickCost;
+
+    @SuppressWarnings("unchecked")
+    private static Set<WebSocket>[] newBuckets(int size) {
+        Set<WebSocket>[] result = new Set[size];
+        for (int i = 0; i < size; i++) {
+            result[i] = ConcurrentHashMap.newKeySet();
+        }
+        return result;
+    }
+
+    /**
+     * 启动心跳
+     *
+     * @param interval 每个session多久ping一次，单位ms
+     * @param bucketSize 桶的个数
+     */
+    public static synchronized void start(long interval, int bucketSize) {
+        if (scheduler != null) {
+            return;
+        }
+        if (bucketSize != buckets.length) {
+            Set<WebSocket>[] resized = newBuckets(bucketSize);
+            for (Set<WebSocket> bucket : buckets) {
+                for (WebSocket ws : bucket) {
+                    resized[Math.floorMod(ws.getHeartbeatSlot(), bucketSize)].add(ws);
+                }
+            }
+            buckets = resized;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ws-heartbeat");
+            t.setDaemon(true);
+            return t;
+        });
+        evictor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "ws-evictor");
+            t.setDaemon(true);
+            return t;
+        });
+        long tick = Math.max(1L, interval / bucketSize);
+        scheduler.scheduleAtFixedRate(HeartbeatScheduler::tick, tick, tick, TimeUnit.MILLISECONDS);
+        LOGGER.info("[websocket心跳启动]interval={}ms, buckets={}, timeout={}ms", interval, bucketSize, timeout);
+    }
+
+    /**
+     * 加入心跳，返回分配到的槽位
+     */
+    public static int register(WebSocket webSocket) {
+        int slot = next.getAndIncrement();
+        if (buckets[Math.floorMod(slot, buckets.length)].add(webSocket)) {
+            liveCount.incrementAndGet();
+        }
+        return slot;
+    }
+
+    /**
+     * 移除心跳
+     */
+    public static void unregister(WebSocket webSocket) {
+        Set<WebSocket>[] current = buckets;
+        if (current[Math.floorMod(webSocket.getHeartbeatSlot(), current.length)].remove(webSocket)) {
+            liveCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * 处理一个桶：发送ping，并把超时的session交给关闭线程
+     */
+    private static void tick() {
+        long start = System.currentTimeMillis();
+        try {
+            Set<WebSocket>[] current = buckets;
+            cursor = (cursor + 1) % current.length;
+            for (WebSocket ws : current[cursor]) {
+                try {
+                    if (start - ws.getPongTimeStamp() > timeout) {
+                        // 先移出心跳，保证只会被关闭一次
+                        unregister(ws);
+                        evictCount.incrementAndGet();
+                        LOGGER.error("[websocket心跳超时]准备关闭当前websocket={}", ws.toString());
+                        evictor.execute(ws::evict);
+                    } else {
+                        ws.ping();
+                        pingCount.incrementAndGet();
+                    }
+                } catch (Exception e) {
+                    errorCount.incrementAndGet();
+                    LOGGER.error("[websocket心跳出错]websocket={}, 原因={}", ws, e.getMessage(), e);
+                }
+            }
+        } catch (Throwable e) {
+            errorCount.incrementAndGet();
+            LOGGER.error("[websocket心跳出错]原因={}", e.getMessage(), e);
+        } finally {
+            long cost = System.currentTimeMillis() - start;
+            lastTickCost = cost;
+            if (cost > maxTickCost) {
+                maxTickCost = cost;
+            }
+        }
+    }
+
+    /**
+     * 停止心跳
+     */
+    public static synchronized void shutdown() {
+        if (scheduler == null) {
+            return;
+        }
+        scheduler.shutdownNow();
+        evictor.shutdown();
+        scheduler = null;
+        evictor = null;
+    }
+
+    public static int getLiveCount() {
+        return liveCount.get();
+    }
+
+    public static long getPingCount() {
+        return pingCount.get();
+    }
+
+    public static long getEvictCount() {
+        return evictCount.get();
+    }
+
+    public static long getErrorCount() {
+        return errorCount.get();
+    }
+
+    public static long getLastTickCost() {
+        return lastTickCost;
+    }
+
+    public static long getMaxTickCost() {
+        return maxTickCost;
+    }
+}
@@ -0,0 +1,373 @@
+package com.xiaoju.framework.handler;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 每个session的发送队列
+ * 收到消息的tomcat线程只负责入队，由发送线程通过getAsyncRemote()异步发出，同一个session同一时间只有一条消息在途
+ * 这样一个慢客户端只会让自己的队列变长，不会拖住发送者以及房间里的其他人
+ *
+ * 队列是有界的，背压策略如下：
+ * 1. 积压条数达到coalesceThreshold后，新来的patch会合并到队尾的patch里，客户端本身支持一次收到多组patch
+ * 2. 积压字符数超过maxPendingChars后，丢弃所有积压的消息，下一次发送时直接推送一份全量内容让客户端重新同步
+ *    积压的消息里可能有更早的全量内容，如果留着在新的全量内容之后发出，客户端会退回旧的内容，所以不只丢patch
+ *
+ * @author didi
+ * @date 2026/10/18
+ */
+public class OutboundQueue implements SendHandler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OutboundQueue.class);
+
+    /**
+     * patch消息的格式为[[{op...}], [{op...}]]
+     */
+    private static final String PATCH_PREFIX = "[[";
+
+    /**
+     * 积压多少条以后开始合并patch
+     * @see com.xiaoju.framework.config.ApplicationConfig#setWebsocketOutbound(int, int, int)
+     */
+    public static int coalesceThreshold = 16;
+
+    /**
+     * 积压多少字符以后丢弃积压的patch，改为全量重新同步
+     */
+    public static int maxPendingChars = 4 * 1024 * 1024;
+
+    /**
+     * 发送线程，只负责发起异步发送，不会阻塞在网络上
+     */
+    private static volatile ExecutorService sender;
+
+    private final Session session;
+
+    /**
+     * 全量内容的锁，patch的应用和入队都在这把锁内完成
+     */
+    private final Object contentLock;
+
+    /**
+     * 重新同步时获取全量内容
+     */
+    private final Supplier<String> resyncSupplier;
+
+    private final Deque<Message> pending = new ArrayDeque<>();
+
+    private long pendingChars;
+
+    /**
+     * 是否有消息在途
+     */
+    private boolean sending;
+
+    /**
+     * 是否已经提交了发送任务
+     */
+    private boolean scheduled;
+
+    /**
+     * 是否需要推送全量内容
+     */
+    private boolean resync;
+
+    /**
+     * 在途消息的入队时间
+     */
+    private long inflightEnqueueTime;
+
+    /**
+     * 统计信息
+     */
+    private final AtomicLong sentCount = new AtomicLong();
+    private final AtomicLong failCount = new AtomicLong();
+    private final AtomicLong coalesceCount = new AtomicLong();
+    private final AtomicLong dropCount = new AtomicLong();
+    private final AtomicLong resyncCount = new AtomicLong();
+    private final AtomicLong totalLatency = new AtomicLong();
+    private volatile long lastLatency;
+    private volatile long maxLatency;
+
+    public OutboundQueue(Session session, Object contentLock, Supplier<String> resyncSupplier) {
+        this.session = session;
+        this.contentLock = contentLock;
+        this.resyncSupplier = resyncSupplier;
+    }
+
+    /**
+     * 初始化发送线程
+     */
+    public static synchronized void start(int threads) {
+        if (sender != null) {
+            return;
+        }
+        AtomicInteger index = new AtomicInteger();
+        sender = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "ws-sender-" + index.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    private static ExecutorService sender() {
+        if (sender == null) {
+            start(Runtime.getRuntime().availableProcessors());
+        }
+        return sender;
+    }
+
+    /**
+     * 消息入队，不会阻塞
+     */
+    public void offer(String text) {
+        if (text == null || !session.isOpen()) {
+            return;
+        }
+        boolean patch = text.startsWith(PATCH_PREFIX);
+        synchronized (this) {
+            if (patch && resync) {
+                // 等待全量同步，全量内容里已经包含了这条patch
+                dropCount.incrementAndGet();
+                return;
+            }
+
+            Message tail = pending.peekLast();
+            if (patch && tail != null && tail.patch && pending.size() >= coalesceThreshold) {
+                // [[a]] + [[b]] = [[a],[b]]
+                String merged = tail.text.substring(0, tail.text.length() - 1) + "," + text.substring(1);
+                pendingChars += merged.length() - tail.text.length();
+                tail.text = merged;
+                coalesceCount.incrementAndGet();
+            } else {
+                pending.addLast(new Message(text, patch, System.currentTimeMillis()));
+                pendingChars += text.length();
+            }
+
+            if (pendingChars > maxPendingChars) {
+                dropPending();
+            }
+        }
+        schedule();
+    }
+
+    /**
+     * 丢弃所有积压的消息，等待发送线程推送全量内容
+     */
+    private void dropPending() {
+        discardPending();
+        resync = true;
+        LOGGER.warn("[websocket发送队列积压]丢弃积压的消息，等待全量同步, sessionId={}", session.getId());
+    }
+
+    private void discardPending() {
+        dropCount.addAndGet(pending.size());
+        pending.clear();
+        pendingChars = 0;
+    }
+
+    private void schedule() {
+        synchronized (this) {
+            if (scheduled || sending || (pending.isEmpty() && !resync)) {
+                return;
+            }
+            scheduled = true;
+        }
+        sender().execute(this::drain);
+    }
+
+    /**
+     * 发出下一条消息，在发送线程上执行
+     */
+    private void drain() {
+        String text = null;
+        boolean full;
+        synchronized (this) {
+            scheduled = false;
+            if (sending) {
+                return;
+            }
+            full = resync;
+            if (full) {
+                inflightEnqueueTime = System.currentTimeMillis();
+            } else {
+                Message message = pending.pollFirst();
+                if (message == null) {
+                    return;
+                }
+                pendingChars -= message.text.length();
+                text = message.text;
+                inflightEnqueueTime = message.enqueueTime;
+            }
+            sending = true;
+        }
+
+        if (full) {
+            text = snapshot();
+        }
+        if (text == null) {
+            synchronized (this) {
+                sending = false;
+            }
+            schedule();
+            return;
+        }
+
+        if (!session.isOpen()) {
+            synchronized (this) {
+                sending = false;
+            }
+            clear();
+            return;
+        }
+        try {
+            session.getAsyncRemote().sendText(text, this);
+        } catch (Exception e) {
+            LOGGER.error("[websocket发送失败]sessionId={}, 原因={}", session.getId(), e.getMessage());
+            onResult(new SendResult(e));
+        }
+    }
+
+    /**
+     * 获取用于重新同步的全量内容
+     * 先拿内容锁再拿队列锁，和patch入队的加锁顺序一致：
+     * 快照之前入队的消息都比全量内容旧，全部丢弃，包括更早的全量内容；快照之后的消息在清除resync标记之后才会入队，不会丢失
+     */
+    private String snapshot() {
+        synchronized (contentLock) {
+            String content = resyncSupplier.get();
+            synchronized (this) {
+                discardPending();
+                resync = false;
+                resyncCount.incrementAndGet();
+            }
+            return content;
+        }
+    }
+
+    @Override
+    public void onResult(SendResult result) {
+        long latency = System.currentTimeMillis() - inflightEnqueueTime;
+        if (result.isOK()) {
+            sentCount.incrementAndGet();
+            totalLatency.addAndGet(latency);
+            lastLatency = latency;
+            if (latency > maxLatency) {
+                maxLatency = latency;
+            }
+        } else {
+            failCount.incrementAndGet();
+            LOGGER.info("[websocket发送失败]sessionId={}, 原因={}", session.getId(),
+                    result.getException() == null ? null : result.getException().getMessage());
+        }
+
+        synchronized (this) {
+            sending = false;
+        }
+        if (session.isOpen()) {
+            schedule();
+        } else {
+            clear();
+        }
+    }
+
+    /**
+     * session关闭后清空队列
+     */
+    public synchronized void clear() {
+        pending.clear();
+        pendingChars = 0;
+        resync = false;
+    }
+
+    public synchronized int getPendingSize() {
+        return pending.size();
+    }
+
+    public synchronized long getPendingChars() {
+        return pendingChars;
+    }
+
+    public long getSentCount() {
+        return sentCount.get();
+    }
+
+    public long getFailCount() {
+        return failCount.get();
+    }
+
+    public long getCoalesceCount() {
+        return coalesceCount.get();
+    }
+
+    public long getDropCount() {
+        return dropCount.get();
+    }
+
+    public long getResyncCount() {
+        return resyncCount.get();
+    }
+
+    public long getLastLatency() {
+        return lastLatency;
+    }
+
+    public long getMaxLatency() {
+        return maxLatency;
+    }
+
+    public long getAvgLatency() {
+        long sent = sentCount.get();
+        return sent == 0 ? 0 : totalLatency.get() / sent;
+    }
+
+    /**
+     * 关闭发送线程
+     */
+    public static synchronized void shutdown() {
+        if (sender == null) {
+            return;
+        }
+        sender.shutdown();
+        try {
+            sender.awaitTermination(3, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        sender = null;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("sent=%d, fail=%d, coalesced=%d, dropped=%d, resync=%d, pending=%d, latency(ms) last=%d avg=%d max=%d",
+                getSentCount(), getFailCount(), getCoalesceCount(), getDropCount(), getResyncCount(), getPendingSize(),
+                getLastLatency(), getAvgLatency(), getMaxLatency());
+    }
+
+    /**
+     * 队列中的消息
+     */
+    private static class Message {
+        private String text;
+        private final boolean patch;
+        private final long enqueueTime;
+
+        Message(String text, boolean patch, long enqueueTime) {
+            this.text = text;
+            this.patch = patch;
+            this.enqueueTime = enqueueTime;
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package com.xiaoju.framework.handler;
+
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import com.xiaoju.framework.util.PatchUtil;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 协同房间
+ * 同一份用例/任务，即同一个(caseId, recordId)下的所有websocket都挂在同一个房间里
+ * 广播、保存、查询正在编辑的人时只需要看房间内的成员，开销只和房间大小有关，和全局连接数无关
+ *
+ * 房间内持有一份权威的用例/任务内容，收到patch后直接作用在这份内容上，而不是每个人都存一份前端发来的全量内容
+ * 内容、版本号以及更新时间的读写都需要持有房间锁，即synchronized(room)
+ * 房间内的修改不会立刻落库，而是由{@link WriteBehindFlusher}攒一段时间后统一保存，保存过程持有{@link #getFlushLock()}
+ *
+ * @author didi
+ * @date 2026/10/18
+ * @see WebSocket#rooms
+ */
+public class Room {
+
+    private final String caseId;
+
+    private final String recordId;
+
+    /**
+     * 房间内的成员
+     * { sessionId, websocket }
+     */
+    private final Map<String, WebSocket> members = new ConcurrentHashMap<>();
+
+    /**
+     * 房间内权威的用例/任务内容，第一个人进入房间时从数据库加载
+     */
+    private JSONObject content;
+
+    /**
+     * 服务端维护的版本号，每应用一次patch加一
+     */
+    private long base;
+
+    /**
+     * 最后一次被修改的时间，0表示没有待保存的修改
+     * 用例房间对应用例的修改，任务房间对应执行结果的修改
+     */
+    private long updateTime;
+
+    /**
+     * 第一次出现未保存修改的时间，用来限制最长多久必须落库一次
+     */
+    private long dirtySince;
+
+    /**
+     * 上次保存以后修改过的人，任务保存时需要记到执行人里
+     */
+    private LinkedHashSet<String> editors = new LinkedHashSet<>();
+
+    /**
+     * 保存锁，同一个房间同一时间只有一个保存过程，防止旧的内容覆盖新的内容
+     * 和房间锁分开，落库期间不会阻塞patch的处理
+     */
+    private final Object flushLock = new Object();
+
+    /**
+     * 最后一个人离开后房间被关闭，不允许再加入
+     */
+    private boolean closed;
+
+    public Room(String caseId, String recordId) {
+        this.caseId = caseId;
+        this.recordId = recordId;
+    }
+
+    public String getCaseId() {
+        return caseId;
+    }
+
+    public String getRecordId() {
+        return recordId;
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    public synchronized void close() {
+        this.closed = true;
+    }
+
+    public synchronized boolean isLoaded() {
+        return content != null;
+    }
+
+    /**
+     * 加载内容
+     */
+    public synchronized void load(JSONObject content) {
+        this.content = content;
+        this.base = content == null ? 0 : content.getLongValue("base");
+    }
+
+    /**
+     * 用数据库里更新的内容替换房间内容，版本号继续递增，不会回退到数据库内容里的版本号
+     */
+    public synchronized void reload(JSONObject content) {
+        this.base = Math.max(base + 1, content.getLongValue("base"));
+        content.put("base", base);
+        this.content = content;
+    }
+
+    /**
+     * 获取当前的全量内容，进入房间以及发送队列重新同步时使用
+     */
+    public synchronized String getContent() {
+        return content == null ? null : content.toJSONString();
+    }
+
+    /**
+     * 应用patch，返回新的版本号
+     * patch无法应用时说明发送者的内容已经和服务端不一致，直接抛出异常，房间内容和版本号都保持不变，
+     * 由调用方用{@link #getContent()}让发送者重新同步，不能用前端发来的全量内容覆盖，那份内容可能落后于其他人已经生效的修改
+     *
+     * @param patch 前端发来的patch
+     */
+    public synchronized long applyPatch(JSONArray patch) {
+        if (content == null) {
+            throw new IllegalStateException("房间内容尚未加载");
+        }
+        // 失败时内容保持原样
+        PatchUtil.apply(content, patch);
+        // 前端patch里的版本号不可信，统一以服务端为准
+        content.put("base", ++base);
+        return base;
+    }
+
+    public synchronized long getBase() {
+        return base;
+    }
+
+    public Object getFlushLock() {
+        return flushLock;
+    }
+
+    /**
+     * 标记房间内容被修改
+     */
+    public synchronized void markUpdated(long time, String user) {
+        if (updateTime == 0L) {
+            dirtySince = time;
+        }
+        updateTime = time;
+        if (user != null) {
+            editors.add(user);
+        }
+    }
+
+    public synchronized long getUpdateTime() {
+        return updateTime;
+    }
+
+    public synchronized boolean isDirty() {
+        return updateTime != 0L;
+    }
+
+    /**
+     * 是否需要保存：停止修改超过debounce，或者距离第一次未保存的修改超过maxStaleness
+     */
+    public synchronized boolean isFlushDue(long now, long debounce, long maxStaleness) {
+        return updateTime != 0L && (now - updateTime >= debounce || now - dirtySince >= maxStaleness);
+    }
+
+    /**
+     * 取走待保存的修改人，并清掉修改标记，之后的修改会重新标记
+     */
+    public synchronized List<String> takeUpdate() {
+        List<String> users = new ArrayList<>(editors);
+        editors = new LinkedHashSet<>();
+        updateTime = 0L;
+        dirtySince = 0L;
+        return users;
+    }
+
+    /**
+     * 保存失败时恢复修改标记，等待下一次保存
+     */
+    public synchronized void restoreUpdate(long time, List<String> users) {
+        if (updateTime == 0L) {
+            updateTime = time;
+            dirtySince = time;
+        }
+        editors.addAll(users);
+    }
+
+    /**
+     * 加入房间
+     */
+    public void join(String sessionId, WebSocket webSocket) {
+        members.put(sessionId, webSocket);
+    }
+
+    /**
+     * 离开房间，只会移除自己，防止同一个sessionId被新的连接复用时误删
+     */
+    public void leave(String sessionId, WebSocket webSocket) {
+        members.remove(sessionId, webSocket);
+    }
+
+    public boolean isEmpty() {
+        return members.isEmpty();
+    }
+
+    public int size() {
+        return members.size();
+    }
+
+    /**
+     * 获取房间内所有的成员
+     */
+    public Collection<WebSocket> getMembers() {
+        return members.values();
+    }
+
+    /**
+     * 获取房间内除了自己以外的成员
+     */
+    public List<WebSocket> getOthers(String sessionId) {
+        List<WebSocket> others = new ArrayList<>(members.size());
+        for (Map.Entry<String, WebSocket> entry : members.entrySet()) {
+            if (!entry.getKey().equals(sessionId)) {
+                others.add(entry.getValue());
+            }
+        }
+        return others;
+    }
+}
@@ -3,16 +3,22 @@ package com.xiaoju.framework.handler;
 import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
+import com.xiaoju.framework.cache.CaseContentCache;
+import com.xiaoju.framework.cache.RecordStatsCache;
 import com.xiaoju.framework.config.ApplicationConfig;
 import com.xiaoju.framework.constants.SystemConstant;
 import com.xiaoju.framework.constants.enums.StatusCode;
+import com.xiaoju.framework.entity.dto.PickCaseDto;
 import com.xiaoju.framework.entity.dto.RecordWsDto;
 import com.xiaoju.framework.entity.exception.CaseServerException;
 import com.xiaoju.framework.entity.persistent.ExecRecord;
 import com.xiaoju.framework.entity.persistent.TestCase;
-import com.xiaoju.framework.entity.xmind.IntCount;
+import com.xiaoju.framework.entity.xmind.CaseTree;
 import com.xiaoju.framework.mapper.TestCaseMapper;
+import com.xiaoju.framework.service.CaseIndexService;
 import com.xiaoju.framework.service.RecordService;
+import com.xiaoju.framework.util.CaseFilter;
+import com.xiaoju.framework.util.CaseNodeUtil;
 import com.xiaoju.framework.util.TreeUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -23,11 +29,8 @@ import org.springframework.util.StringUtils;
 import javax.websocket.*;
 import javax.websocket.server.PathParam;
 import javax.websocket.server.ServerEndpoint;
-import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.concurrent.locks.ReentrantLock;
-import java.util.stream.Collectors;
 
 /**
  * 协同类
@@ -52,10 +55,13 @@ public class WebSocket {
 
     /**
      * 依赖
-     * @see ApplicationConfig#setWebsocketService(com.xiaoju.framework.service.RecordService, com.xiaoju.framework.mapper.TestCaseMapper)
+     * @see ApplicationConfig#setWebsocketService(com.xiaoju.framework.service.RecordService, com.xiaoju.framework.mapper.TestCaseMapper, com.xiaoju.framework.cache.RecordStatsCache, com.xiaoju.framework.cache.CaseContentCache)
      */
     public static RecordService recordService;
     public static TestCaseMapper caseMapper;
+    public static RecordStatsCache statsCache;
+    public static CaseContentCache contentCache;
+    public static CaseIndexService indexService;
 
     /**
      * 在Websocket.class粒度下，存储所有的websocket信息
@@ -64,28 +70,30 @@ public class WebSocket {
     public static ConcurrentHashMap<String, WebSocket> webSocket = new ConcurrentHashMap<>();
 
     /**
-     * 在Websocket.class粒度下，存储所有的websocket.key,主要用户方便获取用户信息
-     * [buildSerial(caseId, recordId, sessionId)]
+     * 在Websocket.class粒度下，按照用例/任务存储所有的协同房间，广播时只需要遍历同一个房间的成员
+     * { buildSerial(caseId, recordId), new Room() }
+     *
+     * 不再使用全局锁：webSocket和rooms本身是并发安全的，房间成员的变更以及内容的加载只持有对应房间的锁
+     * 不同用例/任务的连接、断开互不影响
      */
-    public static CopyOnWriteArrayList<String> keys = new CopyOnWriteArrayList<>();
-
-    /**
-     * 单机模式下可以使用公平锁, 对数据的访问和获取都做一次顺序拦截
-     */
-    private static ReentrantLock lock = new ReentrantLock(true);
+    public static ConcurrentHashMap<String, Room> rooms = new ConcurrentHashMap<>();
 
     /**
      * 每个websocket所持有的基本信息
      */
     private String caseId;
     private Session session;
-    private String caseContent;
-    private long updateCaseTime;
-    private long updateRecordTime;
     private String recordId;
     private String isCore;
     private String user;
-    private long pongTimeStamp;
+    private volatile long pongTimeStamp;
+    private int heartbeatSlot;
+    private Room room;
+
+    /**
+     * 当前session的发送队列，所有发给这个session的消息都要经过这里
+     */
+    private OutboundQueue outbound;
 
     @Override
     public String toString() {
@@ -98,37 +106,6 @@ public class WebSocket {
         return buildSerial(caseId, recordId, session.getId());
     }
 
-
-    static {
-        // 线程池，每过5s向所有session发送ping，如果6s内没有收到响应，会执行session.close()去关闭session
-        LOGGER.info("[线程池执行ping-pong] time = {}", System.currentTimeMillis());
-        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 2, 3,
-                TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(3),
-                new ThreadPoolExecutor.DiscardOldestPolicy());
-        executor.execute(() -> {
-            try {
-                // 看看是不是链接关闭了，如果没有收到就关闭
-                while (true) {
-                    for (Map.Entry<String, WebSocket> entry : WebSocket.webSocket.entrySet()) {
-                        if (!UNDEFINED.equals(entry.getValue().caseId)) {
-                            // 其实这里可以把方法变成static
-                            entry.getValue().singleSendMessage(entry.getValue().session, PING_MESSAGE);
-                            // 看看是不是过时的内容，超过10秒无响应认为掉线
-                            if (System.currentTimeMillis() - entry.getValue().pongTimeStamp > 10000) {
-                                LOGGER.error("[线程池执行ping-pong出错]准备关闭当前websocket={}", entry.getValue().toString());
-                                entry.getValue().onClose();
-                            }
-                        }
-                    }
-                    Thread.sleep(5000);
-                }
-            } catch (Exception e) {
-                LOGGER.error("[线程池执行ping-pong出错]错误原因e={}", e.getMessage());
-                e.printStackTrace();
-            }
-        });
-    }
-
     private static String buildSerial(String ... ids) {
         StringBuilder builder = new StringBuilder();
         for (String id : ids) {
@@ -142,14 +119,12 @@ public class WebSocket {
                                     @PathParam(value = "recordId") String recordId,
                                     @PathParam(value = "isCore") String isCore,
                                     @PathParam(value = "user") String user,
-                                    Session session) throws IOException {
+                                    Session session) {
         this.session = session;
         this.caseId = caseId;
         this.recordId = recordId;
         this.isCore = isCore;
         this.user = user;
-        this.updateCaseTime = 0;
-        this.updateRecordTime = 0;
         this.pongTimeStamp = System.currentTimeMillis();
         LOGGER.info("[websocket-onOpen 开启新的session][{}]", toString());
 
@@ -158,46 +133,29 @@ public class WebSocket {
             throw new CaseServerException("用例id为空", StatusCode.WS_UNKNOWN_ERROR);
         }
 
-        // 查看当前是否有其他用户一齐正在编辑此用例/任务
-        // 如果有，那么打开的时候先保存一下
-        if (getAllSessionInfo(caseId, recordId).size() >= 1) {
-            saveCaseOrRecord(caseId, recordId, user);
-        }
+        // 房间内的内容就是最新的，其他人正在编辑时不再需要先保存一遍
+        joinRoom();
 
         // 然后再把当前用户信息装入
-        lock.lock();
-        try {
-            // 这么做是因为使用了.startsWith，这里给与对齐，防止例如1+11和111是一样的情况
-            String serial = currentSession();
-            WebSocket.keys.add(serial);
-            WebSocket.webSocket.put(serial, this);
-        } finally {
-            lock.unlock();
-        }
-
-        open(caseId, recordId, isCore);
+        WebSocket.webSocket.put(currentSession(), this);
+        this.heartbeatSlot = HeartbeatScheduler.register(this);
     }
 
     @OnClose
     public void onClose() {
-        LOGGER.info("[websocket-onClose 关闭当前session成功]当前session={}", currentSession());
+        LOGGER.info("[websocket-onClose 关闭当前session成功]当前session={}, 发送统计={}", currentSession(), outbound);
         if (UNDEFINED.equals(caseId)) {
             throw new CaseServerException("用例id为空", StatusCode.WS_UNKNOWN_ERROR);
         }
 
-        saveCaseOrRecord(caseId, recordId, user);
-        lock.lock();
-        try {
-            String serial = currentSession();
-            WebSocket.webSocket.remove(serial, this);
-            WebSocket.keys.remove(serial);
-        } finally {
-            lock.unlock();
-        }
+        WebSocket.webSocket.remove(currentSession(), this);
+        HeartbeatScheduler.unregister(this);
+        // 最后一个人离开时会同步保存
+        leaveRoom();
     }
 
     @OnMessage(maxMessageSize = 1048576)
-    public void onMessage(String message, Session session) throws IOException {
+    public void onMessage(String message, Session session) {
         // 线程池通信内容忽略
         if (message.contains(PONG_MESSAGE)) {
             pongTimeStamp = System.currentTimeMillis();
@@ -205,262 +163,349 @@ public class WebSocket {
         }
 
         // 如果内容体为空，发送错误消息并且忽略
-        if (null == WebSocket.webSocket.get(buildSerial(caseId, recordId, session.getId()))) {
-            singleSendMessage(session, StatusCode.WS_UNKNOWN_ERROR.getCode());
+        if (null == WebSocket.webSocket.get(buildSerial(caseId, recordId, session.getId())) || room == null) {
+            sendMessage(StatusCode.WS_UNKNOWN_ERROR.getCode());
             return;
         }
 
         JSONObject request = JSON.parseObject(message);
 
         // 没有patch就不要触发保存
-        if (StringUtils.isEmpty(request.getString("patch"))) {
+        JSONArray patch = request.getJSONArray("patch");
+        if (CollectionUtils.isEmpty(patch)) {
             return;
         }
 
-        JSONArray patch = (JSONArray) request.get("patch");
-        long currentVersion = ((JSONObject) request.get("case")).getLong("base");
-        String msg2Other = patch.toJSONString().replace("[[{", "[[{\"op\":\"replace\",\"path\":\"/base\",\"value\":" + (currentVersion + 1) + "},{");
-        String msg2Own = "[[{\"op\":\"replace\",\"path\":\"/base\",\"value\":" + (currentVersion + 1) + "}]]";
-        // 发送给别人 也发送给自己
-        batchSendMessage(getOthersSessionInfo(caseId, recordId, session.getId()), msg2Other);
-        singleSendMessage(session, msg2Own);
-        caseContent = ((JSONObject) request.get("case")).toJSONString().replace("\"base\":" + currentVersion, "\"base\":" + (currentVersion + 1));
-
-        // 判断是用例还是任务
-        if (patch.toJSONString().contains("/progress")) {
-            // 如果是任务的修改，那么更新任务时间
-            updateRecordTime = System.currentTimeMillis();
-        } else {
-            // 用例修改更新用例时间
-            updateCaseTime = System.currentTimeMillis();
+        // 先序列化patch再应用，应用时patch里的值会挂到房间内容上
+        String patchStr = patch.toJSONString();
+        synchronized (room) {
+            long base;
+            try {
+                base = room.applyPatch(patch);
+            } catch (RuntimeException e) {
+                // 只有当前用户的内容不一致，房间内容没有变化，只让当前用户重新同步，不广播也不增加版本号
+                LOGGER.error("[websocket-onMessage patch应用失败]当前session={}, 原因={}", currentSession(), e.getMessage());
+                String content = room.getContent();
+                sendMessage(content == null ? StatusCode.WS_UNKNOWN_ERROR.getCode() : content);
+                return;
+            }
+
+            String baseOp = "{\"op\":\"replace\",\"path\":\"/base\",\"value\":" + base + "}";
+            String msg2Other = patchStr.startsWith("[[{")
+                    ? "[[" + baseOp + "," + patchStr.substring(2)
+                    : "[[" + baseOp + "]," + patchStr.substring(1);
+            String msg2Own = "[[" + baseOp + "]]";
+            // 在房间锁内入队，保证所有人收到的版本号是递增的
+            batchSendMessage(room.getOthers(session.getId()), msg2Other);
+            sendMessage(msg2Own);
+
+            // 用例房间的任何修改都要保存，任务房间只保存执行结果的修改
+            if (UNDEFINED.equals(recordId) || patchStr.contains("/progress")) {
+                room.markUpdated(System.currentTimeMillis(), user);
+            }
         }
     }
 
     @OnError
-    public void onError(Session session, Throwable e) throws IOException {
+    public void onError(Session session, Throwable e) {
         LOGGER.info("[websocket-onError 会话出现异常]当前session={}, 原因={}", currentSession(), e.getMessage());
         e.printStackTrace();
 
+        WebSocket.webSocket.remove(currentSession(), this);
+        HeartbeatScheduler.unregister(this);
         // 给一个机会去触发当前内容的保存, 如果不是最新的，也不会触发保存，会被pass掉
-        saveCaseOrRecord(caseId, recordId, user);
-        lock.lock();
-        try {
-            String serial = currentSession();
-            WebSocket.webSocket.remove(serial, this);
-            WebSocket.keys.remove(serial);
-        } finally {
-            lock.unlock();
+        leaveRoom();
+
+        sendMessage(StatusCode.WS_UNKNOWN_ERROR.getCode());
+    }
+
+    /**
+     * 给当前session发送消息，只负责放入发送队列，由发送线程异步发出
+     */
+    private void sendMessage(String message) {
+        if (outbound != null) {
+            outbound.offer(message);
         }
+    }
 
-        singleSendMessage(session, StatusCode.WS_UNKNOWN_ERROR.getCode());
+    /**
+     * 发送心跳
+     * @see HeartbeatScheduler
+     */
+    void ping() {
+        sendMessage(PING_MESSAGE);
     }
 
     /**
-     * 给指定session发送消息
+     * 心跳超时，关闭session，tomcat会回调onClose完成离开房间和保存
+     * 在单独的关闭线程上执行
+     * @see HeartbeatScheduler
      */
-    private void singleSendMessage(Session s, String message) throws IOException {
-        if (s != null && s.isOpen()) {
-            s.getBasicRemote().sendText(message);
+    void evict() {
+        try {
+            session.close(new CloseReason(CloseReason.CloseCodes.GOING_AWAY, "heartbeat timeout"));
+        } catch (Exception e) {
+            LOGGER.error("[websocket心跳超时关闭失败]当前session={}, 原因={}", currentSession(), e.getMessage());
+            onClose();
         }
     }
 
+    long getPongTimeStamp() {
+        return pongTimeStamp;
+    }
+
+    int getHeartbeatSlot() {
+        return heartbeatSlot;
+    }
+
     /**
      * 批量发送消息
      */
-    private void batchSendMessage(List<String> keys, String message) throws IOException {
-        for (String key : keys) {
-            singleSendMessage(WebSocket.webSocket.get(key).session, message);
+    private void batchSendMessage(Collection<WebSocket> receivers, String message) {
+        for (WebSocket receiver : receivers) {
+            receiver.sendMessage(message);
         }
     }
 
     /**
-     * 获取当前case/record下的所有用户
+     * 加入当前case/record的房间，房间不存在就新建一个
+     * 第一个进入房间的人负责从数据库加载内容，之后的人直接拿房间内的内容
+     * 加入房间和下发全量内容在同一把房间锁内完成，之后的patch一定排在全量内容之后
      */
-    private List<String> getAllSessionInfo(String caseId, String recordId) {
-        return WebSocket.keys.stream().filter(key -> key.startsWith(buildSerial(caseId, recordId))).collect(Collectors.toList());
+    private void joinRoom() {
+        String key = buildSerial(caseId, recordId);
+        while (true) {
+            Room room = WebSocket.rooms.computeIfAbsent(key, k -> new Room(caseId, recordId));
+            synchronized (room) {
+                if (room.isClosed()) {
+                    // 房间刚被最后一个人关掉，重新建一个
+                    continue;
+                }
+                try {
+                    if (!room.isLoaded()) {
+                        room.load(open(caseId, recordId, isCore));
+                    }
+                } catch (RuntimeException e) {
+                    if (room.isEmpty()) {
+                        room.close();
+                        WebSocket.rooms.remove(key, room);
+                    }
+                    throw e;
+                }
+                this.room = room;
+                this.outbound = new OutboundQueue(session, room, room::getContent);
+                room.join(session.getId(), this);
+                sendMessage(room.getContent());
+                return;
+            }
+        }
     }
 
     /**
-     * 获取当前case/record下的其他用户
+     * 离开当前case/record的房间，最后一个人离开时同步保存，保存完还没有人进来就移除房间
+     * 保存期间房间仍然在rooms里，新进来的人直接使用内存里的内容，不会从数据库读到旧内容
      */
-    private List<String> getOthersSessionInfo(String caseId, String recordId, String sessionId) {
-        List<String> keysRet = getAllSessionInfo(caseId, recordId);
-        return keysRet.stream().filter(key -> !key.equals(buildSerial(caseId, recordId, sessionId))).collect(Collectors.toList());
+    private void leaveRoom() {
+        if (room == null) {
+            return;
+        }
+        boolean empty;
+        synchronized (room) {
+            room.leave(session.getId(), this);
+            empty = room.isEmpty();
+        }
+        if (empty) {
+            flush(room);
+        }
     }
 
     /**
-     * 根据recordId是否为undefined判断为更新任务还是用例
-     * @see #onOpen(String, String, String, String, Session)
-     * @see #onClose()
-     * @see #onError(Session, Throwable)
+     * 获取当前case/record下的所有用户
      */
-    private void saveCaseOrRecord(String caseId, String recordId, String user) {
-        if (UNDEFINED.equals(recordId)) {
-            saveCase(caseId);
-        } else {
-            saveRecord(caseId, recordId, user);
+    private static Collection<WebSocket> getAllSessionInfo(String caseId, String recordId) {
+        Room room = WebSocket.rooms.get(buildSerial(caseId, recordId));
+        return room == null ? Collections.emptyList() : room.getMembers();
+    }
+
+    /**
+     * 保存房间内的修改，根据recordId是否为undefined判断为更新任务还是用例
+     * 没有人的房间保存完以后会被移除
+     * @see WriteBehindFlusher
+     * @see #leaveRoom()
+     */
+    public static void flush(Room room) {
+        synchronized (room.getFlushLock()) {
+            if (UNDEFINED.equals(room.getRecordId())) {
+                saveCase(room);
+            } else {
+                saveRecord(room);
+            }
+        }
+        synchronized (room) {
+            if (room.isEmpty() && !room.isDirty() && !room.isClosed()) {
+                room.close();
+                WebSocket.rooms.remove(buildSerial(room.getCaseId(), room.getRecordId()), room);
+            }
         }
     }
 
     /**
-     * 保存用例
-     * @see #saveCaseOrRecord(String, String, String)
+     * 保存所有房间，容器关闭时调用
+     * @see com.xiaoju.framework.listener.IocCloseListener
      */
-    private void saveCase(String caseId) {
-        TestCase testCase = new TestCase();
-        testCase.setId(Long.valueOf(caseId));
-        // 获取当前用力下，所有的session串
-        List<String> keys = getAllSessionInfo(caseId, UNDEFINED);
-        long maxTime = 0;
-        String keySave = "";
-        JSONObject jsonObject = new JSONObject();
-        JSONObject jsonContent = new JSONObject();
-
-        // 将用例内容更新为最新
-        for (String key : keys) {
-            if (WebSocket.webSocket.get(key).updateCaseTime > maxTime) {
-                maxTime = WebSocket.webSocket.get(key).updateCaseTime;
-                jsonObject = TreeUtil.parse(WebSocket.webSocket.get(key).caseContent);
-                jsonContent = jsonObject.getJSONObject("content");
-                keySave = key;
+    public static void flushAll() {
+        for (Room room : WebSocket.rooms.values()) {
+            try {
+                flush(room);
+            } catch (Exception e) {
+                LOGGER.error("[websocket保存失败]caseId={}, recordId={}, 原因={}",
+                        room.getCaseId(), room.getRecordId(), e.getMessage(), e);
             }
         }
+    }
 
-        if (StringUtils.isEmpty(keySave)) {
-            // 无需更新
-            return;
+    /**
+     * 保存用例
+     * @see #flush(Room)
+     */
+    private static void saveCase(Room room) {
+        // 在房间锁内取出待保存的内容，并清掉修改标记，之后的修改会重新标记
+        String content;
+        long wsTcUpdateTime;
+        List<String> editors;
+        synchronized (room) {
+            wsTcUpdateTime = room.getUpdateTime();
+            if (wsTcUpdateTime == 0L) {
+                // 无需更新
+                return;
+            }
+            content = room.getContent();
+            editors = room.takeUpdate();
         }
 
-        //对比用例http更新时间和socket更新时间
-        TestCase dbCase = caseMapper.selectOne(Long.valueOf(caseId));
-        long tcUpdateTime = dbCase.getGmtModified().getTime();
-        long wsTcUpdateTime = WebSocket.webSocket.get(keySave).updateCaseTime;
+        try {
+            //对比用例http更新时间和socket更新时间
+            Long caseId = Long.valueOf(room.getCaseId());
+            long tcUpdateTime = caseMapper.selectVersion(caseId).getTime();
 
-        //数据库更新时间大于socket最大更新时间则不需要保存
-        if (tcUpdateTime >= wsTcUpdateTime) {
-            for (String key : keys) {
-                WebSocket.webSocket.get(key).caseContent = testCase.getCaseContent();
-                WebSocket.webSocket.get(key).updateCaseTime = 0L;
+            //数据库更新时间大于socket最大更新时间则不需要保存，房间改用数据库里的内容
+            if (tcUpdateTime >= wsTcUpdateTime) {
+                reloadCase(room, caseId);
+                return;
             }
-            return;
-        } else {
-            LOGGER.info("[Websocket case-save]当前内容没有保存上, 内容:{}, tcUpdateTime:{}, wsTcUpdateTime:{}",
-                    WebSocket.webSocket.get(keySave).caseContent, tcUpdateTime, wsTcUpdateTime);
+
+            TestCase testCase = new TestCase();
+            testCase.setId(caseId);
+            testCase.setCaseContent(content);
+            testCase.setGmtModified(new Date(wsTcUpdateTime));
+            caseMapper.update(testCase);
+            contentCache.invalidate(caseId);
+            statsCache.invalidateCase(caseId);
+            indexService.index(caseId);
+            LOGGER.info("[Websocket case-save]caseId:{}, tcUpdateTime:{}, wsTcUpdateTime:{}, editors:{}",
+                    caseId, tcUpdateTime, wsTcUpdateTime, editors);
+        } catch (RuntimeException e) {
+            room.restoreUpdate(wsTcUpdateTime, editors);
+            throw e;
         }
+    }
 
-        // 过来的内容没有content就不要保存了
-        if (!jsonObject.containsKey("content")) {
+    /**
+     * 数据库里的用例比房间内容新(例如通过http保存过)，用数据库内容替换房间内容并下发给房间里所有人，
+     * 否则后面进来的人拿到的仍然是内存里的旧内容
+     * 取出待保存内容之后又有新修改时不替换，这些修改下次保存时再和数据库比较
+     */
+    private static void reloadCase(Room room, Long caseId) {
+        contentCache.invalidate(caseId);
+        String latest = contentCache.getContent(caseId);
+        if (StringUtils.isEmpty(latest)) {
             return;
         }
-
-        // 更新所有的用户的caseContent
-        for (String key : keys) {
-            WebSocket.webSocket.get(key).caseContent = WebSocket.webSocket.get(keySave).caseContent;
-            WebSocket.webSocket.get(key).updateCaseTime = 0L;
+        synchronized (room) {
+            if (room.isClosed() || room.isDirty()) {
+                return;
+            }
+            room.reload(JSON.parseObject(latest));
+            String content = room.getContent();
+            for (WebSocket member : room.getMembers()) {
+                member.sendMessage(content);
+            }
         }
-
-        testCase.setCaseContent(jsonContent.toJSONString());
-        testCase.setGmtModified(new Date(wsTcUpdateTime));
-        caseMapper.update(testCase);
+        LOGGER.info("[Websocket case-reload]caseId:{}, base:{}", caseId, room.getBase());
     }
 
     /**
      * 保存任务
-     * @see #saveCaseOrRecord(String, String, String)
+     * @see #flush(Room)
      */
-    private void saveRecord(String caseId, String recordId, String user) {
-        List<String> keys = getAllSessionInfo(caseId, recordId);
-        long maxTime = 0;
-        String keySave = "";
-        JSONObject jsonObject = new JSONObject();
-        JSONObject jsonProgress = new JSONObject();
-        int totalCount = 0;
-        int passCount = 0;
-        int successCount = 0;
-        int failCount = 0;
-        int blockCount = 0;
-        int ignoreCount = 0;
-        // 将用例内容更新为最新
-        for (String key : keys) {
-            if (WebSocket.webSocket.get(key).updateRecordTime > maxTime) {
-                maxTime = WebSocket.webSocket.get(key).updateRecordTime;
-                jsonObject = TreeUtil.parse(WebSocket.webSocket.get(key).caseContent);
-                jsonProgress = jsonObject.getJSONObject("progress");
-                totalCount = jsonObject.getInteger("totalCount");
-                passCount = jsonObject.getInteger("passCount");
-                failCount = jsonObject.getInteger("failCount");
-                blockCount = jsonObject.getInteger("blockCount");
-                successCount = jsonObject.getInteger("successCount");
-                ignoreCount = jsonObject.getInteger("ignoreCount");
-                keySave = key;
+    private static void saveRecord(Room room) {
+        String content;
+        long wsUpdateTime;
+        List<String> editors;
+        synchronized (room) {
+            wsUpdateTime = room.getUpdateTime();
+            if (wsUpdateTime == 0L) {
+                return;
             }
+            content = room.getContent();
+            editors = room.takeUpdate();
         }
 
-        if (StringUtils.isEmpty(keySave)) {
-            return;
-        }
-
-        //获取数据库更新时间
-        RecordWsDto dto = recordService.getWsRecord(Long.parseLong(recordId));
-        long recordUpdateTime = dto.getUpdateTime().getTime();
-        long wsUpdateTime = WebSocket.webSocket.get(keySave).updateRecordTime;
+        try {
+            //获取数据库更新时间
+            Long recordId = Long.valueOf(room.getRecordId());
+            RecordWsDto dto = recordService.getWsRecordHeader(recordId);
+            long recordUpdateTime = dto.getUpdateTime().getTime();
 
-        // 同样的，如果晚了，不保存
-        if (recordUpdateTime < wsUpdateTime) {
-            if (!jsonObject.containsKey("progress")) {
-                LOGGER.info("current no record to save.");
+            // 同样的，如果晚了，不保存
+            if (recordUpdateTime >= wsUpdateTime) {
                 return;
             }
-            for (String key : keys) {
-                WebSocket.webSocket.get(key).caseContent = WebSocket.webSocket.get(keySave).caseContent;
-                WebSocket.webSocket.get(key).updateRecordTime = 0L;
-            }
 
-            StringBuilder executors;
-            if (StringUtils.isEmpty(dto.getExecutors())) {
-                executors = new StringBuilder(user);
-            } else {
-                String executor = dto.getExecutors();
-                executors = new StringBuilder(executor);
-                String[] list = executor.split(SystemConstant.COMMA);
-                if (!Arrays.asList(list).contains(user)) {
-                    //无重复则添加，又重复不添加
-                    if (list.length == 0) {
-                        executors.append(user);
-                    } else {
-                        executors.append(SystemConstant.COMMA).append(user);
+            JSONObject jsonObject = TreeUtil.parse(content);
+            StringBuilder executors = new StringBuilder();
+            List<String> list = new ArrayList<>();
+            if (!StringUtils.isEmpty(dto.getExecutors())) {
+                executors.append(dto.getExecutors());
+                list.addAll(Arrays.asList(dto.getExecutors().split(SystemConstant.COMMA)));
+            }
+            for (String user : editors) {
+                //无重复则添加，又重复不添加
+                if (!list.contains(user)) {
+                    if (executors.length() > 0) {
+                        executors.append(SystemConstant.COMMA);
                     }
+                    executors.append(user);
+                    list.add(user);
                 }
             }
             ExecRecord recordUpdate = new ExecRecord();
-            recordUpdate.setId(Long.valueOf(recordId));
+            recordUpdate.setId(recordId);
             recordUpdate.setExecutors(executors.toString());
-            recordUpdate.setModifier(user);
+            recordUpdate.setModifier(editors.get(editors.size() - 1));
             recordUpdate.setGmtModified(new Date(System.currentTimeMillis()));
-            recordUpdate.setCaseContent(jsonProgress.toJSONString());
-            recordUpdate.setFailCount(failCount);
-            recordUpdate.setBlockCount(blockCount);
-            recordUpdate.setIgnoreCount(ignoreCount);
-            recordUpdate.setPassCount(passCount);
-            recordUpdate.setTotalCount(totalCount);
-            recordUpdate.setSuccessCount(successCount);
+            recordUpdate.setCaseContent(jsonObject.getJSONObject("progress").toJSONString());
+            recordUpdate.setFailCount(jsonObject.getInteger("failCount"));
+            recordUpdate.setBlockCount(jsonObject.getInteger("blockCount"));
+            recordUpdate.setIgnoreCount(jsonObject.getInteger("ignoreCount"));
+            recordUpdate.setPassCount(jsonObject.getInteger("passCount"));
+            recordUpdate.setTotalCount(jsonObject.getInteger("totalCount"));
+            recordUpdate.setSuccessCount(jsonObject.getInteger("successCount"));
             LOGGER.info("[Case Update]Save record exec recordId={}, content={}", recordId, recordUpdate.toString());
             recordService.modifyRecord(recordUpdate);
-        } else {
-            for (String key : keys) {
-                WebSocket.webSocket.get(key).updateRecordTime = 0L;
-            }
+        } catch (RuntimeException e) {
+            room.restoreUpdate(wsUpdateTime, editors);
+            throw e;
         }
     }
 
     /**
-     * 打开用例/任务
-     * @see #onOpen(String, String, String, String, Session)
+     * 打开用例/任务，返回房间的初始内容
+     * @see #joinRoom()
      */
-    private void open(String caseId, String recordId, String isCore) throws IOException {
+    private JSONObject open(String caseId, String recordId, String isCore) {
         Long id = Long.valueOf(caseId);
-        TestCase testCase = caseMapper.selectOne(id);
-        String res = testCase.getCaseContent();
+        String res = contentCache.getContent(id);
         if (StringUtils.isEmpty(res)) {
             throw new CaseServerException("用例内容为空", StatusCode.WS_UNKNOWN_ERROR);
         }
@@ -468,59 +513,33 @@ public class WebSocket {
         switch (isCore) {
             case "0": {
                 // 这里是打开case的情况
-                singleSendMessage(session, res);
-                break;
+                return JSON.parseObject(res);
             }
             case "3": {
                 // 这里是打开record的情况
                 RecordWsDto dto = recordService.getWsRecord(Long.valueOf(recordId));
 
-                String recordContent = dto.getCaseContent();
-                JSONObject recordObj = new JSONObject();
-                if (StringUtils.isEmpty(recordContent)) {
+                if (StringUtils.isEmpty(dto.getCaseContent())) {
                     // 其实当前任务还没有任何执行记录
                     LOGGER.info("first create record.");
-                } else if (recordContent.startsWith("[{")) {
-                    JSONArray jsonArray = JSON.parseArray(recordContent);
-                    for (Object o : jsonArray) {
-                        recordObj.put(((JSONObject) o).getString("id"), ((JSONObject) o).getLong("progress"));
-                    }
-                } else {
-                    recordObj = JSON.parseObject(recordContent);
                 }
 
-                IntCount ExecCount = new IntCount(recordObj.size());
+                CaseTree tree = CaseNodeUtil.parse(res, true);
+                List<String> priority = null;
+                List<String> resource = null;
                 // 如果当前record是圈选了部分的圈选用例
                 if (!StringUtils.isEmpty(dto.getChooseContent()) && !dto.getChooseContent().contains("\"priority\":[\"0\"]")) {
-                    Map<String, List<String>> chosen = JSON.parseObject(dto.getChooseContent(), Map.class);
-
-                    JSONObject caseContent = JSON.parseObject(res);
-                    JSONObject caseRoot = caseContent.getJSONObject("root");
-                    Stack<JSONObject> objCheck = new Stack<>();
-
-                    Stack<IntCount> iCheck = new Stack<>();
-                    objCheck.push(caseRoot);
-
-                    List<String> priority = chosen.get("priority");
-                    List<String> resource = chosen.get("resource");
-                    //获取对应级别用例
-                    if (!CollectionUtils.isEmpty(priority)) {
-                        TreeUtil.getPriority(objCheck, iCheck, caseRoot, priority);
-                    }
-                    if (!CollectionUtils.isEmpty(resource)) {
-                        TreeUtil.getChosenCase(caseRoot, new HashSet<>(resource), "resource");
-                    }
-
-                    TreeUtil.mergeExecRecord(caseContent.getJSONObject("root"), recordObj, ExecCount);
-                    singleSendMessage(session, caseContent.toJSONString());
-                } else {
-                    // 如果是全部的，那么直接把testcase 给 merge过来
-                    JSONObject caseContent = JSON.parseObject(res);
-                    TreeUtil.mergeExecRecord(caseContent.getJSONObject("root"), recordObj, ExecCount);
-                    singleSendMessage(session, caseContent.toJSONString());
+                    PickCaseDto chosen = JSON.parseObject(dto.getChooseContent(), PickCaseDto.class);
+                    priority = chosen.getPriority();
+                    resource = chosen.getResource();
                 }
-                break;
+                // 圈选并把执行结果merge过来，如果是全部的，那么直接把testcase 给 merge过来
+                CaseNodeUtil.mergeAndCount(tree.getRoot(), CaseFilter.of(priority, resource), CaseNodeUtil.parseProgress(dto.getCaseContent()), true);
+                JSONObject caseContent = CaseNodeUtil.toJSONObject(tree);
+                return caseContent;
             }
+            default:
+                return null;
         }
     }
 
@@ -559,26 +578,23 @@ public class WebSocket {
         return user;
     }
 
+    /**
+     * 获取当前websocket的发送队列
+     */
+    public OutboundQueue getOutbound() {
+        return outbound;
+    }
+
     /**
      * 获取一类用例/任务下的所有正在编辑的人
      */
     public static List<String> getEditingUser(String caseId, String recordId) {
-        lock.lock();
-        try {
-            // 从Websocket.keys中获取所有正在编辑的用户的前缀！
-            String prefix = buildSerial(caseId, recordId);
-            // 复制当前瞬间的拷贝，不受原本对象的干扰
-            Map<String, WebSocket> wsMap = new HashMap<>(WebSocket.webSocket);
-            List<String> names = new ArrayList<>();
-            for (Map.Entry<String, WebSocket> entry : wsMap.entrySet()) {
-                if (entry.getKey() != null && entry.getKey().startsWith(prefix)) {
-                    names.add(entry.getValue().getUser());
-                }
-            }
-            return names;
-        } finally {
-            lock.unlock();
+        // 只需要看对应房间里的成员，房间成员是ConcurrentHashMap，遍历时不需要加锁
+        List<String> names = new ArrayList<>();
+        for (WebSocket member : getAllSessionInfo(caseId, recordId)) {
+            names.add(member.getUser());
         }
+        return names;
     }
 
 }
@@ -0,0 +1,90 @@
+package com.xiaoju.framework.handler;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 协同内容的延迟落库
+ * patch只作用在房间内存里的内容上，由这里定时把有修改的房间保存到数据库，多次修改合并成一次update
+ *
+ * 房间满足以下任意一个条件就会保存：
+ * 1. 停止修改超过debounce，即一波编辑结束
+ * 2. 距离第一次未保存的修改超过maxStaleness，持续编辑时也能定期落库，限制宕机时最多丢失的内容
+ *
+ * 最后一个人离开房间以及容器关闭时会同步保存，见{@link WebSocket#flush(Room)}
+ *
+ * @author didi
+ * @date 2026/10/18
+ */
+public class WriteBehindFlusher {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WriteBehindFlusher.class);
+
+    /**
+     * 停止修改多久以后保存，单位ms
+     * @see com.xiaoju.framework.config.ApplicationConfig#setWebsocketFlush(long, long, long)
+     */
+    public static long debounce = 2000L;
+
+    /**
+     * 有未保存的修改时最长多久必须保存一次，单位ms
+     */
+    public static long maxStaleness = 30000L;
+
+    private static ScheduledExecutorService scheduler;
+
+    /**
+     * 启动定时保存
+     *
+     * @param interval 检查间隔，单位ms
+     */
+    public static synchronized void start(long interval) {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ws-flusher");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(WriteBehindFlusher::flushDue, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 保存所有到期的房间，异常不能抛出去，否则定时任务会被取消
+     */
+    private static void flushDue() {
+        long now = System.currentTimeMillis();
+        for (Room room : WebSocket.rooms.values()) {
+            if (!room.isFlushDue(now, debounce, maxStaleness)) {
+                continue;
+            }
+            try {
+                WebSocket.flush(room);
+            } catch (Exception e) {
+                LOGGER.error("[websocket延迟保存失败]caseId={}, recordId={}, 原因={}",
+                        room.getCaseId(), room.getRecordId(), e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * 停止定时保存，容器关闭时调用，之后由调用方同步保存所有房间
+     */
+    public static synchronized void shutdown() {
+        if (scheduler == null) {
+            return;
+        }
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        scheduler = null;
+    }
+}
@@ -1,9 +1,14 @@
 package com.xiaoju.framework.listener;
 
+import com.xiaoju.framework.handler.HeartbeatScheduler;
+import com.xiaoju.framework.handler.OutboundQueue;
 import com.xiaoju.framework.handler.WebSocket;
+import com.xiaoju.framework.handler.WriteBehindFlusher;
 import lombok.Data;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextClosedEvent;
 import org.springframework.stereotype.Component;
 
 import javax.servlet.ServletContextEvent;
@@ -19,7 +24,7 @@ import java.util.Map;
  */
 @WebListener
 @Component
-public class IocCloseListener implements ServletContextListener {
+public class IocCloseListener implements ServletContextListener, ApplicationListener<ContextClosedEvent> {
 
     private static Logger LOGGER = LoggerFactory.getLogger(IocCloseListener.class);
 
@@ -34,17 +39,33 @@ public class IocCloseListener implements ServletContextListener {
         for (Map.Entry<String, WebSocket> ws : WebSocket.webSocket.entrySet()) {
             LOGGER.info("[Session Info]{}", SocketInfo.build(ws.getValue()).toString());
         }
+        OutboundQueue.shutdown();
+    }
+
+    /**
+     * spring容器关闭时，数据源还没有被销毁，在这里把所有房间里未保存的修改同步落库
+     * servlet容器的contextDestroyed要等到bean都销毁以后才会执行，那时已经无法访问数据库了
+     */
+    @Override
+    public void onApplicationEvent(ContextClosedEvent event) {
+        LOGGER.info("[监听到spring容器关闭，开始保存协同内容..]房间数={}", WebSocket.rooms.size());
+        // 先停掉心跳和定时保存，再同步保存所有房间
+        HeartbeatScheduler.shutdown();
+        WriteBehindFlusher.shutdown();
+        WebSocket.flushAll();
     }
 
     @Data
     static class SocketInfo {
         private String serial;
         private String user;
+        private String outbound;
 
         public static SocketInfo build(WebSocket webSocket) {
             SocketInfo info = new SocketInfo();
             info.setSerial(webSocket.currentSession());
             info.setUser(webSocket.getUser());
+            info.setOutbound(String.valueOf(webSocket.getOutbound()));
             return info;
         }
     }
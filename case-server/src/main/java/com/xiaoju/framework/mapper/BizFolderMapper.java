@@ -0,0 +1,67 @@
+package com.xiaoju.framework.mapper;
+
+import com.xiaoju.framework.entity.persistent.BizFolder;
+import org.apache.ibatis.annotations.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 文件夹节点映射
+ *
+ * @author didi
+ * @date 2026/10/18
+ * @see BizFolder
+ */
+@Repository
+public interface BizFolderMapper {
+
+    /**
+     * 获取一条业务线下的所有文件夹
+     *
+     * @param productLineId 业务线id
+     * @param channel 渠道
+     * @return 文件夹列表，按照sort排序
+     */
+    List<BizFolder> selectByLine(@Param("productLineId") Long productLineId, @Param("channel") Integer channel);
+
+    /**
+     * 新增文件夹
+     *
+     * @param folder 文件夹实体
+     * @return 影响行数
+     */
+    int insert(BizFolder folder);
+
+    /**
+     * 批量新增文件夹，已存在的忽略，迁移时使用
+     *
+     * @param folders 文件夹列表
+     * @return 影响行数
+     */
+    int batchInsert(List<BizFolder> folders);
+
+    /**
+     * 重命名文件夹
+     *
+     * @param productLineId 业务线id
+     * @param channel 渠道
+     * @param folderId 文件夹id
+     * @param text 新名称
+     * @return 影响行数
+     */
+    int rename(@Param("productLineId") Long productLineId, @Param("channel") Integer channel,
+               @Param("folderId") String folderId, @Param("text") String text);
+
+    /**
+     * 删除文件夹
+     *
+     * @param productLineId 业务线id
+     * @param channel 渠道
+     * @param folderIds 文件夹id列表
+     * @return 影响行数
+     */
+    int batchDelete(@Param("productLineId") Long productLineId, @Param("channel") Integer channel,
+                    @Param("folderIds") Collection<String> folderIds);
+}
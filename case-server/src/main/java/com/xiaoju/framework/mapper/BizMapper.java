@@ -38,6 +38,23 @@ public interface BizMapper {
      */
     Biz selectOne(Long productLineId, Integer channel);
 
+    /**
+     * 只查询文件夹的版本号，用来校验缓存的文件夹树是否过期
+     *
+     * @param productLineId 业务线id
+     * @param channel 渠道
+     * @return 版本号，不存在时返回null
+     */
+    Long selectVersion(Long productLineId, Integer channel);
+
+    /**
+     * 文件夹或者用例关联修改后版本号+1
+     *
+     * @param productLineId 业务线id
+     * @param channel 渠道
+     */
+    void increaseVersion(Long productLineId, Integer channel);
+
     /**
      * 更新文件夹树内容
      *
@@ -30,6 +30,46 @@ public interface CaseBackupMapper {
                                     @Param("beginTime") Date beginTime,
                                     @Param("endTime")  Date endTime);
 
+    /**
+     * 获取一份用例下的备份元数据，不带内容
+     *
+     * @param caseId 用例id
+     * @param beginTime 开始时间
+     * @param endTime 结束时间
+     * @return 备份记录，按id倒序
+     */
+    List<CaseBackup> selectHeaders(@Param("caseId") Long caseId,
+                                   @Param("beginTime") Date beginTime,
+                                   @Param("endTime")  Date endTime);
+
+    /**
+     * 获取用例最新一份备份的元数据，用来决定新备份做快照还是增量
+     *
+     * @param caseId 用例id
+     * @return 备份记录，不存在时为null
+     */
+    CaseBackup selectLatest(Long caseId);
+
+    /**
+     * 获取单个备份
+     *
+     * @param id 备份id
+     * @return 备份记录
+     */
+    CaseBackup selectById(Long id);
+
+    /**
+     * 获取一串增量中不晚于id的所有备份，包括开头的快照，用于还原id对应的内容
+     *
+     * @param caseId 用例id
+     * @param snapshotId 快照id
+     * @param id 需要还原的备份id
+     * @return 备份记录，按id正序
+     */
+    List<CaseBackup> selectChain(@Param("caseId") Long caseId,
+                                 @Param("snapshotId") Long snapshotId,
+                                 @Param("id") Long id);
+
     /**
      * 删除一批备份记录
      *
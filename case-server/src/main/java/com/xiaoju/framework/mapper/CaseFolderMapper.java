@@ -0,0 +1,59 @@
+package com.xiaoju.framework.mapper;
+
+import com.xiaoju.framework.entity.persistent.CaseFolder;
+import org.apache.ibatis.annotations.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 用例与文件夹关联映射
+ *
+ * @author didi
+ * @date 2026/10/18
+ * @see CaseFolder
+ */
+@Repository
+public interface CaseFolderMapper {
+
+    /**
+     * 获取一条业务线下所有的关联
+     *
+     * @param productLineId 业务线id
+     * @param channel 渠道
+     * @return 关联列表，只有folderId和caseId
+     */
+    List<CaseFolder> selectByLine(@Param("productLineId") Long productLineId, @Param("channel") Integer channel);
+
+    /**
+     * 批量新增关联，已存在的忽略
+     *
+     * @param list 关联列表
+     * @return 影响行数
+     */
+    int batchInsert(List<CaseFolder> list);
+
+    /**
+     * 把用例移出文件夹
+     *
+     * @param productLineId 业务线id
+     * @param channel 渠道
+     * @param caseId 用例id
+     * @param folderIds 文件夹id列表
+     * @return 影响行数
+     */
+    int deleteByCase(@Param("productLineId") Long productLineId, @Param("channel") Integer channel,
+                     @Param("caseId") Long caseId, @Param("folderIds") Collection<String> folderIds);
+
+    /**
+     * 删除文件夹下所有的关联
+     *
+     * @param productLineId 业务线id
+     * @param channel 渠道
+     * @param folderIds 文件夹id列表
+     * @return 影响行数
+     */
+    int deleteByFolders(@Param("productLineId") Long productLineId, @Param("channel") Integer channel,
+                        @Param("folderIds") Collection<String> folderIds);
+}
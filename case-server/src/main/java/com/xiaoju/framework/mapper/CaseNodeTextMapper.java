@@ -0,0 +1,64 @@
+package com.xiaoju.framework.mapper;
+
+import com.xiaoju.framework.entity.persistent.CaseNodeText;
+import org.apache.ibatis.annotations.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 用例节点文本映射
+ *
+ * @author didi
+ * @date 2026/10/18
+ * @see CaseNodeText
+ */
+@Repository
+public interface CaseNodeTextMapper {
+
+    /**
+     * 获取用例下所有节点的文本
+     *
+     * @param caseId 用例id
+     * @return 节点文本列表，只有nodeId、text、note
+     */
+    List<CaseNodeText> selectByCase(Long caseId);
+
+    /**
+     * 批量新增或者更新节点文本
+     *
+     * @param list 节点文本列表
+     * @return 影响行数
+     */
+    int batchUpsert(List<CaseNodeText> list);
+
+    /**
+     * 删除用例下的部分节点
+     *
+     * @param caseId 用例id
+     * @param nodeIds 节点id列表
+     * @return 影响行数
+     */
+    int deleteByNodes(@Param("caseId") Long caseId, @Param("nodeIds") Collection<String> nodeIds);
+
+    /**
+     * 删除用例下所有节点
+     *
+     * @param caseId 用例id
+     * @return 影响行数
+     */
+    int deleteByCase(Long caseId);
+
+    /**
+     * 全文检索节点文本
+     *
+     * @param productLineId 业务线id
+     * @param channel 渠道
+     * @param keyword 布尔模式的检索串
+     * @param limit 最多返回的节点数
+     * @return 命中的节点，只有caseId、nodeId、text
+     */
+    List<CaseNodeText> search(@Param("productLineId") Long productLineId, @Param("channel") Integer channel,
+                              @Param("keyword") String keyword, @Param("limit") Integer limit);
+}
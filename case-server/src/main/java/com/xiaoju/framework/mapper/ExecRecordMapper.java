@@ -4,6 +4,7 @@ import com.xiaoju.framework.entity.dto.RecordNumDto;
 import com.xiaoju.framework.entity.persistent.ExecRecord;
 import org.springframework.stereotype.Repository;
 
+import java.util.Date;
 import java.util.List;
 
 /**
@@ -32,6 +33,22 @@ public interface ExecRecordMapper {
      */
     ExecRecord selectOne(Long id);
 
+    /**
+     * id查询执行任务，不带执行结果case_content
+     *
+     * @param id 执行任务id
+     * @return 执行记录实体，caseContent为null
+     */
+    ExecRecord selectHeader(Long id);
+
+    /**
+     * 只查询执行任务的修改时间，也可以用来判断任务是否存在
+     *
+     * @param id 执行任务id
+     * @return gmt_modified，任务不存在时返回null
+     */
+    Date selectVersion(Long id);
+
     /**
      * 根据用例id获取所属的所有执行任务
      *
@@ -40,6 +57,14 @@ public interface ExecRecordMapper {
      */
     List<ExecRecord> getRecordListByCaseId(Long caseId);
 
+    /**
+     * 根据用例id获取所属的所有执行任务id
+     *
+     * @param caseId 用例id
+     * @return 任务id列表
+     */
+    List<Long> getRecordIdsByCaseId(Long caseId);
+
 
     /**
      * testcase的list接口需要展示每个case有多少任务
@@ -1,9 +1,11 @@
 package com.xiaoju.framework.mapper;
 
 import com.xiaoju.framework.entity.persistent.TestCase;
+import com.xiaoju.framework.entity.response.cases.CaseListResp;
 import org.apache.ibatis.annotations.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.Set;
@@ -26,6 +28,14 @@ public interface TestCaseMapper {
      */
     int insert(TestCase testCase);
 
+    /**
+     * 批量新增用例，插入后回填id
+     *
+     * @param list 测试用例，字段与{@link #insert(TestCase)}相同且都不能为null
+     * @return 插入的行数
+     */
+    int batchInsert(List<TestCase> list);
+
     /**
      * 根据主键查询
      *
@@ -34,6 +44,31 @@ public interface TestCaseMapper {
      */
     TestCase selectOne(Long id);
 
+    /**
+     * 根据主键查询，不带用例内容
+     * 只需要标题、业务线等属性的地方使用，避免读出几MB的case_content
+     *
+     * @param id 用例id
+     * @return 用例实体，caseContent为null
+     */
+    TestCase selectHeader(Long id);
+
+    /**
+     * 只查询用例内容以及对应的版本
+     *
+     * @param id 用例id
+     * @return 用例实体，只有id、gmtModified、caseContent
+     */
+    TestCase selectContent(Long id);
+
+    /**
+     * 只查询用例的修改时间，用来校验缓存的用例内容是否过期
+     *
+     * @param id 用例id
+     * @return gmt_modified，用例不存在时返回null
+     */
+    Date selectVersion(Long id);
+
     /**
      * 修改用例实体
      *
@@ -50,10 +85,10 @@ public interface TestCaseMapper {
     void delete(Long caseId);
 
     /**
-     * 条件筛选测试用例
+     * 条件筛选测试用例，同时带出每个用例下的任务数
      *
      * @param caseType 用例种类
-     * @param caseIds 用例id列表 -- 从biz表过来的
+     * @param folderIds 文件夹以及子孙文件夹的id列表，通过case_folder关联用例
      * @param title 标题
      * @param creator 创建人
      * @param requirementId 需求id
@@ -61,17 +96,34 @@ public interface TestCaseMapper {
      * @param endTime 结束时间
      * @param channel 默认 1
      * @param productLineId 业务线id
+     * @param lastId 游标分页时只取id小于lastId的用例，为空时不限制
+     * @param limit 游标分页时的条数，为空时不限制，由分页插件处理
      * @return 筛选后的列表
      */
-    List<TestCase> search(@Param("caseType") Integer caseType,
-                          @Param("caseIds") List<Long> caseIds,
-                          @Param("title") String title,
-                          @Param("creator") String creator,
-                          @Param("requirementId") String requirementId,
-                          @Param("beginTime") Date beginTime,
-                          @Param("endTime") Date endTime,
-                          @Param("channel") Integer channel,
-                          @Param("productLineId") Long productLineId);
+    List<CaseListResp> search(@Param("caseType") Integer caseType,
+                              @Param("folderIds") List<String> folderIds,
+                              @Param("title") String title,
+                              @Param("creator") String creator,
+                              @Param("requirementId") String requirementId,
+                              @Param("beginTime") Date beginTime,
+                              @Param("endTime") Date endTime,
+                              @Param("channel") Integer channel,
+                              @Param("productLineId") Long productLineId,
+                              @Param("lastId") Long lastId,
+                              @Param("limit") Integer limit);
+
+    /**
+     * 条件筛选测试用例的总数，参数同{@link #search}
+     */
+    long countSearch(@Param("caseType") Integer caseType,
+                     @Param("folderIds") List<String> folderIds,
+                     @Param("title") String title,
+                     @Param("creator") String creator,
+                     @Param("requirementId") String requirementId,
+                     @Param("beginTime") Date beginTime,
+                     @Param("endTime") Date endTime,
+                     @Param("channel") Integer channel,
+                     @Param("productLineId") Long productLineId);
 
     /**
      * 查找创建人
@@ -90,4 +142,24 @@ public interface TestCaseMapper {
      * @return id集合
      */
     Set<String> findCaseIdsInBiz(Long productLineId, Integer channel);
-}
\ No newline at end of file
+
+    /**
+     * 全文检索用例标题
+     *
+     * @param productLineId 业务线id
+     * @param channel 渠道
+     * @param keyword 布尔模式的检索串
+     * @param limit 最多返回的用例数
+     * @return 命中的用例，只有id和title
+     */
+    List<TestCase> searchTitle(@Param("productLineId") Long productLineId, @Param("channel") Integer channel,
+                               @Param("keyword") String keyword, @Param("limit") Integer limit);
+
+    /**
+     * 批量获取用例标题
+     *
+     * @param ids 用例id列表
+     * @return 用例列表，只有id和title
+     */
+    List<TestCase> selectTitles(@Param("ids") Collection<Long> ids);
+}
@@ -0,0 +1,73 @@
+package com.xiaoju.framework.mapper.handler;
+
+import com.xiaoju.framework.util.CompressUtil;
+import org.apache.ibatis.type.BaseTypeHandler;
+import org.apache.ibatis.type.JdbcType;
+import org.apache.ibatis.type.MappedTypes;
+
+import java.sql.CallableStatement;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * 用例内容、执行结果等大字段的编解码
+ *
+ * 写入：开启压缩并且超过minSize时按照{@link CompressUtil#encode}压缩后以二进制写入，否则按文本写入
+ * 读取：列是LONGTEXT时驱动直接返回字符串，是LONGBLOB时按照头部判断是否需要解压，旧的未压缩数据可以直接读取
+ *
+ * 压缩后是二进制，开启前需要先把列改成LONGBLOB，见sql/content-compress.sql
+ * 类型处理器由mybatis实例化，配置通过{@link com.xiaoju.framework.config.ApplicationConfig}注入到静态字段
+ *
+ * @author didi
+ * @date 2026/10/18
+ */
+@MappedTypes(String.class)
+public class CompressedTextTypeHandler extends BaseTypeHandler<String> {
+
+    private static volatile boolean enabled = false;
+
+    private static volatile int minSize = 4096;
+
+    private static volatile int level = 1;
+
+    public static void configure(boolean enabled, int minSize, int level) {
+        CompressedTextTypeHandler.enabled = enabled;
+        CompressedTextTypeHandler.minSize = minSize;
+        CompressedTextTypeHandler.level = level;
+    }
+
+    @Override
+    public void setNonNullParameter(PreparedStatement ps, int i, String parameter, JdbcType jdbcType) throws SQLException {
+        if (enabled && parameter.length() >= minSize) {
+            ps.setBytes(i, CompressUtil.encode(parameter, level));
+        } else {
+            ps.setString(i, parameter);
+        }
+    }
+
+    @Override
+    public String getNullableResult(ResultSet rs, String columnName) throws SQLException {
+        return decode(rs.getObject(columnName));
+    }
+
+    @Override
+    public String getNullableResult(ResultSet rs, int columnIndex) throws SQLException {
+        return decode(rs.getObject(columnIndex));
+    }
+
+    @Override
+    public String getNullableResult(CallableStatement cs, int columnIndex) throws SQLException {
+        return decode(cs.getObject(columnIndex));
+    }
+
+    private static String decode(Object value) {
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof byte[]) {
+            return CompressUtil.decode((byte[]) value);
+        }
+        return value.toString();
+    }
+}
@@ -1,6 +1,7 @@
 package com.xiaoju.framework.service;
 
 import com.xiaoju.framework.entity.persistent.CaseBackup;
+import com.xiaoju.framework.entity.response.backup.BackupListResp;
 
 import java.util.List;
 
@@ -31,6 +32,24 @@ public interface CaseBackupService {
      */
     List<CaseBackup> getBackupByCaseId(Long caseId, String startTime, String endTime);
 
+    /**
+     * 获取一段时间内，某个用例备份记录的元数据，不带内容
+     *
+     * @param caseId 用例id
+     * @param startTime 开始时间戳
+     * @param endTime 结束时间戳
+     * @return 备份列表
+     */
+    List<BackupListResp> listBackup(Long caseId, String startTime, String endTime);
+
+    /**
+     * 获取单个备份，增量备份会还原出完整内容
+     *
+     * @param id 备份id
+     * @return 实体
+     */
+    CaseBackup getBackup(Long id);
+
     /**
      * 删除备份记录
      *
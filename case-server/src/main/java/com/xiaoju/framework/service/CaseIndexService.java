@@ -0,0 +1,48 @@
+package com.xiaoju.framework.service;
+
+import com.xiaoju.framework.entity.response.cases.CaseSearchResp;
+
+import java.util.List;
+
+/**
+ * 用例全文检索接口
+ *
+ * @author didi
+ * @date 2026/10/18
+ */
+public interface CaseIndexService {
+
+    /**
+     * 用例新建或者内容修改后更新索引，异步执行，有事务时在提交后执行
+     *
+     * @param caseId 用例id
+     */
+    void index(Long caseId);
+
+    /**
+     * 用例删除后移除索引
+     *
+     * @param caseId 用例id
+     */
+    void remove(Long caseId);
+
+    /**
+     * 重建一条业务线下所有用例的索引，用于导入已有数据
+     *
+     * @param productLineId 业务线id
+     * @param channel 渠道
+     * @return 提交重建的用例数
+     */
+    int reindex(Long productLineId, Integer channel);
+
+    /**
+     * 按照关键字检索用例标题以及节点的文本、备注
+     *
+     * @param productLineId 业务线id
+     * @param channel 渠道
+     * @param keyword 关键字
+     * @param limit 最多返回的用例数
+     * @return 命中的用例以及节点
+     */
+    List<CaseSearchResp> search(Long productLineId, Integer channel, String keyword, int limit);
+}
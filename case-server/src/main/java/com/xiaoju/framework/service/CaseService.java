@@ -47,6 +47,17 @@ public interface CaseService {
      */
     Long insertOrDuplicateCase(CaseCreateReq request);
 
+    /**
+     * 批量新建用例，所有用例放到同一组文件夹下，批量导入时使用
+     *
+     * @param productLineId 业务线id
+     * @param channel 渠道
+     * @param bizId 文件夹id，多个用逗号分隔
+     * @param requests 每个用例的请求体，不支持复制
+     * @return 按顺序返回创建的caseId
+     */
+    List<Long> batchInsertCase(Long productLineId, Integer channel, String bizId, List<CaseCreateReq> requests);
+
     /**
      * 更新用例
      *
@@ -6,6 +6,7 @@ import com.xiaoju.framework.entity.request.dir.DirDeleteReq;
 import com.xiaoju.framework.entity.request.dir.DirRenameReq;
 import com.xiaoju.framework.entity.response.dir.DirTreeResp;
 
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -66,6 +67,15 @@ public interface DirService {
      */
     DirTreeResp getAllCaseDir(DirNodeDto root);
 
+    /**
+     * 查询文件树，每个文件夹的caseIds包含所有子孙文件夹下的用例，直接使用缓存的索引，不再逐层合并
+     *
+     * @param productLineId 业务线id
+     * @param channel 渠道
+     * @return 响应体
+     */
+    DirTreeResp getCaseDir(Long productLineId, Integer channel);
+
     /**
      * 获取当前节点的关联用例
      *
@@ -75,4 +85,45 @@ public interface DirService {
      * @return case-id-list
      */
     List<Long> getCaseIds(Long productLineId, String bizId, Integer channel);
+
+    /**
+     * 获取当前节点以及所有子孙节点的id，用于在case_folder中按文件夹筛选用例
+     *
+     * @param productLineId 业务线id
+     * @param bizId 文件夹id
+     * @param channel 渠道
+     * @return 文件夹id列表，当前节点以及子孙节点下都没有用例时返回空列表
+     */
+    List<String> getFolderIds(Long productLineId, String bizId, Integer channel);
+
+    /**
+     * 获取当前节点以及所有子孙节点下的用例个数
+     *
+     * @param productLineId 业务线id
+     * @param bizId 文件夹id
+     * @param channel 渠道
+     * @return 用例个数
+     */
+    int getCaseCount(Long productLineId, String bizId, Integer channel);
+
+    /**
+     * 把用例加入、移出文件夹，新建、编辑、删除用例时使用
+     *
+     * @param productLineId 业务线id
+     * @param channel 渠道
+     * @param caseId 用例id
+     * @param addBizIds 需要加入的文件夹id
+     * @param rmBizIds 需要移出的文件夹id
+     */
+    void moveCase(Long productLineId, Integer channel, Long caseId, Collection<String> addBizIds, Collection<String> rmBizIds);
+
+    /**
+     * 把一批用例加入同一组文件夹，批量导入时使用，整批只写一次文件夹版本
+     *
+     * @param productLineId 业务线id
+     * @param channel 渠道
+     * @param caseIds 用例id
+     * @param bizIds 需要加入的文件夹id，不存在的直接忽略
+     */
+    void addCases(Long productLineId, Integer channel, Collection<Long> caseIds, Collection<String> bizIds);
 }
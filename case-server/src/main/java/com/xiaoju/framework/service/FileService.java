@@ -1,7 +1,9 @@
 package com.xiaoju.framework.service;
 
+import com.xiaoju.framework.entity.request.cases.FileBatchImportReq;
 import com.xiaoju.framework.entity.request.cases.FileImportReq;
 import com.xiaoju.framework.entity.response.cases.ExportXmindResp;
+import com.xiaoju.framework.entity.response.cases.ImportProgressResp;
 
 /**
  * 文件上传与导出服务接口
@@ -20,6 +22,23 @@ public interface FileService {
      */
     Long importXmindFile(FileImportReq req) throws Exception;
 
+    /**
+     * 批量导入zip中的所有xmind文件，异步执行
+     *
+     * @param req 请求体
+     * @return 任务id，通过{@link #getImportProgress(String)}查询进度
+     * @throws Exception 任何可能的异常
+     */
+    String batchImportXmindFile(FileBatchImportReq req) throws Exception;
+
+    /**
+     * 查询批量导入的进度
+     *
+     * @param taskId 任务id
+     * @return 进度
+     */
+    ImportProgressResp getImportProgress(String taskId);
+
     /**
      * 导出xmind内容
      *
@@ -64,6 +64,15 @@ public interface RecordService {
      */
     RecordWsDto getWsRecord(Long recordId);
 
+    /**
+     * 给websocket使用的获取执行任务的方法，不带执行结果
+     * 保存时只需要校验更新时间以及合并执行人
+     *
+     * @param recordId 任务id
+     * @return 转换体，caseContent为null
+     */
+    RecordWsDto getWsRecordHeader(Long recordId);
+
     /**
      * 修改记录
      *
@@ -1,39 +1,125 @@
 package com.xiaoju.framework.service.impl;
 
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONException;
+import com.alibaba.fastjson.JSONObject;
+import com.alibaba.fastjson.parser.Feature;
+import com.alibaba.fastjson.serializer.SerializerFeature;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.xiaoju.framework.constants.enums.StatusCode;
+import com.xiaoju.framework.entity.exception.CaseServerException;
 import com.xiaoju.framework.entity.persistent.CaseBackup;
+import com.xiaoju.framework.entity.response.backup.BackupListResp;
 import com.xiaoju.framework.mapper.CaseBackupMapper;
 import com.xiaoju.framework.service.CaseBackupService;
+import com.xiaoju.framework.util.CompressUtil;
+import com.xiaoju.framework.util.PatchUtil;
 import com.xiaoju.framework.util.TimeUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 /**
  * 备份记录
  *
+ * 每隔snapshotInterval份备份存一份全量快照，中间的只存相对上一份备份的JSON-Patch并gzip压缩
+ * patch比完整内容的一半还大、或者内容不是合法json时直接存快照
+ * 还原时一次查出快照到目标之间的所有备份，依次应用patch
+ *
  * @author didi
  * @date 2020/11/5
  */
 @Service
 public class CaseBackupServiceImpl implements CaseBackupService {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(CaseBackupServiceImpl.class);
+
     @Resource
     private CaseBackupMapper caseBackupMapper;
 
+    private final int snapshotInterval;
+
+    /**
+     * 最近还原或者写入过的备份内容，连续备份时不用每次都从快照还原上一份
+     * 一份内容可能有几MB，按字节数限制大小，每个字符按2字节估算
+     */
+    private final Cache<Long, String> recent;
+
+    public CaseBackupServiceImpl(@Value("${backup.snapshot-interval:20}") int snapshotInterval,
+                                 @Value("${cache.backup-content.max-bytes:67108864}") long maxBytes) {
+        this.snapshotInterval = snapshotInterval;
+        this.recent = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((Long id, String content) -> (int) Math.min(Integer.MAX_VALUE, (long) content.length() * 2))
+                .build();
+    }
+
     @Override
     @Transactional(rollbackFor = Exception.class)
     public CaseBackup insertBackup(CaseBackup caseBackup) {
+        String content = caseBackup.getCaseContent();
+        CaseBackup latest = caseBackupMapper.selectLatest(caseBackup.getCaseId());
+        if (content != null && latest != null && latest.getDepth() + 1 < snapshotInterval) {
+            toDelta(caseBackup, latest);
+        }
         int backupId = caseBackupMapper.insert(caseBackup);
+        caseBackup.setCaseContent(content);
+        caseBackup.setCasePatch(null);
+        if (content != null && caseBackup.getId() != null) {
+            recent.put(caseBackup.getId(), content);
+        }
         caseBackup.setCaseId((long) backupId);
         return caseBackup;
     }
 
     @Override
     public List<CaseBackup> getBackupByCaseId(Long caseId, String beginTime, String endTime) {
-        return caseBackupMapper.selectByCaseId(caseId, transferTime(beginTime), transferTime(endTime));
+        List<CaseBackup> backups = caseBackupMapper.selectByCaseId(caseId, transferTime(beginTime), transferTime(endTime));
+        // 从旧到新依次还原，后一份直接在前一份的基础上应用patch
+        Map<Long, String> restored = new HashMap<>();
+        for (int i = backups.size() - 1; i >= 0; i--) {
+            CaseBackup backup = backups.get(i);
+            if (!backup.isSnapshot()) {
+                String base = restored.get(backup.getBaseId());
+                backup.setCaseContent(base == null ? restore(backup) : applyPatch(base, backup));
+                backup.setCasePatch(null);
+            }
+            restored.put(backup.getId(), backup.getCaseContent());
+        }
+        return backups;
+    }
+
+    @Override
+    public List<BackupListResp> listBackup(Long caseId, String beginTime, String endTime) {
+        return caseBackupMapper.selectHeaders(caseId, transferTime(beginTime), transferTime(endTime))
+                .stream().map(this::buildListResp).collect(Collectors.toList());
+    }
+
+    @Override
+    public CaseBackup getBackup(Long id) {
+        CaseBackup backup = caseBackupMapper.selectById(id);
+        if (backup == null) {
+            throw new CaseServerException("备份不存在", StatusCode.NOT_FOUND_ENTITY);
+        }
+        if (!backup.isSnapshot()) {
+            backup.setCaseContent(restore(backup));
+            backup.setCasePatch(null);
+        }
+        return backup;
     }
 
     @Override
@@ -42,6 +128,99 @@ public class CaseBackupServiceImpl implements CaseBackupService {
         return caseBackupMapper.updateByCaseId(caseId);
     }
 
+    /**
+     * 尝试把备份转成相对latest的增量，不合适时保持快照
+     */
+    private void toDelta(CaseBackup caseBackup, CaseBackup latest) {
+        String content = caseBackup.getCaseContent();
+        String patch;
+        try {
+            JSONObject base = JSON.parseObject(restore(latest), Feature.OrderedField);
+            JSONObject target = JSON.parseObject(content, Feature.OrderedField);
+            if (base == null || target == null) {
+                return;
+            }
+            patch = JSON.toJSONString(PatchUtil.diff(base, target), SerializerFeature.WriteMapNullValue);
+        } catch (JSONException | CaseServerException e) {
+            LOGGER.info("[备份增量计算失败]改为全量快照, caseId={}, 原因={}", caseBackup.getCaseId(), e.getMessage());
+            return;
+        }
+        if (patch.length() > content.length() / 2) {
+            return;
+        }
+        caseBackup.setBaseId(latest.getId());
+        caseBackup.setSnapshotId(latest.isSnapshot() ? latest.getId() : latest.getSnapshotId());
+        caseBackup.setDepth(latest.getDepth() + 1);
+        caseBackup.setCasePatch(CompressUtil.gzip(patch));
+        caseBackup.setCaseContent(null);
+    }
+
+    /**
+     * 还原某个备份的完整内容
+     */
+    private String restore(CaseBackup target) {
+        String cached = recent.getIfPresent(target.getId());
+        if (cached != null) {
+            return cached;
+        }
+        if (target.isSnapshot()) {
+            String content = target.getCaseContent();
+            if (content == null) {
+                CaseBackup full = caseBackupMapper.selectById(target.getId());
+                content = full == null ? null : full.getCaseContent();
+            }
+            return content;
+        }
+
+        Map<Long, CaseBackup> chain = new HashMap<>();
+        for (CaseBackup backup : caseBackupMapper.selectChain(target.getCaseId(), target.getSnapshotId(), target.getId())) {
+            chain.put(backup.getId(), backup);
+        }
+        // 从目标往前找到快照或者缓存过的备份，再从前往后应用patch
+        List<CaseBackup> path = new ArrayList<>();
+        String content = null;
+        Long id = target.getId();
+        while (content == null) {
+            CaseBackup backup = chain.get(id);
+            if (backup == null) {
+                throw new CaseServerException("备份链不完整, id=" + id, StatusCode.INTERNAL_ERROR);
+            }
+            content = recent.getIfPresent(id);
+            if (content == null && backup.isSnapshot()) {
+                content = backup.getCaseContent();
+                if (content == null) {
+                    throw new CaseServerException("快照内容为空, id=" + id, StatusCode.INTERNAL_ERROR);
+                }
+            }
+            if (content == null) {
+                path.add(backup);
+                id = backup.getBaseId();
+            }
+        }
+        Collections.reverse(path);
+        JSONObject doc = JSON.parseObject(content, Feature.OrderedField);
+        for (CaseBackup backup : path) {
+            PatchUtil.apply(doc, JSON.parseArray(CompressUtil.gunzip(backup.getCasePatch())));
+        }
+        String result = JSON.toJSONString(doc, SerializerFeature.WriteMapNullValue);
+        recent.put(target.getId(), result);
+        return result;
+    }
+
+    private String applyPatch(String base, CaseBackup backup) {
+        JSONObject doc = JSON.parseObject(base, Feature.OrderedField);
+        JSONArray patch = JSON.parseArray(CompressUtil.gunzip(backup.getCasePatch()));
+        PatchUtil.apply(doc, patch);
+        return JSON.toJSONString(doc, SerializerFeature.WriteMapNullValue);
+    }
+
+    private BackupListResp buildListResp(CaseBackup backup) {
+        BackupListResp resp = new BackupListResp();
+        BeanUtils.copyProperties(backup, resp);
+        resp.setSnapshot(backup.isSnapshot());
+        return resp;
+    }
+
     private Date transferTime(String time) {
         if (time == null) {
             return null;
@@ -0,0 +1,279 @@
+package com.xiaoju.framework.service.impl;
+
+import com.alibaba.fastjson.JSONObject;
+import com.xiaoju.framework.cache.CaseContentCache;
+import com.xiaoju.framework.entity.persistent.CaseNodeText;
+import com.xiaoju.framework.entity.persistent.TestCase;
+import com.xiaoju.framework.entity.response.cases.CaseSearchResp;
+import com.xiaoju.framework.entity.xmind.CaseNode;
+import com.xiaoju.framework.mapper.CaseNodeTextMapper;
+import com.xiaoju.framework.mapper.TestCaseMapper;
+import com.xiaoju.framework.service.CaseIndexService;
+import com.xiaoju.framework.util.CaseNodeUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.CollectionUtils;
+import org.springframework.util.StringUtils;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 用例全文检索实现类
+ *
+ * 标题直接使用test_case上的ngram全文索引，节点的文本、备注拆到case_node_text中逐行建全文索引
+ * 用例保存后在单独的线程里和已有的行做对比，只写新增、修改、删除的节点；同一个用例排队期间的多次保存只处理一次
+ *
+ * @author didi
+ * @date 2026/10/18
+ */
+@Service
+public class CaseIndexServiceImpl implements CaseIndexService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CaseIndexServiceImpl.class);
+
+    /**
+     * 每批写入的行数
+     */
+    private static final int BATCH_SIZE = 500;
+
+    /**
+     * ngram默认按两个字切分，更短的关键字查不到结果
+     */
+    private static final int MIN_KEYWORD_LENGTH = 2;
+
+    /**
+     * 每个用例平均最多返回的命中节点数
+     */
+    private static final int NODES_PER_CASE = 20;
+
+    private static final String TEXT = "text";
+    private static final String NOTE = "note";
+
+    @Resource
+    private CaseNodeTextMapper nodeTextMapper;
+
+    @Resource
+    private TestCaseMapper caseMapper;
+
+    @Resource
+    private CaseContentCache contentCache;
+
+    /**
+     * 排队中的用例
+     */
+    private final Set<Long> pending = ConcurrentHashMap.newKeySet();
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "case-index");
+        t.setDaemon(true);
+        return t;
+    });
+
+    @Override
+    public void index(Long caseId) {
+        afterCommit(() -> {
+            if (pending.add(caseId)) {
+                executor.execute(() -> {
+                    // 先移出队列再读内容，处理期间的保存会重新排队
+                    pending.remove(caseId);
+                    try {
+                        doIndex(caseId);
+                    } catch (Exception e) {
+                        LOGGER.error("[用例索引更新失败]caseId={}", caseId, e);
+                    }
+                });
+            }
+        });
+    }
+
+    @Override
+    public void remove(Long caseId) {
+        afterCommit(() -> executor.execute(() -> {
+            try {
+                nodeTextMapper.deleteByCase(caseId);
+            } catch (Exception e) {
+                LOGGER.error("[用例索引删除失败]caseId={}", caseId, e);
+            }
+        }));
+    }
+
+    @Override
+    public int reindex(Long productLineId, Integer channel) {
+        Set<String> ids = caseMapper.findCaseIdsInBiz(productLineId, channel);
+        if (CollectionUtils.isEmpty(ids)) {
+            return 0;
+        }
+        for (String id : ids) {
+            index(Long.valueOf(id));
+        }
+        return ids.size();
+    }
+
+    @Override
+    public List<CaseSearchResp> search(Long productLineId, Integer channel, String keyword, int limit) {
+        String phrase = toPhrase(keyword);
+        if (phrase == null || limit <= 0) {
+            return Collections.emptyList();
+        }
+
+        Map<Long, CaseSearchResp> result = new LinkedHashMap<>();
+        for (TestCase testCase : caseMapper.searchTitle(productLineId, channel, phrase, limit)) {
+            CaseSearchResp resp = getOrCreate(result, testCase.getId());
+            resp.setTitle(testCase.getTitle());
+            resp.setTitleMatched(true);
+        }
+
+        List<Long> untitled = new ArrayList<>();
+        for (CaseNodeText node : nodeTextMapper.search(productLineId, channel, phrase, limit * NODES_PER_CASE)) {
+            if (!result.containsKey(node.getCaseId())) {
+                if (result.size() >= limit) {
+                    continue;
+                }
+                untitled.add(node.getCaseId());
+            }
+            getOrCreate(result, node.getCaseId()).getNodeIds().add(node.getNodeId());
+        }
+        if (!untitled.isEmpty()) {
+            for (TestCase testCase : caseMapper.selectTitles(untitled)) {
+                result.get(testCase.getId()).setTitle(testCase.getTitle());
+            }
+        }
+        return new ArrayList<>(result.values());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * 把用例当前的节点文本和已有的行做对比，只写发生变化的节点
+     */
+    private void doIndex(Long caseId) {
+        String content = contentCache.getContent(caseId);
+        if (content == null) {
+            nodeTextMapper.deleteByCase(caseId);
+            return;
+        }
+
+        Map<String, CaseNodeText> current = extract(caseId, content);
+        Map<String, CaseNodeText> existing = new HashMap<>();
+        for (CaseNodeText row : nodeTextMapper.selectByCase(caseId)) {
+            existing.put(row.getNodeId(), row);
+        }
+
+        List<CaseNodeText> changed = new ArrayList<>();
+        for (CaseNodeText node : current.values()) {
+            CaseNodeText old = existing.remove(node.getNodeId());
+            if (old == null || !Objects.equals(old.getText(), node.getText()) || !Objects.equals(old.getNote(), node.getNote())) {
+                changed.add(node);
+            }
+        }
+        // existing中剩下的就是已经被删掉的节点
+        List<String> removed = new ArrayList<>(existing.keySet());
+
+        for (int i = 0; i < changed.size(); i += BATCH_SIZE) {
+            nodeTextMapper.batchUpsert(changed.subList(i, Math.min(i + BATCH_SIZE, changed.size())));
+        }
+        for (int i = 0; i < removed.size(); i += BATCH_SIZE) {
+            nodeTextMapper.deleteByNodes(caseId, removed.subList(i, Math.min(i + BATCH_SIZE, removed.size())));
+        }
+        LOGGER.info("[用例索引更新]caseId={}, 节点数={}, 更新={}, 删除={}", caseId, current.size(), changed.size(), removed.size());
+    }
+
+    /**
+     * 取出所有带文本或者备注的节点，节点层级可能很深，这里不用递归
+     */
+    private Map<String, CaseNodeText> extract(Long caseId, String content) {
+        Map<String, CaseNodeText> nodes = new LinkedHashMap<>();
+        CaseNode root = CaseNodeUtil.parse(content, true).getRoot();
+        if (root == null) {
+            return nodes;
+        }
+        Deque<CaseNode> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            CaseNode node = stack.pop();
+            for (CaseNode child : node.getChildren()) {
+                stack.push(child);
+            }
+            JSONObject data = node.getData();
+            if (data == null || StringUtils.isEmpty(node.getId())) {
+                continue;
+            }
+            String text = emptyToNull(data.getString(TEXT));
+            String note = emptyToNull(data.getString(NOTE));
+            if (text == null && note == null) {
+                continue;
+            }
+            CaseNodeText row = new CaseNodeText();
+            row.setCaseId(caseId);
+            row.setNodeId(node.getId());
+            row.setText(text);
+            row.setNote(note);
+            nodes.put(row.getNodeId(), row);
+        }
+        return nodes;
+    }
+
+    /**
+     * 关键字转换成布尔模式下的短语，ngram分词后要求所有片段按顺序出现，效果接近like '%keyword%'
+     *
+     * @return 关键字太短时返回null
+     */
+    private static String toPhrase(String keyword) {
+        if (keyword == null) {
+            return null;
+        }
+        String trimmed = keyword.replace('"', ' ').trim();
+        if (trimmed.length() < MIN_KEYWORD_LENGTH) {
+            return null;
+        }
+        return "\"" + trimmed + "\"";
+    }
+
+    private static String emptyToNull(String value) {
+        return StringUtils.isEmpty(value) ? null : value;
+    }
+
+    private static CaseSearchResp getOrCreate(Map<Long, CaseSearchResp> result, Long caseId) {
+        return result.computeIfAbsent(caseId, id -> {
+            CaseSearchResp resp = new CaseSearchResp();
+            resp.setId(id);
+            return resp;
+        });
+    }
+
+    /**
+     * 有事务时等提交之后再执行，否则异步线程可能读不到刚写入的用例
+     */
+    private static void afterCommit(Runnable task) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    task.run();
+                }
+            });
+        } else {
+            task.run();
+        }
+    }
+}
@@ -1,16 +1,16 @@
 package com.xiaoju.framework.service.impl;
 
-import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONObject;
 import com.github.pagehelper.Page;
 import com.github.pagehelper.PageHelper;
+import com.xiaoju.framework.cache.CaseContentCache;
+import com.xiaoju.framework.cache.CaseIndex;
+import com.xiaoju.framework.cache.RecordStatsCache;
 import com.xiaoju.framework.constants.SystemConstant;
 import com.xiaoju.framework.constants.enums.StatusCode;
 import com.xiaoju.framework.entity.dto.DirNodeDto;
-import com.xiaoju.framework.entity.dto.RecordNumDto;
 import com.xiaoju.framework.entity.dto.RecordWsDto;
 import com.xiaoju.framework.entity.exception.CaseServerException;
-import com.xiaoju.framework.entity.persistent.Biz;
 import com.xiaoju.framework.entity.persistent.ExecRecord;
 import com.xiaoju.framework.entity.persistent.TestCase;
 import com.xiaoju.framework.entity.request.cases.CaseConditionReq;
@@ -26,9 +26,9 @@ import com.xiaoju.framework.entity.response.cases.CaseListResp;
 import com.xiaoju.framework.entity.response.controller.PageModule;
 import com.xiaoju.framework.entity.response.dir.BizListResp;
 import com.xiaoju.framework.entity.response.dir.DirTreeResp;
-import com.xiaoju.framework.mapper.BizMapper;
 import com.xiaoju.framework.mapper.ExecRecordMapper;
 import com.xiaoju.framework.mapper.TestCaseMapper;
+import com.xiaoju.framework.service.CaseIndexService;
 import com.xiaoju.framework.service.CaseService;
 import com.xiaoju.framework.service.DirService;
 import com.xiaoju.framework.service.RecordService;
@@ -56,8 +56,16 @@ import static com.xiaoju.framework.constants.SystemConstant.IS_DELETE;
 @Service
 public class CaseServiceImpl implements CaseService {
 
-    @Resource
-    private BizMapper bizMapper;
+    /**
+     * 批量新增时每条insert最多的行数以及最多的内容字符数，避免超过max_allowed_packet
+     */
+    private static final int BATCH_ROWS = 100;
+    private static final int BATCH_CHARS = 1 << 20;
+
+    /**
+     * 页面上创建、导入的用例都是这个类型，文件夹索引里不区分用例类型
+     */
+    private static final Integer DEFAULT_CASE_TYPE = 0;
 
     @Resource
     private DirService dirService;
@@ -71,35 +79,74 @@ public class CaseServiceImpl implements CaseService {
     @Resource
     private RecordService recordService;
 
+    @Resource
+    private RecordStatsCache statsCache;
+
+    @Resource
+    private CaseContentCache contentCache;
+
+    @Resource
+    private CaseIndexService indexService;
+
     @Override
     public PageModule<CaseListResp> getCaseList(CaseQueryReq request) {
-        List<CaseListResp> res = new ArrayList<>();
-        List<Long> caseIds = dirService.getCaseIds(request.getLineId(), request.getBizId(), request.getChannel());
+        List<String> folderIds = dirService.getFolderIds(request.getLineId(), request.getBizId(), request.getChannel());
 
-        if (CollectionUtils.isEmpty(caseIds)) {
+        if (CollectionUtils.isEmpty(folderIds)) {
             return PageModule.emptyPage();
         }
 
         Date beginTime = transferTime(request.getBeginTime());
         Date endTime = transferTime(request.getEndTime());
+        if (request.getLastId() != null) {
+            return getCaseListByCursor(request, folderIds, beginTime, endTime);
+        }
+
         PageHelper.startPage(request.getPageNum(), request.getPageSize());
-        // select * from test_case where case_id in (request.getCaseIds()) [and ...any other condition];
-        List<TestCase> caseList = caseMapper.search(request.getCaseType(), caseIds, request.getTitle(),
-                request.getCreator(), request.getRequirementId(), beginTime, endTime, request.getChannel(), request.getLineId());
+        // select * from test_case where exists (select 1 from case_folder where folder_id in (folderIds)) [and ...any other condition];
+        List<CaseListResp> caseList = caseMapper.search(request.getCaseType(), folderIds, request.getTitle(),
+                request.getCreator(), request.getRequirementId(), beginTime, endTime, request.getChannel(), request.getLineId(),
+                null, null);
 
-        List<RecordNumDto> recordNumDtos = recordMapper.getRecordNumByCaseIds(caseIds);
-        Map<Long, Integer> recordMap = recordNumDtos.stream().collect(Collectors.toMap(RecordNumDto::getCaseId, RecordNumDto::getRecordNum));
+        return PageModule.buildPage(caseList, ((Page<CaseListResp>) caseList).getTotal());
+    }
 
-        for (TestCase testCase : caseList) {
-            res.add(buildListResp(testCase, recordMap.get(testCase.getId())));
+    /**
+     * 游标分页，按照id倒序取lastId之后的pageSize条，多取一条用来判断是否还有下一页
+     * 总数只在第一页返回：默认用例类型且没有其他筛选条件时直接用文件夹索引里的用例数作为近似值，否则count一次，后面的页不再计算
+     *
+     * @see #getCaseList
+     */
+    private PageModule<CaseListResp> getCaseListByCursor(CaseQueryReq request, List<String> folderIds, Date beginTime, Date endTime) {
+        int pageSize = Math.max(request.getPageSize(), 1);
+        List<CaseListResp> caseList = caseMapper.search(request.getCaseType(), folderIds, request.getTitle(),
+                request.getCreator(), request.getRequirementId(), beginTime, endTime, request.getChannel(), request.getLineId(),
+                request.getLastId(), pageSize + 1);
+
+        Long total = null;
+        if (request.getLastId() <= 0) {
+            boolean noFilter = DEFAULT_CASE_TYPE.equals(request.getCaseType()) && StringUtils.isEmpty(request.getTitle())
+                    && StringUtils.isEmpty(request.getCreator()) && StringUtils.isEmpty(request.getRequirementId())
+                    && beginTime == null && endTime == null;
+            total = noFilter
+                    ? (long) dirService.getCaseCount(request.getLineId(), request.getBizId(), request.getChannel())
+                    : caseMapper.countSearch(request.getCaseType(), folderIds, request.getTitle(), request.getCreator(),
+                            request.getRequirementId(), beginTime, endTime, request.getChannel(), request.getLineId());
         }
 
-        return PageModule.buildPage(res, ((Page<TestCase>) caseList).getTotal());
+        Long nextId = null;
+        if (caseList.size() > pageSize) {
+            caseList = new ArrayList<>(caseList.subList(0, pageSize));
+            nextId = caseList.get(pageSize - 1).getId();
+        }
+        PageModule<CaseListResp> page = PageModule.buildPage(caseList, total);
+        page.setNextId(nextId);
+        return page;
     }
 
     @Override
     public CaseDetailResp getCaseDetail(Long caseId) {
-        TestCase testCase = caseMapper.selectOne(caseId);
+        TestCase testCase = caseMapper.selectHeader(caseId);
         if (testCase == null) {
             throw new CaseServerException("用例不存在", StatusCode.INTERNAL_ERROR);
         }
@@ -115,18 +162,56 @@ public class CaseServiceImpl implements CaseService {
         TestCase testcase = buildCase(request);
         caseMapper.insert(testcase);
         // 可能会多个加入  所以不要使用dirService.addCase()
-        DirNodeDto tree = dirService.getDirTree(testcase.getProductLineId(), testcase.getChannel());
         List<String> addBizs = Arrays.asList(request.getBizId().split(SystemConstant.COMMA));
-        updateDFS(packageTree(tree), String.valueOf(testcase.getId()), new HashSet<>(addBizs), new HashSet<>());
-        updateBiz(testcase, tree);
+        dirService.moveCase(testcase.getProductLineId(), testcase.getChannel(), testcase.getId(), addBizs, Collections.emptyList());
+        indexService.index(testcase.getId());
 
         return testcase.getId();
     }
 
+    @Override
+    @Transactional(rollbackFor = Exception.class)
+    public List<Long> batchInsertCase(Long productLineId, Integer channel, String bizId, List<CaseCreateReq> requests) {
+        List<Long> ids = new ArrayList<>(requests.size());
+        List<TestCase> batch = new ArrayList<>();
+        int chars = 0;
+        for (CaseCreateReq request : requests) {
+            // 批量插入时所有列都要给值，validate会补上需求id、描述的默认值
+            request.validate();
+            TestCase testCase = buildCase(request);
+            testCase.setCaseType(request.getCaseType());
+            batch.add(testCase);
+            chars += testCase.getCaseContent().length();
+            if (batch.size() >= BATCH_ROWS || chars >= BATCH_CHARS) {
+                flushBatch(batch, ids);
+                chars = 0;
+            }
+        }
+        flushBatch(batch, ids);
+
+        // 所有用例一次加入文件夹，只写一次文件夹版本
+        dirService.addCases(productLineId, channel, ids, Arrays.asList(bizId.split(SystemConstant.COMMA)));
+        for (Long id : ids) {
+            indexService.index(id);
+        }
+        return ids;
+    }
+
+    private void flushBatch(List<TestCase> batch, List<Long> ids) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        caseMapper.batchInsert(batch);
+        for (TestCase testCase : batch) {
+            ids.add(testCase.getId());
+        }
+        batch.clear();
+    }
+
     @Override
     @Transactional(rollbackFor = Exception.class)
     public DirTreeResp updateCase(CaseEditReq request) {
-        TestCase testCase = caseMapper.selectOne(request.getId());
+        TestCase testCase = caseMapper.selectHeader(request.getId());
         if (testCase == null) {
             throw new CaseServerException("用例不存在", StatusCode.NOT_FOUND_ENTITY);
         }
@@ -137,33 +222,33 @@ public class CaseServiceImpl implements CaseService {
         BeanUtils.copyProperties(request, testCase);
         testCase.setGmtModified(new Date());
 
-        DirNodeDto tree = dirService.getDirTree(testCase.getProductLineId(), testCase.getChannel());
-        updateDFS(packageTree(tree), String.valueOf(request.getId()), new HashSet<>(addBizs), new HashSet<>(rmBizs));
-        updateBiz(testCase, tree);
+        dirService.moveCase(testCase.getProductLineId(), testCase.getChannel(), testCase.getId(), addBizs, rmBizs);
 
         caseMapper.update(testCase);
+        contentCache.invalidate(testCase.getId());
 
-        return dirService.getAllCaseDir(tree);
+        return dirService.getCaseDir(testCase.getProductLineId(), testCase.getChannel());
     }
 
     @Override
     @Transactional(rollbackFor = Exception.class)
     public DirTreeResp deleteCase(Long caseId) {
-        TestCase testCase = caseMapper.selectOne(caseId);
+        TestCase testCase = caseMapper.selectHeader(caseId);
         testCase.setIsDelete(IS_DELETE);
 
         // 删除所有操作记录
-        List<ExecRecord> execRecords = recordMapper.getRecordListByCaseId(testCase.getId());
-        if (!CollectionUtils.isEmpty(execRecords)) {
-            recordMapper.batchDelete(execRecords.stream().map(ExecRecord::getId).collect(Collectors.toList()));
+        List<Long> recordIds = recordMapper.getRecordIdsByCaseId(testCase.getId());
+        if (!CollectionUtils.isEmpty(recordIds)) {
+            recordMapper.batchDelete(recordIds);
         }
 
-        DirNodeDto tree = dirService.getDirTree(testCase.getProductLineId(), testCase.getChannel());
-        updateDFS(packageTree(tree), String.valueOf(caseId), new HashSet<>(), new HashSet<>(convertToList(testCase.getBizId())));
-        updateBiz(testCase, tree);
+        dirService.moveCase(testCase.getProductLineId(), testCase.getChannel(), caseId, Collections.emptyList(), convertToList(testCase.getBizId()));
 
         caseMapper.delete(testCase.getId());
-        return dirService.getAllCaseDir(tree);
+        contentCache.invalidate(caseId);
+        statsCache.invalidateCase(caseId);
+        indexService.remove(caseId);
+        return dirService.getCaseDir(testCase.getProductLineId(), testCase.getChannel());
     }
 
     @Override
@@ -189,38 +274,25 @@ public class CaseServiceImpl implements CaseService {
     public CaseConditionResp getCountByCondition(CaseConditionReq req) {
         CaseConditionResp res = new CaseConditionResp();
 
-        TestCase testCase = caseMapper.selectOne(req.getCaseId());
-        JSONObject content = JSONObject.parseObject(testCase.getCaseContent());
-        JSONObject caseRoot = content.getJSONObject("root");
-
-        HashSet<String> tags = new HashSet<>();
-        Integer caseNum = TreeUtil.getCaseNum(caseRoot, tags);
-
-        res.setTotalCount(caseNum);
-        res.setTaglist(tags);
-
-        HashSet<String> prioritySet, resourceSet;
-        if (!CollectionUtils.isEmpty(req.getPriority())) {
-            prioritySet = new HashSet<>(req.getPriority());
-            if (!TreeUtil.getChosenCase(caseRoot, prioritySet, "priority")) {
-                caseRoot = null;
-            }
-        }
-        if (!CollectionUtils.isEmpty(req.getResource())) {
-            resourceSet = new HashSet<>(req.getResource());
-            if (!TreeUtil.getChosenCase(caseRoot, resourceSet, "resource")) {
-                caseRoot = null;
-            }
+        CaseContentCache.CaseContent content = contentCache.get(req.getCaseId());
+        if (content == null) {
+            throw new CaseServerException("用例不存在", StatusCode.NOT_FOUND_ENTITY);
         }
+        // 圈选索引跟着用例版本缓存，弹窗里每次勾选只做几次位运算
+        CaseIndex index = content.getIndex();
+        res.setTotalCount(index.getTotal());
+        res.setTaglist(new HashSet<>(index.getTags()));
+
         //没有筛选，返回caseNum为null
-        caseNum = (req.getPriority().size() == 0 && req.getResource().size() == 0) ? null : TreeUtil.getCaseNum(caseRoot, tags);
+        Integer caseNum = (req.getPriority().size() == 0 && req.getResource().size() == 0) ? null
+                : index.count(req.getPriority(), req.getResource());
         res.setCount(caseNum);
         return res;
     }
 
     @Override
     public CaseGeneralInfoResp getCaseGeneralInfo(Long caseId) {
-        TestCase testCase = caseMapper.selectOne(caseId);
+        TestCase testCase = caseMapper.selectHeader(caseId);
         if (testCase == null) {
             throw new CaseServerException("用例不存在", StatusCode.NOT_FOUND_ENTITY);
         }
@@ -236,7 +308,7 @@ public class CaseServiceImpl implements CaseService {
     public void wsSave(WsSaveReq req) {
         // 这里触发保存record
         if (!StringUtils.isEmpty(req.getRecordId())) {
-            RecordWsDto dto = recordService.getWsRecord(req.getRecordId());
+            RecordWsDto dto = recordService.getWsRecordHeader(req.getRecordId());
             // 看看是不是有重合的执行人
             List<String> names = Arrays.stream(dto.getExecutors().split(COMMA)).filter(e->!StringUtils.isEmpty(e)).collect(Collectors.toList());
             long count = names.stream().filter(e -> e.equals(req.getModifier())).count();
@@ -267,10 +339,13 @@ public class CaseServiceImpl implements CaseService {
             recordService.modifyRecord(record);
         } else {
             // 这里触发保存testcase
-            TestCase testCase = caseMapper.selectOne(req.getId());
+            TestCase testCase = caseMapper.selectHeader(req.getId());
             testCase.setCaseContent(req.getCaseContent());
             testCase.setModifier(req.getModifier());
             caseMapper.update(testCase);
+            contentCache.invalidate(req.getId());
+            statsCache.invalidateCase(req.getId());
+            indexService.index(req.getId());
         }
     }
 
@@ -298,20 +373,6 @@ public class CaseServiceImpl implements CaseService {
         return Arrays.stream(str.split(SystemConstant.COMMA)).collect(Collectors.toList());
     }
 
-    /**
-     * 构造/list下的用例列表
-     *
-     * @param testCase 测试用例
-     * @return 列表单条
-     * @see #getCaseList
-     */
-    private CaseListResp buildListResp(TestCase testCase, Integer recordNum) {
-        CaseListResp resp = new CaseListResp();
-        BeanUtils.copyProperties(testCase, resp);
-        resp.setRecordNum(recordNum == null ? 0 : recordNum);
-        return resp;
-    }
-
     /**
      * 构造用例详情内容
      *
@@ -380,11 +441,10 @@ public class CaseServiceImpl implements CaseService {
         String content = request.getCaseContent();
         // 如果是复制
         if (request.getId() != null) {
-            TestCase testCase = caseMapper.selectOne(request.getId());
-            if (testCase == null) {
+            content = contentCache.getContent(request.getId());
+            if (content == null) {
                 throw new CaseServerException("用例不存在", StatusCode.NOT_FOUND_ENTITY);
             }
-            content = testCase.getCaseContent();
         }
 
         TestCase ret = new TestCase();
@@ -403,50 +463,4 @@ public class CaseServiceImpl implements CaseService {
         ret.setCaseContent(content);
         return ret;
     }
-
-    /**
-     * 更新json体
-     *
-     * @param node 树
-     * @param addSet 需要新增caseId的set
-     * @param rmSet 需要删减caseId的set
-     */
-    private void updateDFS(DirNodeDto node, String caseId, Set<String> addSet, Set<String> rmSet) {
-        if (CollectionUtils.isEmpty(node.getChildren())) {
-            return ;
-        }
-
-        for (int i = 0; i < node.getChildren().size(); i++) {
-            DirNodeDto childNode = node.getChildren().get(i);
-            if (addSet.contains(childNode.getId())) {
-                childNode.getCaseIds().add(caseId);
-            }
-            if (rmSet.contains(childNode.getId())) {
-                childNode.getCaseIds().remove(caseId);
-            }
-            updateDFS(childNode, caseId, addSet, rmSet);
-        }
-    }
-
-    /**
-     * dir-封装一下树的开头，这样树的头结点也可以进行插入
-     */
-    private DirNodeDto packageTree(DirNodeDto node) {
-        DirNodeDto pack = new DirNodeDto();
-        pack.getChildren().add(node);
-        return pack;
-    }
-
-    /**
-     * 更新文件夹
-     *
-     * @param testCase 测试用例
-     * @param tree 树
-     */
-    public void updateBiz(TestCase testCase, DirNodeDto tree) {
-        Biz biz = bizMapper.selectOne(testCase.getProductLineId(), testCase.getChannel());
-        biz.setContent(JSON.toJSONString(tree));
-        biz.setGmtModified(new Date());
-        bizMapper.update(biz);
-    }
 }
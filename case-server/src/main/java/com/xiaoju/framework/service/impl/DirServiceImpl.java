@@ -1,94 +1,130 @@
 package com.xiaoju.framework.service.impl;
 
 import com.alibaba.fastjson.JSONObject;
+import com.xiaoju.framework.cache.DirIndex;
+import com.xiaoju.framework.cache.DirTreeCache;
 import com.xiaoju.framework.constants.enums.StatusCode;
 import com.xiaoju.framework.entity.persistent.Biz;
+import com.xiaoju.framework.entity.persistent.BizFolder;
+import com.xiaoju.framework.entity.persistent.CaseFolder;
 import com.xiaoju.framework.entity.dto.DirNodeDto;
 import com.xiaoju.framework.entity.exception.CaseServerException;
 import com.xiaoju.framework.entity.request.dir.DirCreateReq;
 import com.xiaoju.framework.entity.request.dir.DirDeleteReq;
 import com.xiaoju.framework.entity.request.dir.DirRenameReq;
 import com.xiaoju.framework.entity.response.dir.DirTreeResp;
+import com.xiaoju.framework.mapper.BizFolderMapper;
 import com.xiaoju.framework.mapper.BizMapper;
+import com.xiaoju.framework.mapper.CaseFolderMapper;
 import com.xiaoju.framework.mapper.TestCaseMapper;
 import com.xiaoju.framework.service.DirService;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.annotation.Resource;
-import java.util.Iterator;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import java.util.stream.LongStream;
 
 /**
  * 文件夹实现类
  *
+ * 文件夹存储在biz_folder，用例与文件夹的关联存储在case_folder，每次修改只写变化的行
+ * biz表只作为业务线的版本号，旧的biz.content在第一次访问时自动迁移过来
+ *
  * @author hcy
  * @date 2020/11/24
  */
 @Service
 public class DirServiceImpl implements DirService {
 
+    /**
+     * 迁移、批量导入时每批插入的行数
+     */
+    private static final int BATCH_SIZE = 1000;
+
+    private static final String ROOT_PARENT = "";
+
     @Resource
     BizMapper bizMapper;
 
+    @Resource
+    BizFolderMapper folderMapper;
+
+    @Resource
+    CaseFolderMapper caseFolderMapper;
+
     @Resource
     TestCaseMapper caseMapper;
 
+    @Resource
+    DirTreeCache dirCache;
+
     @Override
     @Transactional(rollbackFor = Exception.class)
     public DirNodeDto addDir(DirCreateReq request) {
-        DirNodeDto root = getDirTree(request.getProductLineId(), request.getChannel());
-        DirNodeDto dir = getDir(request.getParentId(), root);
-        if (dir == null) {
-            throw new CaseServerException("目录节点获取为空", StatusCode.INTERNAL_ERROR);
+        Long productLineId = request.getProductLineId();
+        Integer channel = request.getChannel();
+        DirIndex index = getIndex(productLineId, channel);
+        synchronized (index) {
+            if (!index.contains(request.getParentId())) {
+                throw new CaseServerException("目录节点获取为空", StatusCode.INTERNAL_ERROR);
+            }
+            String id = UUID.randomUUID().toString().substring(0,8);
+            return modify(productLineId, channel, index, () ->
+                    folderMapper.insert(buildFolder(productLineId, channel, id, request.getParentId(),
+                            request.getText(), index.childCount(request.getParentId()))),
+                    idx -> idx.addFolder(request.getParentId(), id, request.getText())).toTree(false);
         }
-
-        List<DirNodeDto> children = dir.getChildren();
-        DirNodeDto newDir = new DirNodeDto();
-        newDir.setId(UUID.randomUUID().toString().substring(0,8));
-        newDir.setText(request.getText());
-        newDir.setParentId(dir.getId());
-        children.add(newDir);
-
-        bizMapper.updateContent(request.getProductLineId(), JSONObject.toJSONString(root), request.getChannel());
-        return root;
     }
 
     @Override
     @Transactional(rollbackFor = Exception.class)
     public DirNodeDto renameDir(DirRenameReq request) {
-        DirNodeDto root = getDirTree(request.getProductLineId(), request.getChannel());
-        DirNodeDto dir = getDir(request.getId(), root);
-        if (dir == null) {
-            throw new CaseServerException("目录节点获取为空", StatusCode.INTERNAL_ERROR);
+        Long productLineId = request.getProductLineId();
+        Integer channel = request.getChannel();
+        DirIndex index = getIndex(productLineId, channel);
+        synchronized (index) {
+            if (!index.contains(request.getId())) {
+                throw new CaseServerException("目录节点获取为空", StatusCode.INTERNAL_ERROR);
+            }
+            return modify(productLineId, channel, index,
+                    () -> folderMapper.rename(productLineId, channel, request.getId(), request.getText()),
+                    idx -> idx.renameFolder(request.getId(), request.getText())).toTree(false);
         }
-
-        dir.setText(request.getText());
-        bizMapper.updateContent(request.getProductLineId(), JSONObject.toJSONString(root), request.getChannel());
-        return root;
     }
 
     @Override
+    @Transactional(rollbackFor = Exception.class)
     public DirNodeDto delDir(DirDeleteReq request) {
-        DirNodeDto root = getDirTree(request.getProductLineId(), request.getChannel());
-        DirNodeDto dir = getDir(request.getParentId(), root);
-        if (dir == null) {
-            throw new CaseServerException("目录节点获取为空", StatusCode.INTERNAL_ERROR);
-        }
-
-        Iterator<DirNodeDto> iterator = dir.getChildren().iterator();
-        while (iterator.hasNext()) {
-            DirNodeDto next = iterator.next();
-            if (request.getDelId().equals(next.getId())) {
-                iterator.remove();
-                break;
+        Long productLineId = request.getProductLineId();
+        Integer channel = request.getChannel();
+        DirIndex index = getIndex(productLineId, channel);
+        synchronized (index) {
+            if (!index.contains(request.getParentId())) {
+                throw new CaseServerException("目录节点获取为空", StatusCode.INTERNAL_ERROR);
             }
+            if (request.getParentId().equals(index.parentOf(request.getDelId()))) {
+                List<String> removed = index.subtree(request.getDelId());
+                return modify(productLineId, channel, index, () -> {
+                    folderMapper.batchDelete(productLineId, channel, removed);
+                    caseFolderMapper.deleteByFolders(productLineId, channel, removed);
+                }, idx -> idx.removeFolder(request.getParentId(), request.getDelId())).toTree(false);
+            }
+            return index.toTree(false);
         }
-        bizMapper.updateContent(request.getProductLineId(), JSONObject.toJSONString(root), request.getChannel());
-        return root;
     }
 
     @Override
@@ -96,15 +132,17 @@ public class DirServiceImpl implements DirService {
         if (root == null) {
             return null;
         }
-        if (bizId.equals(root.getId())) {
-            return root;
-        }
-
-        List<DirNodeDto> children = root.getChildren();
-        for (DirNodeDto child : children) {
-            DirNodeDto dir = getDir(bizId, child);
-            if (dir != null) {
-                return dir;
+        // 先序遍历，子节点倒序入栈，找到的仍是递归时第一个命中的节点
+        Deque<DirNodeDto> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            DirNodeDto node = stack.pop();
+            if (bizId.equals(node.getId())) {
+                return node;
+            }
+            List<DirNodeDto> children = node.getChildren();
+            for (int i = children.size() - 1; i >= 0; i--) {
+                stack.push(children.get(i));
             }
         }
         return null;
@@ -112,13 +150,324 @@ public class DirServiceImpl implements DirService {
 
     @Override
     public DirNodeDto getDirTree(Long productLineId, Integer channel) {
+        return getIndex(productLineId, channel).toTree(false);
+    }
+
+    @Override
+    public DirTreeResp getAllCaseDir(DirNodeDto root) {
+        DirTreeResp resp = new DirTreeResp();
+        addChildrenCaseIds(root);
+        resp.getChildren().add(root);
+        return resp;
+    }
+
+    @Override
+    public DirTreeResp getCaseDir(Long productLineId, Integer channel) {
+        DirTreeResp resp = new DirTreeResp();
+        resp.getChildren().add(getIndex(productLineId, channel).toTree(true));
+        return resp;
+    }
+
+    @Override
+    public List<Long> getCaseIds(Long productLineId, String bizId, Integer channel) {
+        long[] caseIds = getIndex(productLineId, channel).getCaseIds(bizId);
+        if (caseIds == null) {
+            throw new CaseServerException("目录节点获取为空", StatusCode.INTERNAL_ERROR);
+        }
+        return LongStream.of(caseIds).boxed().collect(Collectors.toList());
+    }
+
+    @Override
+    public List<String> getFolderIds(Long productLineId, String bizId, Integer channel) {
+        DirIndex index = getIndex(productLineId, channel);
+        long[] caseIds = index.getCaseIds(bizId);
+        if (caseIds == null) {
+            throw new CaseServerException("目录节点获取为空", StatusCode.INTERNAL_ERROR);
+        }
+        return caseIds.length == 0 ? Collections.emptyList() : index.subtree(bizId);
+    }
+
+    @Override
+    public int getCaseCount(Long productLineId, String bizId, Integer channel) {
+        long[] caseIds = getIndex(productLineId, channel).getCaseIds(bizId);
+        if (caseIds == null) {
+            throw new CaseServerException("目录节点获取为空", StatusCode.INTERNAL_ERROR);
+        }
+        return caseIds.length;
+    }
+
+    @Override
+    @Transactional(rollbackFor = Exception.class)
+    public void moveCase(Long productLineId, Integer channel, Long caseId, Collection<String> addBizIds, Collection<String> rmBizIds) {
+        DirIndex index = getIndex(productLineId, channel);
+        synchronized (index) {
+            List<CaseFolder> added = new ArrayList<>();
+            for (String folderId : addBizIds) {
+                // 先加后删，同时出现在两边的以删除为准
+                if (index.contains(folderId) && !rmBizIds.contains(folderId)) {
+                    added.add(buildCaseFolder(productLineId, channel, folderId, caseId));
+                }
+            }
+            if (added.isEmpty() && rmBizIds.isEmpty()) {
+                return;
+            }
+            modify(productLineId, channel, index, () -> {
+                if (!added.isEmpty()) {
+                    caseFolderMapper.batchInsert(added);
+                }
+                if (!rmBizIds.isEmpty()) {
+                    caseFolderMapper.deleteByCase(productLineId, channel, caseId, rmBizIds);
+                }
+            }, idx -> idx.moveCase(caseId, addBizIds, rmBizIds));
+        }
+    }
+
+    @Override
+    @Transactional(rollbackFor = Exception.class)
+    public void addCases(Long productLineId, Integer channel, Collection<Long> caseIds, Collection<String> bizIds) {
+        if (caseIds.isEmpty()) {
+            return;
+        }
+        DirIndex index = getIndex(productLineId, channel);
+        synchronized (index) {
+            List<String> folderIds = new ArrayList<>();
+            for (String folderId : bizIds) {
+                if (index.contains(folderId) && !folderIds.contains(folderId)) {
+                    folderIds.add(folderId);
+                }
+            }
+            if (folderIds.isEmpty()) {
+                return;
+            }
+            List<CaseFolder> added = new ArrayList<>(caseIds.size() * folderIds.size());
+            for (Long caseId : caseIds) {
+                for (String folderId : folderIds) {
+                    added.add(buildCaseFolder(productLineId, channel, folderId, caseId));
+                }
+            }
+            // 整批只改一次版本号
+            modify(productLineId, channel, index, () -> {
+                for (int i = 0; i < added.size(); i += BATCH_SIZE) {
+                    caseFolderMapper.batchInsert(added.subList(i, Math.min(i + BATCH_SIZE, added.size())));
+                }
+            }, idx -> idx.addCases(caseIds, folderIds));
+        }
+    }
+
+    /**
+     * 获取文件夹索引，缓存的版本和数据库一致时直接使用缓存
+     *
+     * @param productLineId 业务线id
+     * @param channel 渠道
+     * @return 索引
+     */
+    private DirIndex getIndex(Long productLineId, Integer channel) {
+        // 当前事务已经修改过文件夹时，使用事务自己的副本，能看到尚未提交的修改
+        DirIndex pending = pendingIndex(productLineId, channel);
+        if (pending != null) {
+            return pending;
+        }
+        Long version = bizMapper.selectVersion(productLineId, channel);
+        DirIndex cached = dirCache.get(productLineId, channel);
+        if (cached != null && version != null && cached.getVersion() == version) {
+            return cached;
+        }
+
+        List<BizFolder> folders = folderMapper.selectByLine(productLineId, channel);
+        if (version == null || folders.isEmpty()) {
+            migrate(productLineId, channel);
+            version = bizMapper.selectVersion(productLineId, channel);
+            folders = folderMapper.selectByLine(productLineId, channel);
+        }
+        // 先读版本号再读数据，中间如果有修改，下次读取时版本号对不上会重新加载
+        DirIndex index = DirIndex.build(buildTree(folders, caseFolderMapper.selectByLine(productLineId, channel)),
+                version == null ? 0L : version);
+        dirCache.put(productLineId, channel, index);
+        return index;
+    }
+
+    /**
+     * 写数据库并修改索引，需要持有index的锁
+     * 事务提交前不修改缓存的索引，修改只作用在当前事务自己的副本上，同一事务后续的读取使用这份副本，
+     * 回滚时缓存里不会留下数据库里没有的文件夹和用例
+     * 提交后如果新版本号正好是缓存版本的下一个版本，说明期间没有别人修改，把修改应用到缓存上并更新版本号，否则丢弃缓存
+     * 回滚或者写失败时同样丢弃缓存，下次重新从数据库加载
+     *
+     * @param write 数据库的修改
+     * @param change 索引的修改
+     * @return 修改后的索引，用来返回修改后的文件夹树
+     */
+    private DirIndex modify(Long productLineId, Integer channel, DirIndex index, Runnable write, Consumer<DirIndex> change) {
+        long version;
+        try {
+            write.run();
+            bizMapper.increaseVersion(productLineId, channel);
+            Long dbVersion = bizMapper.selectVersion(productLineId, channel);
+            version = dbVersion == null ? -1L : dbVersion;
+        } catch (RuntimeException e) {
+            dirCache.invalidate(productLineId, channel);
+            throw e;
+        }
+
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            DirIndex result = index.copy();
+            change.accept(result);
+            applyChange(productLineId, channel, version, change);
+            return result;
+        }
+
+        DirIndex pending = pendingIndex(productLineId, channel);
+        if (pending == null) {
+            pending = index.copy();
+            String key = pendingKey(productLineId, channel);
+            TransactionSynchronizationManager.bindResource(key, pending);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(key);
+                    if (status != STATUS_COMMITTED) {
+                        dirCache.invalidate(productLineId, channel);
+                    }
+                }
+            });
+        }
+        change.accept(pending);
+        pending.setVersion(version);
+        // 每次修改各自注册，提交后按修改的顺序依次应用，版本号是连续的
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                applyChange(productLineId, channel, version, change);
+            }
+        });
+        return pending;
+    }
+
+    /**
+     * 把已经提交的修改应用到缓存的索引上
+     */
+    private void applyChange(Long productLineId, Integer channel, long version, Consumer<DirIndex> change) {
+        DirIndex cached = dirCache.get(productLineId, channel);
+        if (cached == null) {
+            return;
+        }
+        synchronized (cached) {
+            if (version == cached.getVersion() + 1) {
+                change.accept(cached);
+                cached.setVersion(version);
+            } else if (version > cached.getVersion()) {
+                dirCache.invalidate(productLineId, channel);
+            }
+        }
+    }
+
+    /**
+     * 当前事务中修改过的索引副本
+     */
+    private DirIndex pendingIndex(Long productLineId, Integer channel) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return null;
+        }
+        return (DirIndex) TransactionSynchronizationManager.getResource(pendingKey(productLineId, channel));
+    }
+
+    private static String pendingKey(Long productLineId, Integer channel) {
+        return DirIndex.class.getName() + ":" + productLineId + ":" + channel;
+    }
+
+    /**
+     * 把biz.content里的文件夹树导入biz_folder和case_folder，没有biz记录时生成一个默认的
+     * 插入时忽略已存在的行，多个实例同时迁移也没有问题
+     */
+    private void migrate(Long productLineId, Integer channel) {
+        DirNodeDto root;
         Biz dbBiz = bizMapper.selectOne(productLineId, channel);
-        // 如果有，那么就直接返回
         if (dbBiz != null) {
-            return JSONObject.parseObject(dbBiz.getContent(), DirNodeDto.class);
+            root = JSONObject.parseObject(dbBiz.getContent(), DirNodeDto.class);
+        } else {
+            root = defaultTree(productLineId, channel);
+            Biz biz = new Biz();
+            biz.setProductLineId(productLineId);
+            biz.setChannel(channel);
+            biz.setContent(JSONObject.toJSONString(root));
+            bizMapper.insert(biz);
+        }
+
+        List<BizFolder> folders = new ArrayList<>();
+        List<CaseFolder> members = new ArrayList<>();
+        flatten(productLineId, channel, root, folders, members);
+        for (int i = 0; i < folders.size(); i += BATCH_SIZE) {
+            folderMapper.batchInsert(folders.subList(i, Math.min(i + BATCH_SIZE, folders.size())));
+        }
+        for (int i = 0; i < members.size(); i += BATCH_SIZE) {
+            caseFolderMapper.batchInsert(members.subList(i, Math.min(i + BATCH_SIZE, members.size())));
+        }
+    }
+
+    private void flatten(Long productLineId, Integer channel, DirNodeDto root,
+                         List<BizFolder> folders, List<CaseFolder> members) {
+        // 先序遍历，栈中同时保存父文件夹id以及在父文件夹下的顺序，biz.content里的parentId不一定可靠
+        Deque<DirNodeDto> nodes = new ArrayDeque<>();
+        Deque<String> parents = new ArrayDeque<>();
+        Deque<Integer> sorts = new ArrayDeque<>();
+        nodes.push(root);
+        parents.push(ROOT_PARENT);
+        sorts.push(0);
+        while (!nodes.isEmpty()) {
+            DirNodeDto node = nodes.pop();
+            String parentId = parents.pop();
+            int sort = sorts.pop();
+            folders.add(buildFolder(productLineId, channel, node.getId(), parentId, node.getText(), sort));
+            for (String caseId : node.getCaseIds()) {
+                members.add(buildCaseFolder(productLineId, channel, node.getId(), Long.valueOf(caseId)));
+            }
+            for (int i = node.getChildren().size() - 1; i >= 0; i--) {
+                nodes.push(node.getChildren().get(i));
+                parents.push(node.getId());
+                sorts.push(i);
+            }
         }
+    }
 
-        // 如果没有，则会自动生成一个
+    /**
+     * 把数据库里的行组装成文件夹树
+     */
+    private DirNodeDto buildTree(List<BizFolder> folders, List<CaseFolder> members) {
+        Map<String, DirNodeDto> nodes = new HashMap<>(folders.size() * 4 / 3 + 1);
+        for (BizFolder folder : folders) {
+            DirNodeDto node = new DirNodeDto();
+            node.setId(folder.getFolderId());
+            node.setText(folder.getText());
+            node.setParentId(ROOT_PARENT.equals(folder.getParentId()) ? null : folder.getParentId());
+            nodes.put(node.getId(), node);
+        }
+        DirNodeDto root = null;
+        // folders已经按照sort排好序，这里按顺序挂到父节点上即可
+        for (BizFolder folder : folders) {
+            DirNodeDto node = nodes.get(folder.getFolderId());
+            DirNodeDto parent = nodes.get(folder.getParentId());
+            if (parent != null) {
+                parent.getChildren().add(node);
+            } else if (ROOT_PARENT.equals(folder.getParentId())) {
+                root = node;
+            }
+        }
+        if (root == null) {
+            throw new CaseServerException("文件夹数据异常，缺少顶级文件夹", StatusCode.INTERNAL_ERROR);
+        }
+        for (CaseFolder member : members) {
+            DirNodeDto node = nodes.get(member.getFolderId());
+            if (node != null) {
+                node.getCaseIds().add(String.valueOf(member.getCaseId()));
+            }
+        }
+        return root;
+    }
+
+    /**
+     * 新业务线的默认文件夹树，已有的用例都放到未分类下
+     */
+    private DirNodeDto defaultTree(Long productLineId, Integer channel) {
         DirNodeDto root = new DirNodeDto();
         root.setId("root");
         root.setText("主文件夹");
@@ -129,33 +478,29 @@ public class DirServiceImpl implements DirService {
         child.setId("-1");
         child.setParentId(root.getId());
         child.setText("未分类用例集");
-        child.setCaseIds(ids);
+        child.setCaseIds(ids == null ? Collections.emptySet() : ids);
         root.getChildren().add(child);
-
-        Biz biz = new Biz();
-        biz.setProductLineId(productLineId);
-        biz.setChannel(channel);
-        biz.setContent(JSONObject.toJSONString(root));
-
-        bizMapper.insert(biz);
-        root.getCaseIds().addAll(child.getCaseIds());
         return root;
     }
 
-    @Override
-    public DirTreeResp getAllCaseDir(DirNodeDto root) {
-        DirTreeResp resp = new DirTreeResp();
-        addChildrenCaseIds(root);
-        resp.getChildren().add(root);
-        return resp;
+    private BizFolder buildFolder(Long productLineId, Integer channel, String folderId, String parentId, String text, int sort) {
+        BizFolder folder = new BizFolder();
+        folder.setProductLineId(productLineId);
+        folder.setChannel(channel);
+        folder.setFolderId(folderId);
+        folder.setParentId(parentId == null ? ROOT_PARENT : parentId);
+        folder.setText(text == null ? "" : text);
+        folder.setSort(sort);
+        return folder;
     }
 
-    @Override
-    public List<Long> getCaseIds(Long productLineId, String bizId, Integer channel) {
-        DirTreeResp resp = getAllCaseDir(getDirTree(productLineId, channel));
-        DirNodeDto dir = getDir(bizId, resp.getChildren().get(0));
-        Set<String> caseIds = dir.getCaseIds();
-        return caseIds.stream().map(Long::valueOf).collect(Collectors.toList());
+    private CaseFolder buildCaseFolder(Long productLineId, Integer channel, String folderId, Long caseId) {
+        CaseFolder caseFolder = new CaseFolder();
+        caseFolder.setProductLineId(productLineId);
+        caseFolder.setChannel(channel);
+        caseFolder.setFolderId(folderId);
+        caseFolder.setCaseId(caseId);
+        return caseFolder;
     }
 
     /**
@@ -167,9 +512,22 @@ public class DirServiceImpl implements DirService {
         if (root == null) {
             return;
         }
-        for (DirNodeDto child : root.getChildren()){
-            addChildrenCaseIds(child);
-            root.getCaseIds().addAll(child.getCaseIds());
+        // 按先序的倒序处理，每个节点合并时它的子节点都已经合并完
+        List<DirNodeDto> order = new ArrayList<>();
+        Deque<DirNodeDto> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            DirNodeDto node = stack.pop();
+            order.add(node);
+            for (DirNodeDto child : node.getChildren()) {
+                stack.push(child);
+            }
+        }
+        for (int i = order.size() - 1; i >= 0; i--) {
+            DirNodeDto node = order.get(i);
+            for (DirNodeDto child : node.getChildren()) {
+                node.getCaseIds().addAll(child.getCaseIds());
+            }
         }
     }
 }
@@ -1,27 +1,60 @@
 package com.xiaoju.framework.service.impl;
 
 import com.alibaba.fastjson.JSON;
-import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.xiaoju.framework.cache.CaseContentCache;
+import com.xiaoju.framework.constants.enums.ImportStatusEnum;
 import com.xiaoju.framework.constants.enums.StatusCode;
 import com.xiaoju.framework.entity.persistent.TestCase;
 import com.xiaoju.framework.entity.exception.CaseServerException;
 import com.xiaoju.framework.entity.request.cases.CaseCreateReq;
+import com.xiaoju.framework.entity.request.cases.FileBatchImportReq;
 import com.xiaoju.framework.entity.request.cases.FileImportReq;
 import com.xiaoju.framework.entity.response.cases.ExportXmindResp;
+import com.xiaoju.framework.entity.response.cases.ImportProgressResp;
+import com.xiaoju.framework.entity.xmind.CaseNode;
+import com.xiaoju.framework.entity.xmind.CaseTree;
 import com.xiaoju.framework.mapper.TestCaseMapper;
 import com.xiaoju.framework.service.CaseService;
 import com.xiaoju.framework.service.FileService;
-import com.xiaoju.framework.util.FileUtil;
+import com.xiaoju.framework.util.CaseNodeUtil;
 import com.xiaoju.framework.util.TreeUtil;
-import org.apache.commons.io.IOUtils;
+import com.xiaoju.framework.util.XmindUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.StringUtils;
 import org.xmind.core.*;
 
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
-import java.io.*;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 import java.nio.charset.StandardCharsets;
 
 import static com.xiaoju.framework.constants.SystemConstant.POINT;
@@ -30,18 +63,85 @@ import static com.xiaoju.framework.constants.XmindConstant.*;
 /**
  * 文件上传与导出实现类
  *
+ * 批量导入：请求线程只把zip里的xmind逐个读成字节数组，然后交给导入线程排队处理并立即返回任务id
+ * 解压后的内容全部留在内存里直到任务执行，所以单个文件以及整个压缩包解压后的大小都有上限，防止压缩炸弹撑爆内存
+ * 导入线程把文件分给固定大小的解析线程池并行解析，全部解析完后在一个事务里分批插入用例、一次写入文件夹，
+ * 进度保存在本机内存中，通过任务id轮询
+ *
  * @author didi
  * @date 2020/10/22
  */
 @Service
 public class FileServiceImpl implements FileService {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileServiceImpl.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * 用例标题的最大长度，与test_case.title一致
+     */
+    private static final int MAX_TITLE_LENGTH = 64;
+
+    /**
+     * 最多排队等待的批量导入任务数，每个任务都持有解压后的内容，最多maxTotalBytes
+     */
+    private static final int MAX_WAITING_IMPORTS = 4;
+
     @Resource
     private CaseService caseService;
 
     @Resource
     private TestCaseMapper caseMapper;
 
+    @Resource
+    private CaseContentCache contentCache;
+
+    private final int maxFiles;
+
+    /**
+     * 单个xmind解压后的最大字节数
+     */
+    private final long maxEntryBytes;
+
+    /**
+     * 一个压缩包中所有xmind解压后的最大字节数
+     */
+    private final long maxTotalBytes;
+
+    /**
+     * 批量导入任务逐个执行，避免同一业务线的多个导入互相争抢文件夹的锁
+     */
+    private final ThreadPoolExecutor importExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(MAX_WAITING_IMPORTS), r -> {
+        Thread t = new Thread(r, "xmind-import");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final ExecutorService parser;
+
+    /**
+     * 批量导入的进度，一段时间不再查询后清除
+     */
+    private final Cache<String, ImportProgressResp> importTasks = Caffeine.newBuilder()
+            .expireAfterAccess(1, TimeUnit.HOURS).maximumSize(1000).build();
+
+    public FileServiceImpl(@Value("${file.batch-import.parse-threads:4}") int parseThreads,
+                           @Value("${file.batch-import.max-files:500}") int maxFiles,
+                           @Value("${file.batch-import.max-entry-bytes:20971520}") long maxEntryBytes,
+                           @Value("${file.batch-import.max-total-bytes:104857600}") long maxTotalBytes) {
+        this.maxFiles = maxFiles;
+        this.maxEntryBytes = maxEntryBytes;
+        this.maxTotalBytes = maxTotalBytes;
+        AtomicInteger index = new AtomicInteger();
+        this.parser = Executors.newFixedThreadPool(parseThreads, r -> {
+            Thread t = new Thread(r, "xmind-parser-" + index.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
     @Override
     @Transactional(rollbackFor = Exception.class)
     public Long importXmindFile(FileImportReq req) throws Exception {
@@ -54,37 +154,189 @@ public class FileServiceImpl implements FileService {
                 throw new CaseServerException("上传的文件格式不正确", StatusCode.FILE_FORMAT_ERROR);
             }
 
-            // 把文件放到本地
-            File file = new File("");
-            String filePath = "";
-            try {
-                filePath = file.getCanonicalPath();
-            } catch (IOException e) {
-                e.printStackTrace();
+            // 直接在上传的流上解析，不再落盘解压
+            CaseNode root;
+            try (InputStream in = new BufferedInputStream(req.getFile().getInputStream(), BUFFER_SIZE)) {
+                root = XmindUtil.readRootTopic(in);
             }
-            String desPath = filePath + TEMP_FOLDER;
+            return caseService.insertOrDuplicateCase(buildCaseCreateReq(req, root));
+        }
+        throw new CaseServerException("传入的文件名非法", StatusCode.FILE_IMPORT_ERROR);
+    }
 
-            File pathFile = new File(desPath);
-            if (!pathFile.exists()) {
-                pathFile.mkdirs();
+    @Override
+    public String batchImportXmindFile(FileBatchImportReq req) throws Exception {
+        String fileName = req.getFile().getOriginalFilename();
+        if (StringUtils.isEmpty(fileName) || !fileName.toLowerCase().endsWith(POINT + ZIP_SUFFIX)) {
+            throw new CaseServerException("请上传包含xmind文件的zip压缩包", StatusCode.FILE_FORMAT_ERROR);
+        }
+
+        // 上传的临时文件在请求结束后就会被删除，先在请求线程里把每个xmind读出来
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        long totalBytes = 0L;
+        try (ZipInputStream zip = new ZipInputStream(new BufferedInputStream(req.getFile().getInputStream(), BUFFER_SIZE),
+                Charset.forName("gbk"))) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                String name = entry.getName();
+                // 跳过目录以及mac压缩时带上的资源文件
+                if (entry.isDirectory() || name.startsWith("__MACOSX/")
+                        || !name.toLowerCase().endsWith(POINT + XMIND_SUFFIX)) {
+                    continue;
+                }
+                if (files.size() >= maxFiles) {
+                    throw new CaseServerException("一次最多导入" + maxFiles + "个xmind文件", StatusCode.FILE_IMPORT_ERROR);
+                }
+                byte[] bytes = readEntry(zip, name, maxTotalBytes - totalBytes);
+                totalBytes += bytes.length;
+                files.put(name, bytes);
             }
-            desPath = desPath + fileName;
-            File dest = new File(desPath);
-            Long time = System.currentTimeMillis();
-            String desc = filePath + TEMP_FOLDER + fileName.split("\\.")[0] + "_" + time.toString() + "/";
-
-            // 开始转换
-            req.getFile().transferTo(dest);
-            if (!FileUtil.decompressZip(desPath, desc)) {
-                throw new CaseServerException("解析失败", StatusCode.FILE_IMPORT_ERROR);
+        }
+        if (files.isEmpty()) {
+            throw new CaseServerException("压缩包中没有xmind文件", StatusCode.FILE_IMPORT_ERROR);
+        }
+
+        ImportProgressResp progress = new ImportProgressResp();
+        progress.setTaskId(UUID.randomUUID().toString().replace("-", ""));
+        progress.setStatus(ImportStatusEnum.WAITING.name());
+        progress.setTotal(files.size());
+        importTasks.put(progress.getTaskId(), progress);
+        try {
+            importExecutor.execute(() -> runBatchImport(req, files, progress));
+        } catch (RejectedExecutionException e) {
+            importTasks.invalidate(progress.getTaskId());
+            throw new CaseServerException("导入任务过多，请稍后再试", StatusCode.SERVER_BUSY_ERROR);
+        }
+        LOGGER.info("[批量导入]taskId={}, 文件数={}, 业务线={}, 文件夹={}", progress.getTaskId(), files.size(),
+                req.getProductLineId(), req.getBizId());
+        return progress.getTaskId();
+    }
+
+    /**
+     * 读出当前条目，解压过程中一旦超过上限立即失败，不会先把整个条目读进内存
+     *
+     * @param remaining 整个压缩包剩余可用的字节数
+     */
+    private byte[] readEntry(ZipInputStream zip, String name, long remaining) throws IOException {
+        long limit = Math.min(maxEntryBytes, remaining);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int n;
+        while ((n = zip.read(buffer)) != -1) {
+            if (out.size() + n > limit) {
+                if (limit < maxEntryBytes) {
+                    throw new CaseServerException("压缩包解压后超过" + maxTotalBytes / 1024 / 1024 + "MB，请分批导入",
+                            StatusCode.FILE_IMPORT_ERROR);
+                }
+                throw new CaseServerException(name + "解压后超过" + maxEntryBytes / 1024 / 1024 + "MB",
+                        StatusCode.FILE_IMPORT_ERROR);
             }
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
 
-            // 导入用例
-            File jsonFile = new File((desc + CONTENT_JSON).replace("/", File.separator));
-            CaseCreateReq caseCreateReq = jsonFile.exists() ? buildCaseByJson(req, desc) : buildCaseByXmind(req, desc);
-            return caseService.insertOrDuplicateCase(caseCreateReq);
+    @Override
+    public ImportProgressResp getImportProgress(String taskId) {
+        ImportProgressResp progress = importTasks.getIfPresent(taskId);
+        if (progress == null) {
+            throw new CaseServerException("导入任务不存在或已过期", StatusCode.NOT_FOUND_ENTITY);
+        }
+        // 导入线程还在修改，返回一份快照
+        synchronized (progress) {
+            ImportProgressResp copy = new ImportProgressResp();
+            BeanUtils.copyProperties(progress, copy);
+            copy.setCaseIds(new ArrayList<>(progress.getCaseIds()));
+            copy.setFailures(new ArrayList<>(progress.getFailures()));
+            return copy;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        importExecutor.shutdown();
+        parser.shutdown();
+    }
+
+    /**
+     * 并行解析所有文件，按zip中的顺序收集结果后整批入库，解析失败的文件跳过
+     */
+    private void runBatchImport(FileBatchImportReq req, Map<String, byte[]> files, ImportProgressResp progress) {
+        setStatus(progress, ImportStatusEnum.PARSING);
+        List<Future<CaseCreateReq>> futures = new ArrayList<>(files.size());
+        for (Map.Entry<String, byte[]> file : files.entrySet()) {
+            futures.add(parser.submit(() -> parseOne(req, file.getKey(), file.getValue(), progress)));
+        }
+        files.clear();
+
+        try {
+            List<CaseCreateReq> requests = new ArrayList<>(futures.size());
+            for (Future<CaseCreateReq> future : futures) {
+                CaseCreateReq request = future.get();
+                if (request != null) {
+                    requests.add(request);
+                }
+            }
+            futures.clear();
+
+            setStatus(progress, ImportStatusEnum.SAVING);
+            List<Long> caseIds = requests.isEmpty() ? Collections.emptyList()
+                    : caseService.batchInsertCase(req.getProductLineId(), req.getChannel(), req.getBizId(), requests);
+            synchronized (progress) {
+                progress.getCaseIds().addAll(caseIds);
+                progress.setStatus(ImportStatusEnum.SUCCESS.name());
+            }
+            LOGGER.info("[批量导入完成]taskId={}, 用例数={}, 失败文件数={}", progress.getTaskId(), caseIds.size(),
+                    progress.getTotal() - caseIds.size());
+        } catch (Exception e) {
+            LOGGER.error("[批量导入失败]taskId={}", progress.getTaskId(), e);
+            synchronized (progress) {
+                progress.setStatus(ImportStatusEnum.FAILED.name());
+                progress.setMessage(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 解析一个xmind文件，失败时记录原因并返回null
+     */
+    private CaseCreateReq parseOne(FileBatchImportReq req, String name, byte[] bytes, ImportProgressResp progress) {
+        CaseCreateReq request = null;
+        String failure = null;
+        try {
+            CaseNode root = XmindUtil.readRootTopic(new ByteArrayInputStream(bytes));
+            FileImportReq fileReq = new FileImportReq(null, req.getCreator(), req.getProductLineId(), toTitle(name),
+                    req.getDescription(), req.getChannel(), req.getRequirementId(), req.getBizId());
+            request = buildCaseCreateReq(fileReq, root);
+        } catch (Exception e) {
+            LOGGER.info("[批量导入]taskId={}, 文件={}解析失败, 原因={}", progress.getTaskId(), name, e.getMessage());
+            failure = name + ": " + e.getMessage();
+        }
+        synchronized (progress) {
+            progress.setParsed(progress.getParsed() + 1);
+            if (failure != null) {
+                progress.getFailures().add(failure);
+            }
+        }
+        return request;
+    }
+
+    /**
+     * 文件名去掉目录和扩展名作为用例标题
+     */
+    private String toTitle(String name) {
+        String title = name.substring(name.lastIndexOf('/') + 1);
+        title = title.substring(0, title.length() - XMIND_SUFFIX.length() - 1);
+        if (StringUtils.isEmpty(title)) {
+            title = XMIND_SUFFIX;
+        }
+        return title.length() > MAX_TITLE_LENGTH ? title.substring(0, MAX_TITLE_LENGTH) : title;
+    }
+
+    private void setStatus(ImportProgressResp progress, ImportStatusEnum status) {
+        synchronized (progress) {
+            progress.setStatus(status.name());
         }
-        throw new CaseServerException("传入的文件名非法", StatusCode.FILE_IMPORT_ERROR);
     }
 
     @Override
@@ -94,12 +346,13 @@ public class FileServiceImpl implements FileService {
         ISheet defSheet = workbook.getPrimarySheet();
         ITopic rootTopic = defSheet.getRootTopic();
 
-        TestCase testCase = caseMapper.selectOne(id);
-        if (testCase == null || StringUtils.isEmpty(testCase.getCaseContent())) {
+        TestCase testCase = caseMapper.selectHeader(id);
+        String caseContent = testCase == null ? null : contentCache.getContent(id);
+        if (StringUtils.isEmpty(caseContent)) {
             throw new CaseServerException("用例不存在或者content为空", StatusCode.FILE_EXPORT_ERROR);
         }
 
-        JSONObject rootObj = JSON.parseObject(testCase.getCaseContent()).getJSONObject(ROOT);
+        JSONObject rootObj = JSON.parseObject(caseContent).getJSONObject(ROOT);
         rootTopic.setTitleText(rootObj.getJSONObject(DATA).getString("text"));
         rootTopic.setFolded(false);
 
@@ -111,70 +364,23 @@ public class FileServiceImpl implements FileService {
         // http返回的文件名
         String title = testCase.getTitle() + "_" + System.currentTimeMillis() + "_u.xmind";
         String fileName = new String(title.getBytes(), StandardCharsets.UTF_8);
-        workbook.save(fileName);
-
-        // 服务器本地存有的x-mind文件
-        String filePath = new File("").getCanonicalPath() + "/" + fileName;
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(byteArrayOutputStream);
-        InputStream fis = new FileInputStream(filePath);
-        byte[] buffer = new byte[1024];
-        int r = 0;
-        while ((r = fis.read(buffer)) != -1) {
-            bufferedOutputStream.write(buffer, 0, r);
-        }
-        fis.close();
-        bufferedOutputStream.flush();
-        IOUtils.closeQuietly(bufferedOutputStream);
-        IOUtils.closeQuietly(byteArrayOutputStream);
 
         ExportXmindResp resp = new ExportXmindResp();
         resp.setFileName(fileName);
-        resp.setData(byteArrayOutputStream.toByteArray());
+        resp.setWorkbook(workbook);
         return resp;
     }
 
-    private CaseCreateReq buildCaseByJson(FileImportReq request, String fileName) {
-        // 开始读取文件中的json内容了
-        String s = FileUtil.readJsonFile(fileName);
-        JSONArray parseArray = JSONObject.parseArray(s);
-        JSONObject getObj = parseArray.getJSONObject(0);
-        JSONObject rootTopic = getObj.getJSONObject("rootTopic");
-
-        // case-content设置
-        JSONArray jsonArray = new JSONArray();
-        TreeUtil.importDataByJson(jsonArray, rootTopic);
-
-        return buildCaseCreateReq(request, jsonArray);
-    }
-
-    public CaseCreateReq buildCaseByXmind(FileImportReq request, String fileName) throws Exception {
-        IWorkbookBuilder builder = Core.getWorkbookBuilder();
-        IWorkbook workbook = builder.loadFromPath(fileName);
-        // 打开x-mind文件，先获取主sheet，在获取根topic
-        ISheet defSheet = workbook.getPrimarySheet();
-        ITopic rootTopic = defSheet.getRootTopic();
-
-        //暂不支持x-mind zen版本
-        if (ZEN_ROOT_VERSION.equals(rootTopic.getId())) {
-            throw new CaseServerException("暂不支持Xmind-Zen版本", StatusCode.FILE_IMPORT_ERROR);
-        }
-
-        JSONArray jsonArray = new JSONArray();
-        TreeUtil.importData(jsonArray, rootTopic);
-
-        return buildCaseCreateReq(request, jsonArray);
-
-    }
-
-    private CaseCreateReq buildCaseCreateReq(FileImportReq request, JSONArray jsonArray) {
+    private CaseCreateReq buildCaseCreateReq(FileImportReq request, CaseNode root) {
         // 构建content
-        JSONObject caseObj = new JSONObject();
-        caseObj.put(ROOT, jsonArray.get(0));
-        caseObj.put(TEMPLATE, TEMPLATE_RIGHT);
-        caseObj.put(THEME, THEME_DEFAULT);
-        caseObj.put(VERSION, VERSION_DEFAULT);
-        caseObj.put(BASE, BASE_DEFAULT);
+        CaseTree tree = new CaseTree();
+        tree.setRoot(root);
+        tree.setMeta(new JSONObject());
+        tree.getMeta().put(TEMPLATE, TEMPLATE_RIGHT);
+        tree.getMeta().put(THEME, THEME_DEFAULT);
+        tree.getMeta().put(VERSION, VERSION_DEFAULT);
+        tree.getMeta().put(BASE, BASE_DEFAULT);
+        String caseContent = CaseNodeUtil.toJSONObject(tree).toJSONString();
 
         CaseCreateReq testCase = new CaseCreateReq();
         testCase.setProductLineId(request.getProductLineId());
@@ -184,7 +390,7 @@ public class FileServiceImpl implements FileService {
         testCase.setDescription(request.getDescription());
         testCase.setTitle(request.getTitle());
         testCase.setCaseType(0);
-        testCase.setCaseContent(caseObj.toJSONString());
+        testCase.setCaseContent(caseContent);
         testCase.setChannel(request.getChannel());
         testCase.setBizId(request.getBizId());
         return testCase;
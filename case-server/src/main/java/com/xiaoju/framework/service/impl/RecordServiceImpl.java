@@ -2,6 +2,9 @@ package com.xiaoju.framework.service.impl;
 
 import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONObject;
+import com.xiaoju.framework.cache.CaseContentCache;
+import com.xiaoju.framework.cache.CaseContentCache.CaseContent;
+import com.xiaoju.framework.cache.RecordStatsCache;
 import com.xiaoju.framework.constants.enums.EnvEnum;
 import com.xiaoju.framework.constants.enums.StatusCode;
 import com.xiaoju.framework.entity.dto.MergeCaseDto;
@@ -15,15 +18,18 @@ import com.xiaoju.framework.entity.request.record.RecordUpdateReq;
 import com.xiaoju.framework.entity.request.ws.RecordWsClearReq;
 import com.xiaoju.framework.entity.response.records.RecordGeneralInfoResp;
 import com.xiaoju.framework.entity.response.records.RecordListResp;
-import com.xiaoju.framework.entity.xmind.IntCount;
+import com.xiaoju.framework.entity.xmind.CaseCount;
+import com.xiaoju.framework.entity.xmind.CaseNode;
+import com.xiaoju.framework.entity.xmind.CaseTree;
 import com.xiaoju.framework.handler.WebSocket;
 import com.xiaoju.framework.mapper.ExecRecordMapper;
 import com.xiaoju.framework.mapper.TestCaseMapper;
 import com.xiaoju.framework.service.RecordService;
+import com.xiaoju.framework.util.CaseFilter;
+import com.xiaoju.framework.util.CaseNodeUtil;
 import com.xiaoju.framework.util.TreeUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.beans.BeanUtils;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.CollectionUtils;
@@ -52,23 +58,35 @@ public class RecordServiceImpl implements RecordService {
 
     private static final Integer DEFAULT_ENV = 0;
 
+    /**
+     * 脑图中priority为1的节点即P0用例
+     */
+    private static final String PRIORITY_P0 = "1";
+
     @Resource
     private ExecRecordMapper recordMapper;
 
     @Resource
     private TestCaseMapper caseMapper;
 
+    @Resource
+    private RecordStatsCache statsCache;
+
+    @Resource
+    private CaseContentCache contentCache;
+
     @Override
     public List<RecordListResp> getListByCaseId(Long caseId) {
         List<RecordListResp> res = new ArrayList<>();
-        TestCase testCase = caseMapper.selectOne(caseId);
-        if (testCase == null) {
+        // 所有任务共用这一份用例内容，缓存未命中时才解析，并且只解析一次
+        CaseContent content = contentCache.get(caseId);
+        if (content == null) {
             throw new CaseServerException("用例不存在", StatusCode.NOT_FOUND_ENTITY);
         }
 
         List<ExecRecord> execRecordList = recordMapper.getRecordListByCaseId(caseId);
         for (ExecRecord record : execRecordList) {
-            res.add(buildList(record));
+            res.add(buildList(record, content));
         }
         return res;
     }
@@ -80,8 +98,8 @@ public class RecordServiceImpl implements RecordService {
             throw new CaseServerException("操作记录不存在", StatusCode.NOT_FOUND_ENTITY);
         }
 
-        TestCase testCase = caseMapper.selectOne(record.getCaseId());
-        JSONObject merged = getData(new MergeCaseDto(testCase.getId(), record.getChooseContent(), record.getCaseContent(), record.getEnv()));
+        TestCase testCase = caseMapper.selectHeader(record.getCaseId());
+        JSONObject merged = getCachedCount(record, contentCache.get(record.getCaseId()));
 
         // 开始构建响应体
         return buildGeneralInfoResp(record, testCase, merged);
@@ -91,7 +109,7 @@ public class RecordServiceImpl implements RecordService {
     @Transactional(rollbackFor = Exception.class)
     public Long addRecord(RecordAddReq req) {
         // 根据caseContent和recordContent进行一次节点修剪合并
-        JSONObject merged = getData(new MergeCaseDto(req.getCaseId(), req.getChooseContent(), EMPTY_STR, DEFAULT_ENV));
+        JSONObject merged = getCount(new MergeCaseDto(req.getCaseId(), req.getChooseContent(), EMPTY_STR, DEFAULT_ENV));
         ExecRecord record = buildExecRecord(req, merged);
         return recordMapper.insert(record);
     }
@@ -100,6 +118,7 @@ public class RecordServiceImpl implements RecordService {
     @Transactional(rollbackFor = Exception.class)
     public void delete(Long recordId) {
         recordMapper.delete(recordId);
+        statsCache.invalidateRecord(recordId);
     }
 
     @Override
@@ -107,7 +126,7 @@ public class RecordServiceImpl implements RecordService {
     public void editRecord(RecordUpdateReq req) {
         // 需要注意的是 圈选用例的对content的修改与脑图patch的修改不是同一频段
         // 所以这里修改的是圈选用例的话 一定要将websocket的redis清空
-        ExecRecord record = recordMapper.selectOne(req.getId());
+        ExecRecord record = recordMapper.selectHeader(req.getId());
         if (record == null) {
             throw new CaseServerException("对应执行任务不存在", StatusCode.NOT_FOUND_ENTITY);
         }
@@ -137,6 +156,7 @@ public class RecordServiceImpl implements RecordService {
         record.setOwner(StringUtils.isEmpty(req.getOwner()) ? EMPTY_STR : req.getOwner());
 
         recordMapper.edit(record);
+        statsCache.invalidateRecord(record.getId());
     }
 
     @Override
@@ -155,6 +175,21 @@ public class RecordServiceImpl implements RecordService {
         return dto;
     }
 
+    @Override
+    public RecordWsDto getWsRecordHeader(Long recordId) {
+        ExecRecord record = recordMapper.selectHeader(recordId);
+        if (record == null) {
+            throw new CaseServerException("执行任务不存在", StatusCode.NOT_FOUND_ENTITY);
+        }
+        RecordWsDto dto = new RecordWsDto();
+        dto.setChooseContent(record.getChooseContent());
+        dto.setEnv(record.getEnv());
+        dto.setExecutors(record.getExecutors());
+        dto.setUpdateTime(record.getGmtModified());
+
+        return dto;
+    }
+
     @Override
     public void modifyRecord(ExecRecord record) {
         if (record == null) {
@@ -166,15 +201,18 @@ public class RecordServiceImpl implements RecordService {
         if (StringUtils.isEmpty(record.getModifier())) {
             throw new CaseServerException("修改人为空", StatusCode.INTERNAL_ERROR);
         }
-        ExecRecord dbRecord = recordMapper.selectOne(record.getId());
-        BeanUtils.copyProperties(record, dbRecord);
-        recordMapper.update(dbRecord);
+        // 所有字段都以入参为准，这里只需要确认任务存在
+        if (recordMapper.selectVersion(record.getId()) == null) {
+            throw new CaseServerException("对应执行任务不存在", StatusCode.NOT_FOUND_ENTITY);
+        }
+        recordMapper.update(record);
+        statsCache.invalidateRecord(record.getId());
     }
 
     @Override
     @Transactional(rollbackFor = Exception.class)
     public ExecRecord wsClearRecord(RecordWsClearReq req) {
-        ExecRecord record = recordMapper.selectOne(req.getId());
+        ExecRecord record = recordMapper.selectHeader(req.getId());
         record.setCaseContent(EMPTY_STR);
         record.setSuccessCount(0);
         record.setPassCount(0);
@@ -185,6 +223,7 @@ public class RecordServiceImpl implements RecordService {
         record.setGmtModified(new Date());
 
         recordMapper.update(record);
+        statsCache.invalidateRecord(record.getId());
 
         JSONObject merged = getData(new MergeCaseDto(record.getCaseId(), record.getChooseContent(), record.getCaseContent(), record.getEnv()));
         record.setCaseContent(merged.get("content").toString());
@@ -195,9 +234,10 @@ public class RecordServiceImpl implements RecordService {
      * 任务列表
      *
      * @param record 执行任务实体
+     * @param content 任务所属用例的内容
      * @return 响应体
      */
-    private RecordListResp buildList(ExecRecord record) {
+    private RecordListResp buildList(ExecRecord record, CaseContent content) {
         RecordListResp resp = new RecordListResp();
         resp.setId(record.getId());
         resp.setRecordId(record.getId());
@@ -208,7 +248,7 @@ public class RecordServiceImpl implements RecordService {
         resp.setExecutors(record.getExecutors());
 
         // 其实本质上不能通过数据库去获取，因为还需要考虑chooseContent
-        JSONObject object = getData(new MergeCaseDto(record.getCaseId(), record.getChooseContent(), record.getCaseContent(), record.getEnv()));
+        JSONObject object = getCachedCount(record, content);
         resp.setBugNum(object.getInteger("failCount"));
         resp.setBlockNum(object.getInteger("blockCount"));
         resp.setSuccessNum(object.getInteger("successCount"));
@@ -309,8 +349,7 @@ public class RecordServiceImpl implements RecordService {
      * @return 响应体
      */
     public List<String> getWsEditingCount(ExecRecord record) {
-        TestCase testCase = caseMapper.selectOne(record.getCaseId());
-        if (testCase == null) {
+        if (caseMapper.selectVersion(record.getCaseId()) == null) {
             throw new CaseServerException("当前用例不存在", StatusCode.INTERNAL_ERROR);
         }
 
@@ -318,57 +357,78 @@ public class RecordServiceImpl implements RecordService {
     }
 
     /**
-     * ☆将当前record的操作记录和用例集的内容进行merge，返回合并后的内容
+     * ☆将当前record的操作记录和用例集的内容进行merge，返回合并后的内容以及统计信息
      */
     public JSONObject getData(MergeCaseDto dto) {
-        String caseContent = caseMapper.selectOne(dto.getCaseId()).getCaseContent();
-        JSONObject content = JSON.parseObject(caseContent);
+        return merge(dto, true);
+    }
+
+    /**
+     * 只获取统计信息，不会生成合并后的内容
+     */
+    private JSONObject getCount(MergeCaseDto dto) {
+        return merge(dto, false);
+    }
+
+    /**
+     * 已有任务的统计信息，优先走缓存
+     *
+     * @param record 执行任务实体
+     * @param content 任务所属用例的内容，只在缓存未命中时解析
+     */
+    private JSONObject getCachedCount(ExecRecord record, CaseContent content) {
+        if (content == null) {
+            throw new CaseServerException("用例不存在", StatusCode.NOT_FOUND_ENTITY);
+        }
+        MergeCaseDto dto = new MergeCaseDto(record.getCaseId(), record.getChooseContent(), record.getCaseContent(), record.getEnv());
+        return statsCache.get(content.getCaseId(), content.getVersion(), record, dto.getEnv(),
+                () -> TreeUtil.buildCount(mergeAndCount(content.getRoot(), dto, false)));
+    }
+
+    /**
+     * 圈选、合并、统计在一次遍历中完成
+     *
+     * @param withContent 是否需要合并后的内容，不需要时直接使用缓存里解析好的树，并且不修改树
+     */
+    private JSONObject merge(MergeCaseDto dto, boolean withContent) {
+        CaseContent content = contentCache.get(dto.getCaseId());
+        if (content == null) {
+            throw new CaseServerException("用例不存在", StatusCode.NOT_FOUND_ENTITY);
+        }
+        if (!withContent) {
+            return TreeUtil.buildCount(mergeAndCount(content.getRoot(), dto, false));
+        }
+
+        CaseTree tree = CaseNodeUtil.parse(content.getContent(), true);
+        JSONObject merged = TreeUtil.buildCount(mergeAndCount(tree.getRoot(), dto, true));
+        merged.put("content", CaseNodeUtil.toJSONObject(tree));
+        return merged;
+    }
+
+    /**
+     * 按照任务的圈选条件和执行结果统计
+     *
+     * @param prune 是否把圈选结果写回树上，为false时同一棵树可以重复统计
+     */
+    private CaseCount mergeAndCount(CaseNode root, MergeCaseDto dto, boolean prune) {
+        List<String> priority = null;
+        List<String> resource = null;
         // 如果不是全部圈选的圈选条件
         if (!StringUtils.isEmpty(dto.getChooseContent()) && !dto.getChooseContent().contains(OE_PICK_ALL)) {
             PickCaseDto pickCaseDto = JSON.parseObject(dto.getChooseContent(), PickCaseDto.class);
-
-            // 似乎是想用BFS做广度遍历
-            JSONObject caseRoot = content.getJSONObject("root");
-            Stack<JSONObject> objCheck = new Stack<>();
-            Stack<IntCount> iCheck = new Stack<>();
-            objCheck.push(caseRoot);
-
             //获取对应级别用例
-            if (!CollectionUtils.isEmpty(pickCaseDto.getPriority())) {
-                TreeUtil.getPriority(objCheck, iCheck, caseRoot, pickCaseDto.getPriority());
-            }
-            if (!CollectionUtils.isEmpty(pickCaseDto.getResource())) {
-                TreeUtil.getChosenCase(caseRoot, new HashSet<>(pickCaseDto.getResource()), "resource");
-            }
+            priority = pickCaseDto.getPriority();
+            resource = pickCaseDto.getResource();
         } else {
             // 给未来的环境选择做好打算...
             if (EnvEnum.TestQaEnv.getValue().equals(dto.getEnv()) || EnvEnum.TestRdEnv.getValue().equals(dto.getEnv())) {
-                // 似乎是想用BFS做广度遍历
-                JSONObject caseRoot = content.getJSONObject("root");
-                Stack<JSONObject> objCheck = new Stack<>();
-                Stack<IntCount> iCheck = new Stack<>();
-                objCheck.push(caseRoot);
-
                 // 这里就是默认圈选全部用例
-                TreeUtil.getPriority0(objCheck, iCheck, caseRoot);
+                priority = Collections.singletonList(PRIORITY_P0);
             }
         }
-        //合并用例
-        String recordContent = dto.getRecordContent();
-        JSONObject recordObj = new JSONObject();
-
-        if (StringUtils.isEmpty(recordContent)) {
-            // 脏数据，不管
-        } else if (recordContent.startsWith("[{")) {
-            for (Object o : JSON.parseArray(recordContent)) {
-                recordObj.put(((JSONObject) o).getString("id"), ((JSONObject) o).getLong("progress"));
-            }
-        } else {
-            recordObj = JSON.parseObject(recordContent);
-        }
 
-        IntCount execCount = new IntCount(recordObj.size());
-        TreeUtil.mergeExecRecord(content.getJSONObject("root"), recordObj, execCount);
-        return TreeUtil.parse(content.toJSONString());
+        //合并用例
+        return CaseNodeUtil.mergeAndCount(root, CaseFilter.of(priority, resource),
+                CaseNodeUtil.parseProgress(dto.getRecordContent()), prune);
     }
 }
@@ -0,0 +1,142 @@
+package com.xiaoju.framework.util;
+
+import com.xiaoju.framework.entity.xmind.CaseNode;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * 用例圈选条件
+ * 每个条件是一个节点上的判断，叶子节点到根的路径上只要有一个节点命中，这个叶子就满足该条件，
+ * 所有条件都满足的叶子才会被保留。遍历时每个节点只需要把祖先的命中情况(位掩码)往下传，一次遍历即可完成圈选，
+ * 不需要先按优先级剪一遍再按标签剪一遍
+ *
+ * @author didi
+ * @date 2026/10/18
+ * @see CaseNodeUtil#mergeAndCount(CaseNode, CaseFilter, java.util.Map, boolean)
+ * @see CaseNodeUtil#countLeaves(CaseNode, CaseFilter, Set)
+ */
+public class CaseFilter {
+
+    /**
+     * 命中情况用int的位表示
+     */
+    private static final int MAX_CONDITIONS = Integer.SIZE - 1;
+
+    private final List<Predicate<CaseNode>> predicates = new ArrayList<>();
+
+    /**
+     * 根节点是否参与判断，按位对应predicates
+     */
+    private int rootMask;
+
+    /**
+     * 任务的圈选规则：优先级不判断根节点，标签判断根节点
+     *
+     * @param priorities 圈选的优先级 ["0", "1", "2"....]，为空表示不圈选
+     * @param tags 圈选的标签，为空表示不圈选
+     * @return 圈选条件
+     */
+    public static CaseFilter of(Collection<String> priorities, Collection<String> tags) {
+        return new CaseFilter().priority(priorities, false).tag(tags, true);
+    }
+
+    /**
+     * 按优先级圈选
+     *
+     * @param priorities 优先级，为空时不增加条件，不是数字的优先级不会命中任何节点
+     * @param includeRoot 根节点是否参与判断
+     * @return this
+     */
+    public CaseFilter priority(Collection<String> priorities, boolean includeRoot) {
+        if (priorities == null || priorities.isEmpty()) {
+            return this;
+        }
+        Set<Integer> set = new HashSet<>();
+        for (String priority : priorities) {
+            try {
+                set.add(Integer.parseInt(priority.trim()));
+            } catch (NumberFormatException | NullPointerException e) {
+                // 与原来按字符串比较一致，非法的优先级谁也匹配不上
+            }
+        }
+        return where(node -> set.contains(node.getPriority()), includeRoot);
+    }
+
+    /**
+     * 按标签圈选
+     *
+     * @param tags 标签，为空时不增加条件
+     * @param includeRoot 根节点是否参与判断
+     * @return this
+     */
+    public CaseFilter tag(Collection<String> tags, boolean includeRoot) {
+        if (tags == null || tags.isEmpty()) {
+            return this;
+        }
+        Set<String> set = new HashSet<>(tags);
+        return where(node -> {
+            if (node.getResource() == null) {
+                return false;
+            }
+            for (String resource : node.getResource()) {
+                if (set.contains(resource)) {
+                    return true;
+                }
+            }
+            return false;
+        }, includeRoot);
+    }
+
+    /**
+     * 增加任意条件
+     *
+     * @param predicate 节点上的判断
+     * @param includeRoot 根节点是否参与判断
+     * @return this
+     */
+    public CaseFilter where(Predicate<CaseNode> predicate, boolean includeRoot) {
+        if (predicates.size() >= MAX_CONDITIONS) {
+            throw new IllegalStateException("圈选条件过多");
+        }
+        if (includeRoot) {
+            rootMask |= 1 << predicates.size();
+        }
+        predicates.add(predicate);
+        return this;
+    }
+
+    public boolean isEmpty() {
+        return predicates.isEmpty();
+    }
+
+    /**
+     * @return 所有条件都命中时的位掩码
+     */
+    int all() {
+        return (1 << predicates.size()) - 1;
+    }
+
+    /**
+     * 计算一个节点到根的路径上的命中情况
+     *
+     * @param node 节点
+     * @param isRoot 是否为根节点
+     * @param inherited 父节点的命中情况
+     * @return 命中情况
+     */
+    int hits(CaseNode node, boolean isRoot, int inherited) {
+        int hits = inherited;
+        for (int i = 0; i < predicates.size(); i++) {
+            int bit = 1 << i;
+            if ((hits & bit) == 0 && (!isRoot || (rootMask & bit) != 0) && predicates.get(i).test(node)) {
+                hits |= bit;
+            }
+        }
+        return hits;
+    }
+}
@@ -0,0 +1,671 @@
+package com.xiaoju.framework.util;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONException;
+import com.alibaba.fastjson.JSONObject;
+import com.alibaba.fastjson.JSONReader;
+import com.alibaba.fastjson.parser.JSONScanner;
+import com.alibaba.fastjson.util.TypeUtils;
+import com.xiaoju.framework.constants.enums.ProgressEnum;
+import com.xiaoju.framework.entity.xmind.CaseCount;
+import com.xiaoju.framework.entity.xmind.CaseNode;
+import com.xiaoju.framework.entity.xmind.CaseTree;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.StringUtils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 用例节点模型处理类
+ * 用例内容只流式解析一次，得到{@link CaseNode}树，之后的圈选、合并执行结果、统计都直接在这棵树上完成
+ * 不再反复经过 JSONObject -> String -> JSONObject
+ *
+ * @author didi
+ * @date 2026/10/18
+ */
+public class CaseNodeUtil {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CaseNodeUtil.class);
+
+    private static final String ROOT = "root";
+    private static final String DATA = "data";
+    private static final String CHILDREN = "children";
+    private static final String ID = "id";
+    private static final String PROGRESS = "progress";
+    private static final String PRIORITY = "priority";
+    private static final String RESOURCE = "resource";
+
+    /**
+     * 解析用例内容
+     *
+     * @param caseContent 用例内容
+     * @param keepData 是否保留原始data、节点上的其他字段以及顶层字段，需要还原成json时传true
+     * @return 用例树
+     */
+    public static CaseTree parse(String caseContent, boolean keepData) {
+        try {
+            return readTree(caseContent, keepData);
+        } catch (JSONException | ClassCastException e) {
+            // 流式解析只认识脑图导出的标准格式，其他格式交给JSONObject兜底
+            LOGGER.info("[用例内容流式解析失败]改为整体解析, 原因={}", e.getMessage());
+            return fromJSONObject(JSON.parseObject(caseContent), keepData);
+        }
+    }
+
+    private static CaseTree readTree(String caseContent, boolean keepData) {
+        CaseTree tree = new CaseTree();
+        if (keepData) {
+            tree.setMeta(new JSONObject());
+        }
+        JSONReader reader = new JSONReader(new JSONScanner(caseContent));
+        try {
+            reader.startObject();
+            while (reader.hasNext()) {
+                String key = reader.readString();
+                if (ROOT.equals(key)) {
+                    tree.setRoot(readNode(reader, keepData));
+                } else {
+                    Object value = reader.readObject();
+                    if (keepData) {
+                        tree.getMeta().put(key, value);
+                    }
+                }
+            }
+            reader.endObject();
+        } finally {
+            reader.close();
+        }
+        return tree;
+    }
+
+    /**
+     * 流式读取一个节点以及所有子孙节点，栈中保存读到一半的节点，调用reader的顺序与逐层递归完全一致
+     */
+    private static CaseNode readNode(JSONReader reader, boolean keepData) {
+        CaseNode root = new CaseNode();
+        Deque<ReadFrame> stack = new ArrayDeque<>();
+        reader.startObject();
+        stack.push(new ReadFrame(root));
+        while (!stack.isEmpty()) {
+            ReadFrame frame = stack.peek();
+            if (frame.children != null) {
+                // 正在读children数组
+                if (reader.hasNext()) {
+                    CaseNode child = new CaseNode();
+                    frame.children.add(child);
+                    reader.startObject();
+                    stack.push(new ReadFrame(child));
+                } else {
+                    reader.endArray();
+                    if (!frame.children.isEmpty()) {
+                        frame.node.setChildren(frame.children);
+                    }
+                    frame.children = null;
+                }
+                continue;
+            }
+            if (!reader.hasNext()) {
+                reader.endObject();
+                stack.pop();
+                continue;
+            }
+            String key = reader.readString();
+            if (DATA.equals(key)) {
+                if (keepData) {
+                    JSONObject data = reader.readObject(JSONObject.class);
+                    fillNode(frame.node, data);
+                    frame.node.setData(data);
+                } else {
+                    readData(reader, frame.node);
+                }
+            } else if (CHILDREN.equals(key)) {
+                frame.children = new ArrayList<>();
+                reader.startArray();
+            } else {
+                Object value = reader.readObject();
+                if (keepData) {
+                    putExtra(frame.node, key, value);
+                }
+            }
+        }
+        return root;
+    }
+
+    /**
+     * 保留节点上不认识的字段，还原成json时原样写回
+     */
+    private static void putExtra(CaseNode node, String key, Object value) {
+        if (node.getExtra() == null) {
+            node.setExtra(new JSONObject());
+        }
+        node.getExtra().put(key, value);
+    }
+
+    private static class ReadFrame {
+        private final CaseNode node;
+        /**
+         * 不为null时表示正在读这个节点的children数组
+         */
+        private List<CaseNode> children;
+
+        ReadFrame(CaseNode node) {
+            this.node = node;
+        }
+    }
+
+    /**
+     * 只读出需要的字段，其他字段直接跳过
+     */
+    private static void readData(JSONReader reader, CaseNode node) {
+        reader.startObject();
+        while (reader.hasNext()) {
+            String key = reader.readString();
+            if (ID.equals(key)) {
+                String id = reader.readString();
+                node.setId(id == null ? null : id.intern());
+            } else if (PROGRESS.equals(key)) {
+                node.setProgress(toInt(reader.readObject()));
+            } else if (PRIORITY.equals(key)) {
+                node.setPriority(toInt(reader.readObject()));
+            } else if (RESOURCE.equals(key)) {
+                node.setResource(toResource(reader.readObject()));
+            } else {
+                reader.readObject();
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * 从JSONObject转换，流式解析失败时使用
+     */
+    private static CaseTree fromJSONObject(JSONObject content, boolean keepData) {
+        CaseTree tree = new CaseTree();
+        if (keepData) {
+            JSONObject meta = new JSONObject(content);
+            meta.remove(ROOT);
+            tree.setMeta(meta);
+        }
+        JSONObject root = content.getJSONObject(ROOT);
+        tree.setRoot(root == null ? new CaseNode() : toNode(root, keepData));
+        return tree;
+    }
+
+    private static CaseNode toNode(JSONObject rootObj, boolean keepData) {
+        CaseNode root = new CaseNode();
+        Deque<JSONObject> objs = new ArrayDeque<>();
+        Deque<CaseNode> nodes = new ArrayDeque<>();
+        objs.push(rootObj);
+        nodes.push(root);
+        while (!objs.isEmpty()) {
+            JSONObject obj = objs.pop();
+            CaseNode node = nodes.pop();
+            JSONObject data = obj.getJSONObject(DATA);
+            if (data != null) {
+                fillNode(node, data);
+                if (keepData) {
+                    node.setData(data);
+                }
+            }
+            if (keepData) {
+                for (Map.Entry<String, Object> entry : obj.entrySet()) {
+                    if (!DATA.equals(entry.getKey()) && !CHILDREN.equals(entry.getKey())) {
+                        putExtra(node, entry.getKey(), entry.getValue());
+                    }
+                }
+            }
+            JSONArray array = obj.getJSONArray(CHILDREN);
+            if (array != null && !array.isEmpty()) {
+                List<CaseNode> children = new ArrayList<>(array.size());
+                for (Object o : array) {
+                    if (o instanceof JSONObject) {
+                        CaseNode child = new CaseNode();
+                        children.add(child);
+                        objs.push((JSONObject) o);
+                        nodes.push(child);
+                    }
+                }
+                node.setChildren(children);
+            }
+        }
+        return root;
+    }
+
+    private static void fillNode(CaseNode node, JSONObject data) {
+        if (data == null) {
+            return;
+        }
+        String id = data.getString(ID);
+        node.setId(id == null ? null : id.intern());
+        node.setProgress(toInt(data.get(PROGRESS)));
+        node.setPriority(toInt(data.get(PRIORITY)));
+        node.setResource(toResource(data.get(RESOURCE)));
+    }
+
+    private static int toInt(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).intValue();
+        }
+        if (value instanceof String) {
+            try {
+                return Integer.parseInt(((String) value).trim());
+            } catch (NumberFormatException e) {
+                return CaseNode.ABSENT;
+            }
+        }
+        return CaseNode.ABSENT;
+    }
+
+    private static String[] toResource(Object value) {
+        if (!(value instanceof List)) {
+            return null;
+        }
+        List<?> list = (List<?>) value;
+        String[] resource = new String[list.size()];
+        for (int i = 0; i < resource.length; i++) {
+            resource[i] = TypeUtils.castToString(list.get(i));
+        }
+        return resource;
+    }
+
+    /**
+     * 解析任务的执行记录，兼容[{id, progress}]和{id: progress}两种格式
+     *
+     * @param recordContent 执行记录
+     * @return { id, progress }
+     */
+    public static Map<String, Integer> parseProgress(String recordContent) {
+        if (StringUtils.isEmpty(recordContent)) {
+            return Collections.emptyMap();
+        }
+        Map<String, Integer> progress = new HashMap<>();
+        if (recordContent.startsWith("[{")) {
+            for (Object o : JSON.parseArray(recordContent)) {
+                JSONObject obj = (JSONObject) o;
+                progress.put(obj.getString(ID), toInt(obj.get(PROGRESS)));
+            }
+        } else {
+            for (Map.Entry<String, Object> entry : JSON.parseObject(recordContent).entrySet()) {
+                progress.put(entry.getKey(), toInt(entry.getValue()));
+            }
+        }
+        return progress;
+    }
+
+    /**
+     * 统计执行情况
+     *
+     * @param root 根节点
+     * @return 计数体
+     * @see #mergeAndCount(CaseNode, CaseFilter, Map, boolean)
+     */
+    public static CaseCount count(CaseNode root) {
+        return mergeAndCount(root, new CaseFilter(), Collections.emptyMap(), false);
+    }
+
+    /**
+     * 统计圈选后剩下的叶子节点个数，树不会被修改
+     * 与{@link #mergeAndCount}不同，根节点也可能被圈选掉，此时返回0
+     *
+     * @param root 根节点
+     * @param filter 圈选条件
+     * @param tags 不为null时收集整棵树上出现过的所有标签
+     * @return 叶子节点个数
+     */
+    public static int countLeaves(CaseNode root, CaseFilter filter, Set<String> tags) {
+        int all = filter.all();
+        int count = 0;
+        Deque<CaseNode> nodes = new ArrayDeque<>();
+        Deque<Integer> hits = new ArrayDeque<>();
+        nodes.push(root);
+        hits.push(filter.hits(root, true, 0));
+        while (!nodes.isEmpty()) {
+            CaseNode node = nodes.pop();
+            int hit = hits.pop();
+            if (tags != null && node.getResource() != null) {
+                Collections.addAll(tags, node.getResource());
+            }
+            if (node.isLeaf()) {
+                if (hit == all) {
+                    count++;
+                }
+                continue;
+            }
+            for (CaseNode child : node.getChildren()) {
+                nodes.push(child);
+                hits.push(hit == all ? all : filter.hits(child, false, hit));
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 圈选、合并执行结果、统计，一次遍历完成
+     *
+     * 圈选规则见{@link CaseFilter}：命中的节点保留整棵子树，没命中的节点只有在还剩下子节点时才保留，
+     * 保留下来的子节点放进新的列表，不在原列表上逐个删除；根节点始终保留，子节点都被圈选掉时当作叶子节点统计
+     *
+     * ******深度遍历，获取每个用例的具体内容，读出所有的计数**********
+     * 根据一份测试用例，遍历获取其中所有底部节点的用例执行情况
+     * 分为两种情况：
+     * ①当前节点有子节点
+     *  <1>如果当前节点状态为1、5、9，那么值收集下游节点的个数total和，然后变成自己对应的状态个数+=childTotalSum,total++
+     *  <2>如果节点为4，则忽略
+     *  <3>如果节点为null，则total++
+     * ②当前节点无子节点
+     *  计数体对应的状态数++,total++
+     *
+     * @param root 根节点
+     * @param filter 圈选条件，任务的圈选条件使用{@link CaseFilter#of}
+     * @param progress 执行结果 { id, progress }
+     * @param prune 是否把圈选结果写回树上，需要返回圈选后的内容时传true，只要统计时传false，树不会被修改
+     * @return 计数体
+     */
+    public static CaseCount mergeAndCount(CaseNode root, CaseFilter filter, Map<String, Integer> progress, boolean prune) {
+        Traversal traversal = new Traversal(filter, progress, prune);
+        Tally tally = traversal.run(root);
+
+        CaseCount count = new CaseCount();
+        count.setSuccess(tally.success);
+        count.setFail(tally.fail);
+        count.setBlock(tally.block);
+        count.setIgnore(tally.ignore);
+        count.setTotal(tally.total);
+        count.setProgress(traversal.progressMap);
+        return count;
+    }
+
+    /**
+     * 一次遍历的上下文
+     * 最终的progress就是所有保留下来的节点中状态为1、4、5、9的节点，所以直接收集到一个map里，不再逐层合并
+     */
+    private static class Traversal {
+        private final CaseFilter filter;
+        private final int all;
+        private final Map<String, Integer> progress;
+        private final boolean prune;
+        private final JSONObject progressMap = new JSONObject();
+
+        Traversal(CaseFilter filter, Map<String, Integer> progress, boolean prune) {
+            this.filter = filter;
+            this.all = filter.all();
+            this.progress = progress;
+            this.prune = prune;
+        }
+
+        /**
+         * 后序遍历整棵树，栈中保存访问到一半的节点，子节点的结果返回给栈顶的父节点
+         *
+         * @return 根节点的计数
+         */
+        Tally run(CaseNode root) {
+            Deque<Frame> stack = new ArrayDeque<>();
+            stack.push(enter(root, true, 0));
+            Tally returned = null;
+            boolean hasReturned = false;
+            while (!stack.isEmpty()) {
+                Frame frame = stack.peek();
+                if (hasReturned) {
+                    frame.accept(returned, prune);
+                    hasReturned = false;
+                }
+                List<CaseNode> children = frame.node.getChildren();
+                if (frame.node.isLeaf()) {
+                    returned = leafOf(frame);
+                } else if (frame.next < children.size()) {
+                    stack.push(enter(children.get(frame.next++), false, frame.hits));
+                    continue;
+                } else {
+                    returned = finish(frame);
+                }
+                stack.pop();
+                hasReturned = true;
+            }
+            return returned;
+        }
+
+        /**
+         * 进入一个节点：计算圈选是否命中，合并执行结果
+         *
+         * @param inherited 祖先节点的命中情况
+         */
+        private Frame enter(CaseNode node, boolean isRoot, int inherited) {
+            // 祖先已经全部命中时整棵子树都保留，不用再判断
+            int hits = inherited == all ? all : filter.hits(node, isRoot, inherited);
+            // 只统计时不改动树上的progress，同一棵树可以给多个任务重复统计
+            int nodeProgress = node.getProgress();
+            if (!progress.isEmpty()) {
+                Integer value = progress.get(node.getId());
+                if (value != null) {
+                    nodeProgress = value;
+                    if (prune) {
+                        node.setProgress(value);
+                    }
+                }
+            }
+            return new Frame(node, isRoot, hits, nodeProgress, prune);
+        }
+
+        /**
+         * @return 计数，节点被圈选掉时返回null
+         */
+        private Tally leafOf(Frame frame) {
+            if (!frame.isRoot && frame.hits != all) {
+                return null;
+            }
+            return leaf(frame.node, frame.status, frame.nodeProgress);
+        }
+
+        /**
+         * 所有子节点都处理完后计算自己的计数
+         *
+         * @return 计数，节点被圈选掉时返回null
+         */
+        private Tally finish(Frame frame) {
+            CaseNode node = frame.node;
+            if (prune) {
+                node.setChildren(frame.kept.isEmpty() ? Collections.emptyList() : frame.kept);
+            }
+            if (!frame.any) {
+                // 子节点都被圈选掉了，根节点当作叶子节点统计，其他节点不保留
+                return frame.isRoot ? leaf(node, frame.status, frame.nodeProgress) : null;
+            }
+
+            if (frame.nodeProgress != CaseNode.ABSENT) {
+                frame.tally.combine(frame.status, frame.num);
+            }
+            addProgress(node, frame.status, frame.nodeProgress);
+            return frame.tally;
+        }
+
+        private Tally leaf(CaseNode node, ProgressEnum status, int nodeProgress) {
+            Tally tally = new Tally();
+            switch (status) {
+                case BLOCK:
+                    tally.block = 1;
+                    tally.total = 1;
+                    break;
+                case SUCCESS:
+                    tally.success = 1;
+                    tally.total = 1;
+                    break;
+                case FAIL:
+                    tally.fail = 1;
+                    tally.total = 1;
+                    break;
+                case IGNORE:
+                    // 发现节点为不执行后，当前节点和后续节点total均为0
+                    tally.ignore = 1;
+                    break;
+                default:
+                    tally.total = 1;
+            }
+            addProgress(node, status, nodeProgress);
+            return tally;
+        }
+
+        private void addProgress(CaseNode node, ProgressEnum status, int nodeProgress) {
+            if (status != ProgressEnum.DEFAULT) {
+                progressMap.put(node.getId(), String.valueOf(nodeProgress));
+            }
+        }
+    }
+
+    /**
+     * 遍历到一半的节点
+     */
+    private static class Frame {
+        private final CaseNode node;
+        private final boolean isRoot;
+        /**
+         * 到根的路径上各个圈选条件的命中情况
+         */
+        private final int hits;
+        private final int nodeProgress;
+        private final ProgressEnum status;
+        /**
+         * 下一个要访问的子节点
+         */
+        private int next;
+        private final List<CaseNode> kept;
+        private final Tally tally = new Tally();
+        private int num;
+        private boolean any;
+
+        Frame(CaseNode node, boolean isRoot, int hits, int nodeProgress, boolean prune) {
+            this.node = node;
+            this.isRoot = isRoot;
+            this.hits = hits;
+            this.nodeProgress = nodeProgress;
+            this.status = findProgress(nodeProgress);
+            this.kept = prune && !node.isLeaf() ? new ArrayList<>(node.getChildren().size()) : null;
+        }
+
+        /**
+         * 收下刚处理完的子节点的计数
+         */
+        void accept(Tally cc, boolean prune) {
+            if (cc == null) {
+                return;
+            }
+            any = true;
+            if (prune) {
+                kept.add(node.getChildren().get(next - 1));
+            }
+            num += cc.total;
+            tally.cover(cc);
+        }
+    }
+
+    /**
+     * 计数，规则同{@link CaseCount}
+     */
+    private static class Tally {
+        private int success;
+        private int fail;
+        private int block;
+        private int ignore;
+        private int total;
+
+        void cover(Tally other) {
+            success += other.success;
+            fail += other.fail;
+            block += other.block;
+            ignore += other.ignore;
+            total += other.total;
+        }
+
+        /**
+         * 有子节点且自己也有状态时，只收集下游节点的total，然后变成自己对应的状态
+         */
+        void combine(ProgressEnum status, int num) {
+            success = 0;
+            fail = 0;
+            block = 0;
+            ignore = 0;
+            total = num;
+            switch (status) {
+                case BLOCK:
+                    block = num;
+                    break;
+                case SUCCESS:
+                    success = num;
+                    break;
+                case FAIL:
+                    fail = num;
+                    break;
+                case IGNORE:
+                    ignore = num;
+                    total = 0;
+                    break;
+                default:
+            }
+        }
+    }
+
+    private static ProgressEnum findProgress(int progress) {
+        switch (progress) {
+            case 1:
+                return ProgressEnum.FAIL;
+            case 4:
+                return ProgressEnum.IGNORE;
+            case 5:
+                return ProgressEnum.BLOCK;
+            case 9:
+                return ProgressEnum.SUCCESS;
+            default:
+                return ProgressEnum.DEFAULT;
+        }
+    }
+
+    /**
+     * 还原成json，需要解析时保留了data
+     *
+     * @param tree 用例树
+     * @return 用例内容
+     */
+    public static JSONObject toJSONObject(CaseTree tree) {
+        JSONObject content = tree.getMeta() == null ? new JSONObject() : new JSONObject(tree.getMeta());
+        content.put(ROOT, toJSONObject(tree.getRoot()));
+        return content;
+    }
+
+    private static JSONObject toJSONObject(CaseNode root) {
+        JSONObject rootObj = null;
+        Deque<CaseNode> nodes = new ArrayDeque<>();
+        Deque<JSONArray> parents = new ArrayDeque<>();
+        nodes.push(root);
+        parents.push(new JSONArray());
+        while (!nodes.isEmpty()) {
+            CaseNode node = nodes.pop();
+            JSONArray parent = parents.pop();
+            JSONObject data = node.getData() == null ? new JSONObject() : node.getData();
+            if (node.getProgress() != CaseNode.ABSENT) {
+                data.put(PROGRESS, node.getProgress());
+            }
+            JSONArray children = new JSONArray(node.getChildren().size());
+            JSONObject obj = node.getExtra() == null ? new JSONObject(2) : new JSONObject(node.getExtra());
+            obj.put(DATA, data);
+            obj.put(CHILDREN, children);
+            parent.add(obj);
+            if (rootObj == null) {
+                rootObj = obj;
+            }
+            // 倒序入栈，出栈时按原顺序加入父节点
+            for (int i = node.getChildren().size() - 1; i >= 0; i--) {
+                nodes.push(node.getChildren().get(i));
+                parents.push(children);
+            }
+        }
+        return rootObj;
+    }
+}
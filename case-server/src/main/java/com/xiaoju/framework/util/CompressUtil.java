@@ -0,0 +1,149 @@
+package com.xiaoju.framework.util;
+
+import com.xiaoju.framework.constants.enums.StatusCode;
+import com.xiaoju.framework.entity.exception.CaseServerException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+
+/**
+ * 压缩工具类
+ *
+ * 大字段的编码格式：以{@link #MAGIC}开头的是压缩内容，MAGIC最后一个字节是格式版本，后面是zlib格式的deflate数据
+ * 其他的都视为未压缩的UTF-8文本，json不会以0x00开头，旧数据可以直接读取
+ *
+ * @author didi
+ * @date 2026/10/18
+ */
+public class CompressUtil {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * 压缩内容的头部，0x00 'Z' 'C' 版本号
+     */
+    private static final byte[] MAGIC = {0x00, 'Z', 'C', 0x01};
+
+    /**
+     * gzip压缩字符串
+     *
+     * @param text 原文
+     * @return 压缩后的字节，原文为null时返回null
+     */
+    public static byte[] gzip(String text) {
+        if (text == null) {
+            return null;
+        }
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, bytes.length / 4));
+        try (OutputStream gzip = new GZIPOutputStream(out, BUFFER_SIZE)) {
+            gzip.write(bytes);
+        } catch (IOException e) {
+            throw new CaseServerException("压缩失败", StatusCode.INTERNAL_ERROR);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * gzip解压成字符串
+     *
+     * @param bytes 压缩后的字节
+     * @return 原文，bytes为null时返回null
+     */
+    public static String gunzip(byte[] bytes) {
+        if (bytes == null) {
+            return null;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length * 4);
+        try (InputStream gzip = new GZIPInputStream(new ByteArrayInputStream(bytes), BUFFER_SIZE)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int n;
+            while ((n = gzip.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+        } catch (IOException e) {
+            throw new CaseServerException("解压失败", StatusCode.INTERNAL_ERROR);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 编码大字段，压缩后带上头部
+     *
+     * @param text 原文
+     * @param level deflate压缩级别，1最快，9最小
+     * @return 编码后的字节
+     */
+    public static byte[] encode(String text, int level) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        Deflater deflater = new Deflater(level);
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, bytes.length / 8));
+            out.write(MAGIC, 0, MAGIC.length);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * 解码大字段，兼容未压缩的UTF-8文本
+     *
+     * @param bytes 编码后的字节
+     * @return 原文，bytes为null时返回null
+     */
+    public static String decode(byte[] bytes) {
+        if (bytes == null) {
+            return null;
+        }
+        if (!isEncoded(bytes)) {
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(bytes, MAGIC.length, bytes.length - MAGIC.length);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length * 8);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new CaseServerException("压缩内容不完整", StatusCode.INTERNAL_ERROR);
+                }
+                out.write(buffer, 0, n);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        } catch (DataFormatException e) {
+            throw new CaseServerException("解压失败", StatusCode.INTERNAL_ERROR);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static boolean isEncoded(byte[] bytes) {
+        if (bytes.length < MAGIC.length) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (bytes[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -1,68 +1,13 @@
 package com.xiaoju.framework.util;
 
 import java.io.*;
-import java.nio.charset.Charset;
-import java.util.Enumeration;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
 import java.util.zip.ZipOutputStream;
 
 /**
  * Created by didi on 2019/9/29.
  */
 public class FileUtil {
-    /**
-     * 解压文件
-     * @param zipPath 要解压的目标文件
-     * @param descDir 指定解压目录
-     * @return 解压结果：成功，失败
-     */
-    @SuppressWarnings("rawtypes")
-    public static boolean decompressZip(String zipPath, String descDir) {
-
-        File zipFile = new File(zipPath);
-        boolean flag = false;
-        File pathFile = new File(descDir);
-        if(!pathFile.exists()){
-            pathFile.mkdirs();
-        }
-        try {
-            ZipFile zip = new ZipFile(zipFile, Charset.forName("gbk"));
-            for(Enumeration entries = zip.entries(); entries.hasMoreElements();){
-                ZipEntry entry = (ZipEntry)entries.nextElement();
-                String zipEntryName = entry.getName();
-                InputStream in = zip.getInputStream(entry);
-                //指定解压后的文件夹+当前zip文件的名称
-                String outPath = (descDir+zipEntryName).replace("/", File.separator);
-                //判断路径是否存在,不存在则创建文件路径
-                File file = new File(outPath.substring(0, outPath.lastIndexOf(File.separator)));
-                if(!file.exists()){
-                    file.mkdirs();
-                }
-                //判断文件全路径是否为文件夹,如果是上面已经上传,不需要解压
-                if(new File(outPath).isDirectory()){
-                    continue;
-                }
-                //保存文件路径信息（可利用md5.zip名称的唯一性，来判断是否已经解压）
-                System.err.println("当前zip解压之后的路径为：" + outPath);
-                OutputStream out = new FileOutputStream(outPath);
-                byte[] buf1 = new byte[2048];
-                int len;
-                while((len=in.read(buf1))>0){
-                    out.write(buf1,0,len);
-                }
-                in.close();
-                out.close();
-            }
-            flag = true;
-            //必须关闭，要不然这个zip文件一直被占用着，要删删不掉，改名也不可以，移动也不行，整多了，系统还崩了。
-            zip.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        return flag;
-    }
-
     /**
      * 压缩文件
      * @param sourcePath 要压缩的文件夹
@@ -147,28 +92,4 @@ public class FileUtil {
         }
     }
 
-    /** 读取解析json文件*/
-    public static String readJsonFile(String filePath) {
-        String jsonStr = "";
-        String fileName = "content.json";
-        String jsonFile = (filePath+fileName).replace("/", File.separator);
-        try {
-            File file = new File(jsonFile);
-            FileReader fileReader = new FileReader(jsonFile);
-            Reader reader = new InputStreamReader(new FileInputStream(file), "utf-8");
-            int ch = 0;
-            StringBuffer sb = new StringBuffer();
-            while ((ch = reader.read()) != -1) {
-                sb.append((char) ch);
-            }
-            fileReader.close();
-            reader.close();
-            jsonStr = sb.toString();
-            return jsonStr;
-        } catch (IOException e) {
-            e.printStackTrace();
-            return null;
-        }
-    }
-
 }
@@ -0,0 +1,343 @@
+package com.xiaoju.framework.util;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import com.xiaoju.framework.constants.enums.StatusCode;
+import com.xiaoju.framework.entity.exception.CaseServerException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * JSON-Patch(RFC 6902) 处理类
+ * 协同时前端发来的patch直接作用在服务端内存里的用例内容上
+ *
+ * 和前端脑图applyPatches的行为保持一致，对象字段的处理是宽松的：
+ * ①add/replace时路径上缺失的对象字段会自动补上
+ * ②replace一个不存在的对象字段等同于add
+ * ③remove一个不存在的对象字段直接忽略
+ * 数组下标仍然是严格校验的，越界说明两边内容已经不一致，直接报错
+ * 一组patch要么全部生效，要么失败后内容保持原样，应用过程中记录每一步的撤销操作，失败时倒序撤销
+ *
+ * 同时提供diff，生成的patch可以被apply还原，用于增量备份
+ *
+ * @author didi
+ * @date 2026/10/18
+ */
+public class PatchUtil {
+
+    private static final String OP_ADD = "add";
+    private static final String OP_REMOVE = "remove";
+    private static final String OP_REPLACE = "replace";
+    private static final String OP_MOVE = "move";
+    private static final String OP_COPY = "copy";
+    private static final String OP_TEST = "test";
+
+    /**
+     * 数组末尾
+     */
+    private static final String APPEND = "-";
+
+    /**
+     * 应用一组patch，patch既可以是[{op}]，也可以是前端发来的[[{op}], [{op}]]
+     *
+     * @param doc 被修改的内容，会被原地修改，失败时保持原样
+     * @param patch patch
+     */
+    public static void apply(JSONObject doc, JSONArray patch) {
+        Deque<Runnable> undo = new ArrayDeque<>();
+        try {
+            apply(doc, patch, undo);
+        } catch (RuntimeException e) {
+            while (!undo.isEmpty()) {
+                undo.pop().run();
+            }
+            throw e;
+        }
+    }
+
+    private static void apply(JSONObject doc, JSONArray patch, Deque<Runnable> undo) {
+        for (Object o : patch) {
+            if (o instanceof JSONArray) {
+                apply(doc, (JSONArray) o, undo);
+            } else if (o instanceof JSONObject) {
+                applyOne(doc, (JSONObject) o, undo);
+            } else {
+                throw new CaseServerException("patch格式非法", StatusCode.DATA_FORMAT_ERROR);
+            }
+        }
+    }
+
+    /**
+     * 生成把source变成target的patch
+     * 数组先去掉相同的头尾，中间部分逐个对比，多出来的再删除或者插入，脑图中插入、删除、修改节点都只会生成很小的patch
+     *
+     * @param source 原内容
+     * @param target 新内容
+     * @return patch，两者相同时为空数组
+     */
+    public static JSONArray diff(JSONObject source, JSONObject target) {
+        JSONArray patch = new JSONArray();
+        diffObject(source, target, "", patch);
+        return patch;
+    }
+
+    private static void diff(Object source, Object target, String path, JSONArray patch) {
+        if (source instanceof JSONObject && target instanceof JSONObject) {
+            diffObject((JSONObject) source, (JSONObject) target, path, patch);
+        } else if (source instanceof JSONArray && target instanceof JSONArray) {
+            diffArray((JSONArray) source, (JSONArray) target, path, patch);
+        } else if (!Objects.equals(source, target)) {
+            patch.add(op(OP_REPLACE, path, target));
+        }
+    }
+
+    private static void diffObject(JSONObject source, JSONObject target, String path, JSONArray patch) {
+        for (String key : source.keySet()) {
+            if (!target.containsKey(key)) {
+                patch.add(op(OP_REMOVE, path + "/" + escape(key), null));
+            }
+        }
+        for (Map.Entry<String, Object> entry : target.entrySet()) {
+            String child = path + "/" + escape(entry.getKey());
+            if (source.containsKey(entry.getKey())) {
+                diff(source.get(entry.getKey()), entry.getValue(), child, patch);
+            } else {
+                patch.add(op(OP_ADD, child, entry.getValue()));
+            }
+        }
+    }
+
+    private static void diffArray(JSONArray source, JSONArray target, String path, JSONArray patch) {
+        int sourceSize = source.size();
+        int targetSize = target.size();
+        int head = 0;
+        while (head < sourceSize && head < targetSize && Objects.equals(source.get(head), target.get(head))) {
+            head++;
+        }
+        int tail = 0;
+        while (tail < sourceSize - head && tail < targetSize - head
+                && Objects.equals(source.get(sourceSize - 1 - tail), target.get(targetSize - 1 - tail))) {
+            tail++;
+        }
+        int sourceMid = sourceSize - head - tail;
+        int targetMid = targetSize - head - tail;
+        int common = Math.min(sourceMid, targetMid);
+        for (int i = head; i < head + common; i++) {
+            diff(source.get(i), target.get(i), path + "/" + i, patch);
+        }
+        // 多出来的旧元素都在head + common的位置上依次删除，新元素依次插入到尾部相同部分之前
+        for (int i = common; i < sourceMid; i++) {
+            patch.add(op(OP_REMOVE, path + "/" + (head + common), null));
+        }
+        for (int i = common; i < targetMid; i++) {
+            patch.add(op(OP_ADD, path + "/" + (head + i), target.get(head + i)));
+        }
+    }
+
+    private static JSONObject op(String name, String path, Object value) {
+        JSONObject op = new JSONObject(true);
+        op.put("op", name);
+        op.put("path", path);
+        if (!OP_REMOVE.equals(name)) {
+            op.put("value", value);
+        }
+        return op;
+    }
+
+    private static String escape(String token) {
+        return token.replace("~", "~0").replace("/", "~1");
+    }
+
+    private static void applyOne(JSONObject doc, JSONObject op, Deque<Runnable> undo) {
+        String name = op.getString("op");
+        String path = op.getString("path");
+        if (name == null || path == null) {
+            throw new CaseServerException("patch缺少op或path", StatusCode.DATA_FORMAT_ERROR);
+        }
+        List<String> tokens = parsePointer(path);
+
+        switch (name) {
+            case OP_ADD:
+                add(doc, tokens, op.get("value"), true, undo);
+                break;
+            case OP_REPLACE:
+                add(doc, tokens, op.get("value"), false, undo);
+                break;
+            case OP_REMOVE:
+                remove(doc, tokens, undo);
+                break;
+            case OP_MOVE: {
+                List<String> from = parsePointer(op.getString("from"));
+                Object value = remove(doc, from, undo);
+                add(doc, tokens, value, true, undo);
+                break;
+            }
+            case OP_COPY: {
+                Object value = get(doc, parsePointer(op.getString("from")));
+                add(doc, tokens, value == null ? null : JSON.parse(JSON.toJSONString(value)), true, undo);
+                break;
+            }
+            case OP_TEST:
+                if (!Objects.equals(get(doc, tokens), op.get("value"))) {
+                    throw new CaseServerException("patch校验失败, path=" + path, StatusCode.DATA_FORMAT_ERROR);
+                }
+                break;
+            default:
+                throw new CaseServerException("不支持的patch操作, op=" + name, StatusCode.DATA_FORMAT_ERROR);
+        }
+    }
+
+    /**
+     * 新增或替换
+     *
+     * @param insert 对于数组，true表示插入到下标处，false表示替换下标处的值
+     */
+    private static void add(JSONObject doc, List<String> tokens, Object value, boolean insert, Deque<Runnable> undo) {
+        if (tokens.isEmpty()) {
+            throw new CaseServerException("不允许替换整个用例", StatusCode.DATA_FORMAT_ERROR);
+        }
+        Object parent = container(doc, tokens, undo);
+        String last = tokens.get(tokens.size() - 1);
+        if (parent instanceof JSONObject) {
+            put((JSONObject) parent, last, value, undo);
+        } else if (parent instanceof JSONArray) {
+            JSONArray array = (JSONArray) parent;
+            if (insert) {
+                int i = APPEND.equals(last) ? array.size() : index(array, last, true);
+                array.add(i, value);
+                undo.push(() -> array.remove(i));
+            } else {
+                int i = index(array, last, false);
+                Object old = array.set(i, value);
+                undo.push(() -> array.set(i, old));
+            }
+        } else {
+            throw new CaseServerException("patch路径不存在, path=" + tokens, StatusCode.DATA_FORMAT_ERROR);
+        }
+    }
+
+    private static Object remove(JSONObject doc, List<String> tokens, Deque<Runnable> undo) {
+        if (tokens.isEmpty()) {
+            throw new CaseServerException("不允许删除整个用例", StatusCode.DATA_FORMAT_ERROR);
+        }
+        Object parent = container(doc, tokens, null);
+        String last = tokens.get(tokens.size() - 1);
+        if (parent instanceof JSONObject) {
+            JSONObject obj = (JSONObject) parent;
+            if (!obj.containsKey(last)) {
+                return null;
+            }
+            Object old = obj.remove(last);
+            undo.push(() -> obj.put(last, old));
+            return old;
+        } else if (parent instanceof JSONArray) {
+            JSONArray array = (JSONArray) parent;
+            int i = index(array, last, false);
+            Object old = array.remove(i);
+            undo.push(() -> array.add(i, old));
+            return old;
+        } else if (parent == null) {
+            // 父节点都已经不存在了，等同于删除成功
+            return null;
+        }
+        throw new CaseServerException("patch路径不存在, path=" + tokens, StatusCode.DATA_FORMAT_ERROR);
+    }
+
+    private static Object get(JSONObject doc, List<String> tokens) {
+        Object curr = doc;
+        for (String token : tokens) {
+            curr = child(curr, token);
+        }
+        return curr;
+    }
+
+    /**
+     * 对象字段赋值，并记录撤销操作
+     */
+    private static void put(JSONObject obj, String key, Object value, Deque<Runnable> undo) {
+        boolean existed = obj.containsKey(key);
+        Object old = obj.put(key, value);
+        undo.push(existed ? () -> obj.put(key, old) : () -> obj.remove(key));
+    }
+
+    /**
+     * 获取最后一个token所在的容器
+     *
+     * @param undo 不为null时补上缺失的对象字段，并记录撤销操作
+     */
+    private static Object container(JSONObject doc, List<String> tokens, Deque<Runnable> undo) {
+        Object curr = doc;
+        for (int i = 0; i < tokens.size() - 1; i++) {
+            String token = tokens.get(i);
+            Object next = child(curr, token);
+            if (next == null && undo != null && curr instanceof JSONObject) {
+                next = new JSONObject();
+                put((JSONObject) curr, token, next, undo);
+            }
+            if (next == null) {
+                return null;
+            }
+            curr = next;
+        }
+        return curr;
+    }
+
+    private static Object child(Object curr, String token) {
+        if (curr instanceof JSONObject) {
+            return ((JSONObject) curr).get(token);
+        } else if (curr instanceof JSONArray) {
+            JSONArray array = (JSONArray) curr;
+            return array.get(index(array, token, false));
+        }
+        return null;
+    }
+
+    /**
+     * 解析数组下标
+     *
+     * @param insert 插入时允许下标等于数组长度
+     */
+    private static int index(JSONArray array, String token, boolean insert) {
+        int i;
+        try {
+            i = Integer.parseInt(token);
+        } catch (NumberFormatException e) {
+            throw new CaseServerException("patch数组下标非法, index=" + token, StatusCode.DATA_FORMAT_ERROR);
+        }
+        int bound = insert ? array.size() : array.size() - 1;
+        if (i < 0 || i > bound) {
+            throw new CaseServerException("patch数组下标越界, index=" + token + ", size=" + array.size(), StatusCode.DATA_FORMAT_ERROR);
+        }
+        return i;
+    }
+
+    /**
+     * 解析JSON-Pointer，例如 /root/children/0/data/text
+     */
+    private static List<String> parsePointer(String pointer) {
+        List<String> tokens = new ArrayList<>();
+        if (pointer == null || pointer.isEmpty()) {
+            return tokens;
+        }
+        if (pointer.charAt(0) != '/') {
+            throw new CaseServerException("patch路径非法, path=" + pointer, StatusCode.DATA_FORMAT_ERROR);
+        }
+        int start = 1;
+        while (true) {
+            int end = pointer.indexOf('/', start);
+            String token = end < 0 ? pointer.substring(start) : pointer.substring(start, end);
+            tokens.add(token.replace("~1", "/").replace("~0", "~"));
+            if (end < 0) {
+                break;
+            }
+            start = end + 1;
+        }
+        return tokens;
+    }
+}
@@ -0,0 +1,300 @@
+package com.xiaoju.framework.util;
+
+import com.alibaba.fastjson.JSONObject;
+import com.alibaba.fastjson.JSONReader;
+import com.alibaba.fastjson.parser.Feature;
+import com.xiaoju.framework.constants.enums.StatusCode;
+import com.xiaoju.framework.entity.exception.CaseServerException;
+import com.xiaoju.framework.entity.xmind.CaseNode;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static com.xiaoju.framework.constants.XmindConstant.*;
+
+/**
+ * xmind文件导入
+ * 直接在上传的文件流上按zip逐个读取条目，找到content.json(zen版本)或content.xml(xmind 8)后边读边构建{@link CaseNode}树，
+ * 不落盘、不解压其他条目，也不会把整个文件或者整份content读进内存
+ *
+ * @author didi
+ * @date 2026/10/18
+ */
+public class XmindUtil {
+
+    /**
+     * 读content.json时一个topic当前所在的层级：topic本身、children对象、children.attached数组
+     */
+    private static final int IN_TOPIC = 0;
+    private static final int IN_CHILDREN = 1;
+    private static final int IN_ATTACHED = 2;
+
+    private static final XMLInputFactory XML_FACTORY = XMLInputFactory.newInstance();
+
+    private static final Map<String, Integer> PRIORITY_IDS = new HashMap<>();
+
+    static {
+        // 上传的文件不可信，禁止DTD以及外部实体
+        XML_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        XML_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+
+        PRIORITY_IDS.put("priority-1", 1);
+        PRIORITY_IDS.put("priority-2", 2);
+        for (int i = 3; i <= 9; i++) {
+            PRIORITY_IDS.put("priority-" + i, 3);
+        }
+    }
+
+    /**
+     * 从xmind文件流中读出第一个画布的根节点
+     *
+     * @param in 上传的文件流，读完后由调用方关闭
+     * @return 根节点，data中包含text、created、id以及priority
+     */
+    public static CaseNode readRootTopic(InputStream in) throws IOException {
+        // 历史上按gbk解压，条目名保持一致
+        ZipInputStream zip = new ZipInputStream(in, Charset.forName("gbk"));
+        boolean zen = false;
+        ZipEntry entry;
+        while ((entry = zip.getNextEntry()) != null) {
+            if (entry.isDirectory()) {
+                continue;
+            }
+            if (CONTENT_JSON.equals(entry.getName())) {
+                return readJson(new EntryInputStream(zip));
+            }
+            if (CONTENT_XML.equals(entry.getName())) {
+                CaseNode root = readXml(new EntryInputStream(zip));
+                // zen版本同时带有一份只有提示节点的content.xml，真正的内容在content.json里，继续往后找
+                if (!ZEN_ROOT_VERSION.equals(root.getId())) {
+                    return root;
+                }
+                zen = true;
+            }
+        }
+        if (zen) {
+            throw new CaseServerException("暂不支持Xmind-Zen版本", StatusCode.FILE_IMPORT_ERROR);
+        }
+        throw new CaseServerException("解析失败", StatusCode.FILE_IMPORT_ERROR);
+    }
+
+    /**
+     * content.json：[{rootTopic: {id, title, markers: [{markerId}], children: {attached: [...]}}}, ...]
+     * 只读第一个画布，读到它的rootTopic之后不再继续
+     */
+    private static CaseNode readJson(InputStream in) {
+        JSONReader reader = new JSONReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        // 读完根节点就返回，关闭时不校验后面的画布
+        reader.config(Feature.AutoCloseSource, false);
+        try {
+            reader.startArray();
+            if (!reader.hasNext()) {
+                throw new CaseServerException("xmind中没有画布", StatusCode.FILE_IMPORT_ERROR);
+            }
+            reader.startObject();
+            while (reader.hasNext()) {
+                String key = reader.readString();
+                if ("rootTopic".equals(key)) {
+                    return readJsonTopic(reader);
+                }
+                reader.readObject();
+            }
+            throw new CaseServerException("xmind中没有根节点", StatusCode.FILE_IMPORT_ERROR);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * 读取一个topic以及所有attached子孙，栈中保存读到一半的topic以及当前读到了它的哪一层
+     */
+    private static CaseNode readJsonTopic(JSONReader reader) {
+        CaseNode root = newJsonNode();
+        Deque<CaseNode> nodes = new ArrayDeque<>();
+        Deque<Integer> states = new ArrayDeque<>();
+        reader.startObject();
+        nodes.push(root);
+        states.push(IN_TOPIC);
+        while (!nodes.isEmpty()) {
+            CaseNode node = nodes.peek();
+            int state = states.pop();
+            if (state == IN_ATTACHED) {
+                if (reader.hasNext()) {
+                    CaseNode child = newJsonNode();
+                    node.getChildren().add(child);
+                    reader.startObject();
+                    states.push(IN_ATTACHED);
+                    nodes.push(child);
+                    states.push(IN_TOPIC);
+                } else {
+                    reader.endArray();
+                    states.push(IN_CHILDREN);
+                }
+            } else if (state == IN_CHILDREN) {
+                if (!reader.hasNext()) {
+                    reader.endObject();
+                    states.push(IN_TOPIC);
+                } else if ("attached".equals(reader.readString())) {
+                    reader.startArray();
+                    states.push(IN_ATTACHED);
+                } else {
+                    // 只导入attached，游离节点、概要等与原来一样忽略
+                    reader.readObject();
+                    states.push(IN_CHILDREN);
+                }
+            } else if (!reader.hasNext()) {
+                reader.endObject();
+                nodes.pop();
+            } else {
+                String key = reader.readString();
+                if ("id".equals(key)) {
+                    setId(node, reader.readString());
+                } else if ("title".equals(key)) {
+                    node.getData().put("text", reader.readString());
+                } else if ("markers".equals(key)) {
+                    reader.startArray();
+                    while (reader.hasNext()) {
+                        JSONObject marker = reader.readObject(JSONObject.class);
+                        setPriority(node, marker == null ? null : marker.getString("markerId"));
+                    }
+                    reader.endArray();
+                } else if ("children".equals(key)) {
+                    reader.startObject();
+                    states.push(IN_CHILDREN);
+                    continue;
+                } else {
+                    reader.readObject();
+                }
+                states.push(IN_TOPIC);
+            }
+        }
+        return root;
+    }
+
+    private static CaseNode newJsonNode() {
+        CaseNode node = newNode();
+        node.getData().put("created", System.currentTimeMillis());
+        return node;
+    }
+
+    /**
+     * content.xml：sheet > topic > (title, marker-refs > marker-ref, children > topics > topic ...)
+     * 节点嵌套多深都只占用一个栈，读完第一个画布的根节点后不再继续
+     */
+    private static CaseNode readXml(InputStream in) {
+        XMLStreamReader reader = null;
+        try {
+            reader = XML_FACTORY.createXMLStreamReader(in, StandardCharsets.UTF_8.name());
+            // 当前所在的topic以及它们所在的元素深度
+            Deque<CaseNode> topics = new ArrayDeque<>();
+            Deque<Integer> depths = new ArrayDeque<>();
+            int depth = 0;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    depth++;
+                    String name = reader.getLocalName();
+                    if ("topic".equals(name)) {
+                        CaseNode node = newNode();
+                        setId(node, reader.getAttributeValue(null, "id"));
+                        node.getData().put("created", toLong(reader.getAttributeValue(null, "timestamp")));
+                        if (!topics.isEmpty()) {
+                            topics.peek().getChildren().add(node);
+                        }
+                        topics.push(node);
+                        depths.push(depth);
+                    } else if (topics.isEmpty()) {
+                        continue;
+                    } else if ("title".equals(name) && depth == depths.peek() + 1) {
+                        // getElementText会读到结束标签
+                        topics.peek().getData().put("text", reader.getElementText());
+                        depth--;
+                    } else if ("marker-ref".equals(name) && depth == depths.peek() + 2) {
+                        setPriority(topics.peek(), reader.getAttributeValue(null, "marker-id"));
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    if (!depths.isEmpty() && depth == depths.peek()) {
+                        depths.pop();
+                        CaseNode node = topics.pop();
+                        if (topics.isEmpty()) {
+                            return node;
+                        }
+                    }
+                    depth--;
+                }
+            }
+            throw new CaseServerException("xmind中没有根节点", StatusCode.FILE_IMPORT_ERROR);
+        } catch (XMLStreamException e) {
+            throw new CaseServerException("解析失败:" + e.getMessage(), StatusCode.FILE_IMPORT_ERROR);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException ignored) {
+                    // 只是释放解析器，底层的流由调用方关闭
+                }
+            }
+        }
+    }
+
+    private static CaseNode newNode() {
+        CaseNode node = new CaseNode();
+        node.setData(new JSONObject());
+        node.setChildren(new ArrayList<>());
+        return node;
+    }
+
+    private static void setId(CaseNode node, String id) {
+        node.setId(id);
+        node.getData().put("id", id);
+    }
+
+    /**
+     * 多个优先级标记时以最后一个为准，与原来的导入保持一致
+     */
+    private static void setPriority(CaseNode node, String markerId) {
+        Integer priority = markerId == null ? null : PRIORITY_IDS.get(markerId);
+        if (priority != null) {
+            node.setPriority(priority);
+            node.getData().put("priority", priority);
+        }
+    }
+
+    private static long toLong(String value) {
+        try {
+            return value == null ? 0L : Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return 0L;
+        }
+    }
+
+    /**
+     * 解析器关闭时不能把整个zip流关掉，zen版本读完content.xml后还要继续找content.json
+     */
+    private static class EntryInputStream extends FilterInputStream {
+
+        EntryInputStream(ZipInputStream zip) {
+            super(zip);
+        }
+
+        @Override
+        public void close() {
+            // 只结束当前条目，由getNextEntry跳过剩余内容
+        }
+    }
+}
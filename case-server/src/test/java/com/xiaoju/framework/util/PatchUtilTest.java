@@ -0,0 +1,162 @@
+package com.xiaoju.framework.util;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import com.xiaoju.framework.entity.exception.CaseServerException;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * JSON-Patch的应用测试
+ * 增量备份依赖diff之后再apply能完整还原，这里覆盖插入、删除、移动以及数组头尾的情况
+ *
+ * @author didi
+ * @date 2026/10/18
+ */
+public class PatchUtilTest {
+
+    private static final String DOC = "{\"root\":{\"data\":{\"id\":\"r\",\"text\":\"root\"},\"children\":["
+            + "{\"data\":{\"id\":\"a\",\"text\":\"a\"},\"children\":[]},"
+            + "{\"data\":{\"id\":\"b\",\"text\":\"b\"},\"children\":[]}]},\"base\":3}";
+
+    @Test
+    public void diffThenApplyRestoresTarget() {
+        String[][] cases = {
+                // 修改文本、增删字段，字段名里带有需要转义的字符
+                {DOC, DOC.replace("\"text\":\"a\"", "\"text\":\"a2\",\"a/b~c\":1").replace(",\"base\":3", "")},
+                // 数组头部、中间、尾部插入
+                {DOC, DOC.replace("\"children\":[{\"data\":{\"id\":\"a\"", "\"children\":[" + node("h") + ",{\"data\":{\"id\":\"a\"")},
+                {DOC, DOC.replace("},{\"data\":{\"id\":\"b\"", "}," + node("m") + ",{\"data\":{\"id\":\"b\"")},
+                {DOC, DOC.replace("\"children\":[]}]}", "\"children\":[]}," + node("t") + "]}")},
+                // 数组头部、尾部删除
+                {DOC, DOC.replace("{\"data\":{\"id\":\"a\",\"text\":\"a\"},\"children\":[]},", "")},
+                {DOC, DOC.replace(",{\"data\":{\"id\":\"b\",\"text\":\"b\"},\"children\":[]}", "")},
+                // 清空数组、从空数组添加
+                {DOC, DOC.replace("\"children\":[{\"data\":{\"id\":\"a\",\"text\":\"a\"},\"children\":[]},"
+                        + "{\"data\":{\"id\":\"b\",\"text\":\"b\"},\"children\":[]}]", "\"children\":[]")},
+                {DOC, DOC.replace("\"id\":\"a\",\"text\":\"a\"},\"children\":[]", "\"id\":\"a\",\"text\":\"a\"},\"children\":[" + node("x") + "," + node("y") + "]")},
+                // 移动：a移到b的下面
+                {DOC, DOC.replace("{\"data\":{\"id\":\"a\",\"text\":\"a\"},\"children\":[]},", "")
+                        .replace("\"id\":\"b\",\"text\":\"b\"},\"children\":[]", "\"id\":\"b\",\"text\":\"b\"},\"children\":[" + node("a") + "]")},
+                // 交换顺序
+                {DOC, DOC.replace("\"id\":\"a\",\"text\":\"a\"", "\"id\":\"tmp\",\"text\":\"a\"")
+                        .replace("\"id\":\"b\",\"text\":\"b\"", "\"id\":\"a\",\"text\":\"a\"")
+                        .replace("\"id\":\"tmp\",\"text\":\"a\"", "\"id\":\"b\",\"text\":\"b\"")},
+                {DOC, DOC},
+        };
+        for (String[] c : cases) {
+            assertRoundTrip(JSON.parseObject(c[0]), JSON.parseObject(c[1]));
+            assertRoundTrip(JSON.parseObject(c[1]), JSON.parseObject(c[0]));
+        }
+    }
+
+    @Test
+    public void randomEditsRoundTrip() {
+        Random random = new Random(11);
+        for (int round = 0; round < 500; round++) {
+            JSONObject source = JSON.parseObject(DOC);
+            JSONObject target = JSON.parseObject(DOC);
+            int[] counter = {0};
+            for (int i = 0; i < 1 + random.nextInt(8); i++) {
+                edit(random, target.getJSONObject("root"), counter);
+            }
+            assertRoundTrip(source, target);
+            assertRoundTrip(target, source);
+        }
+    }
+
+    @Test
+    public void failedPatchLeavesDocUnchanged() {
+        // 前面几步都能成功，最后一步下标越界，之前的修改都要撤销
+        String patch = "[[{\"op\":\"replace\",\"path\":\"/root/data/text\",\"value\":\"changed\"},"
+                + "{\"op\":\"add\",\"path\":\"/root/children/0\",\"value\":{\"data\":{\"id\":\"c\"},\"children\":[]}},"
+                + "{\"op\":\"remove\",\"path\":\"/root/children/2\"},"
+                + "{\"op\":\"move\",\"from\":\"/root/children/0\",\"path\":\"/root/children/1\"},"
+                + "{\"op\":\"add\",\"path\":\"/root/children/0/data/note/text\",\"value\":\"n\"},"
+                + "{\"op\":\"replace\",\"path\":\"/base\",\"value\":4}],"
+                + "[{\"op\":\"remove\",\"path\":\"/root/children/9\"}]]";
+        JSONObject doc = JSON.parseObject(DOC);
+        try {
+            PatchUtil.apply(doc, JSON.parseArray(patch));
+            fail("下标越界应该失败");
+        } catch (CaseServerException e) {
+            // expected
+        }
+        assertEquals(JSON.parseObject(DOC), doc);
+    }
+
+    @Test
+    public void patchApplied() {
+        JSONObject doc = JSON.parseObject(DOC);
+        JSONArray patch = JSON.parseArray("[[{\"op\":\"move\",\"from\":\"/root/children/0\",\"path\":\"/root/children/-\"},"
+                + "{\"op\":\"remove\",\"path\":\"/root/data/missing\"}]]");
+        PatchUtil.apply(doc, patch);
+        assertEquals("b", doc.getJSONObject("root").getJSONArray("children").getJSONObject(0).getJSONObject("data").getString("id"));
+        assertEquals("a", doc.getJSONObject("root").getJSONArray("children").getJSONObject(1).getJSONObject("data").getString("id"));
+    }
+
+    /**
+     * 与备份一样先序列化patch再应用，还原结果要和目标一致
+     */
+    private static void assertRoundTrip(JSONObject source, JSONObject target) {
+        String expected = target.toJSONString();
+        JSONArray patch = JSON.parseArray(PatchUtil.diff(source, target).toJSONString());
+        JSONObject doc = JSON.parseObject(source.toJSONString());
+        PatchUtil.apply(doc, patch);
+        assertEquals(JSON.parseObject(expected), doc);
+    }
+
+    /**
+     * 随机插入、删除、移动、修改一个节点
+     */
+    private static void edit(Random random, JSONObject root, int[] counter) {
+        List<JSONArray> arrays = new ArrayList<>();
+        collectChildren(root, arrays);
+        JSONArray children = arrays.get(random.nextInt(arrays.size()));
+        int op = random.nextInt(4);
+        if (op == 0 || children.isEmpty()) {
+            children.add(random.nextInt(children.size() + 1), JSON.parseObject(node("n" + counter[0]++)));
+        } else if (op == 1) {
+            children.remove(random.nextInt(children.size()));
+        } else if (op == 2) {
+            Object moved = children.remove(random.nextInt(children.size()));
+            JSONArray to = arrays.get(random.nextInt(arrays.size()));
+            if (to != children && contains((JSONObject) moved, to)) {
+                to = children;
+            }
+            to.add(random.nextInt(to.size() + 1), moved);
+        } else {
+            children.getJSONObject(random.nextInt(children.size())).getJSONObject("data").put("text", "e" + counter[0]++);
+        }
+    }
+
+    private static void collectChildren(JSONObject node, List<JSONArray> arrays) {
+        JSONArray children = node.getJSONArray("children");
+        arrays.add(children);
+        for (Object child : children) {
+            collectChildren((JSONObject) child, arrays);
+        }
+    }
+
+    private static boolean contains(JSONObject node, JSONArray array) {
+        List<JSONArray> arrays = new ArrayList<>();
+        collectChildren(node, arrays);
+        for (JSONArray a : arrays) {
+            if (a == array) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String node(String id) {
+        return "{\"data\":{\"id\":\"" + id + "\",\"text\":\"" + id + "\"},\"children\":[]}";
+    }
+}
@@ -0,0 +1,583 @@
+package com.xiaoju.framework.util;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import com.xiaoju.framework.cache.CaseIndex;
+import com.xiaoju.framework.cache.DirIndex;
+import com.xiaoju.framework.entity.dto.DirNodeDto;
+import com.xiaoju.framework.entity.response.dir.DirTreeResp;
+import com.xiaoju.framework.entity.xmind.CaseCount;
+import com.xiaoju.framework.entity.xmind.CaseNode;
+import com.xiaoju.framework.entity.xmind.CaseTree;
+import com.xiaoju.framework.service.impl.DirServiceImpl;
+import org.junit.Test;
+import org.xmind.core.Core;
+import org.xmind.core.ITopic;
+import org.xmind.core.IWorkbook;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 树遍历改为显式栈之后的对比测试
+ * 随机生成大量用例树、文件夹树，和原来的递归实现逐一比较结果；再用上万层的树确认不会栈溢出
+ *
+ * @author didi
+ * @date 2026/10/18
+ */
+public class TreeUtilTest {
+
+    private static final int ROUNDS = 300;
+
+    private static final int DEEP = 50000;
+
+    private static final String[] TAGS = {"a", "b", "c"};
+
+    private static final int[] PROGRESS = {1, 4, 5, 9, 0};
+
+    @Test
+    public void countByConditionSameAsChosenCase() {
+        Random random = new Random(7);
+        for (int round = 0; round < ROUNDS; round++) {
+            String json = randomCase(random).toJSONString();
+            Set<String> priorities = randomTags(random, "priority");
+            Set<String> tags = randomTags(random, "resource");
+
+            // 原来的编辑页圈选：先按优先级剪、再按标签剪，最后数叶子
+            JSONObject expected = JSON.parseObject(json).getJSONObject("root");
+            Set<String> expectedTags = new HashSet<>();
+            int expectedTotal = Recursive.getCaseNum(expected, expectedTags);
+            if (!priorities.isEmpty() && !Recursive.getChosenCase(expected, priorities, "priority")) {
+                expected = null;
+            }
+            if (!tags.isEmpty() && expected != null && !Recursive.getChosenCase(expected, tags, "resource")) {
+                expected = null;
+            }
+            int expectedCount = expected == null ? 0 : Recursive.getCaseNum(expected, new HashSet<>());
+
+            CaseNode root = CaseNodeUtil.parse(json, false).getRoot();
+            Set<String> actualTags = new HashSet<>();
+            assertEquals(expectedTotal, CaseNodeUtil.countLeaves(root, new CaseFilter(), actualTags));
+            assertEquals(expectedTags, actualTags);
+            CaseFilter filter = new CaseFilter().priority(priorities, true).tag(tags, true);
+            assertEquals(expectedCount, CaseNodeUtil.countLeaves(root, filter, null));
+
+            CaseIndex index = CaseIndex.build(root);
+            assertEquals(expectedTotal, index.getTotal());
+            assertEquals(expectedTags, index.getTags());
+            assertEquals(expectedCount, index.count(priorities, tags));
+        }
+    }
+
+    @Test
+    public void exportDataSameAsRecursive() {
+        Random random = new Random(4);
+        for (int round = 0; round < ROUNDS / 10; round++) {
+            JSONObject root = randomCase(random).getJSONObject("root");
+            IWorkbook expected = Core.getWorkbookBuilder().createWorkbook();
+            IWorkbook actual = Core.getWorkbookBuilder().createWorkbook();
+            Recursive.exportData(root.getJSONArray("children"), expected, expected.getPrimarySheet().getRootTopic());
+            TreeUtil.exportData(root.getJSONArray("children"), actual, actual.getPrimarySheet().getRootTopic());
+            assertEquals(describe(expected.getPrimarySheet().getRootTopic()), describe(actual.getPrimarySheet().getRootTopic()));
+        }
+    }
+
+    @Test
+    public void caseNodeSameAsRecursive() {
+        Random random = new Random(5);
+        for (int round = 0; round < ROUNDS; round++) {
+            JSONObject content = randomCase(random);
+            String json = content.toJSONString();
+
+            // 解析后还原，与原始内容一致
+            CaseTree tree = CaseNodeUtil.parse(json, true);
+            assertEquals(content, CaseNodeUtil.toJSONObject(tree));
+            assertEquals(Recursive.toJSONObject(tree.getRoot()), CaseNodeUtil.toJSONObject(tree).getJSONObject("root"));
+
+            List<String> priorities = new ArrayList<>(randomTags(random, "priority"));
+            List<String> tags = new ArrayList<>(randomTags(random, "resource"));
+            Map<String, Integer> progress = new HashMap<>();
+            for (String id : collectIds(content.getJSONObject("root"))) {
+                if (random.nextInt(4) == 0) {
+                    progress.put(id, PROGRESS[random.nextInt(PROGRESS.length)]);
+                }
+            }
+            for (boolean prune : new boolean[]{false, true}) {
+                CaseNode expectedRoot = CaseNodeUtil.parse(json, true).getRoot();
+                CaseNode actualRoot = CaseNodeUtil.parse(json, true).getRoot();
+                CaseCount expected = new Recursive(priorities, tags, progress, prune).count(expectedRoot);
+                CaseCount actual = CaseNodeUtil.mergeAndCount(actualRoot, CaseFilter.of(priorities, tags), progress, prune);
+                assertEquals(expected, actual);
+                assertEquals(Recursive.toJSONObject(expectedRoot), Recursive.toJSONObject(actualRoot));
+            }
+        }
+    }
+
+    @Test
+    public void caseNodeKeepsExtraFields() {
+        // 节点上除了data、children还有其他字段时，解析后还原也要保留
+        JSONObject content = JSON.parseObject("{\"root\":{\"data\":{\"id\":\"r\"},\"layout\":\"mind\",\"children\":["
+                + "{\"data\":{\"id\":\"a\",\"priority\":1},\"children\":[],\"style\":{\"color\":\"red\"}}]},"
+                + "\"template\":\"default\",\"base\":2}");
+        CaseTree tree = CaseNodeUtil.parse(content.toJSONString(), true);
+        assertEquals(content, CaseNodeUtil.toJSONObject(tree));
+        assertEquals(1, tree.getRoot().getChildren().get(0).getPriority());
+    }
+
+    @Test
+    public void dirSameAsRecursive() {
+        Random random = new Random(6);
+        DirServiceImpl dirService = new DirServiceImpl();
+        for (int round = 0; round < ROUNDS; round++) {
+            DirNodeDto root = randomDir(random);
+            String json = JSON.toJSONString(root);
+
+            DirIndex index = DirIndex.build(JSON.parseObject(json, DirNodeDto.class), 0L);
+            assertDirEquals(root, index.toTree(false));
+
+            DirNodeDto expectedAll = JSON.parseObject(json, DirNodeDto.class);
+            Recursive.addChildrenCaseIds(expectedAll);
+            DirTreeResp actualAll = dirService.getAllCaseDir(JSON.parseObject(json, DirNodeDto.class));
+            assertDirEquals(expectedAll, actualAll.getChildren().get(0));
+            assertDirEquals(expectedAll, index.toTree(true));
+
+            for (String id : collectDirIds(root)) {
+                DirNodeDto expected = Recursive.getDir(id, root);
+                assertTrue(expected == dirService.getDir(id, root));
+                List<String> subtree = new ArrayList<>();
+                Recursive.collect(expected, subtree);
+                assertEquals(subtree, index.subtree(id));
+                long[] caseIds = index.getCaseIds(id);
+                assertEquals(new TreeSet<>(Recursive.getDir(id, expectedAll).getCaseIds()), toStrings(caseIds));
+            }
+            assertTrue(dirService.getDir("missing", root) == null);
+        }
+    }
+
+    @Test
+    public void deepTreeDoesNotOverflow() throws Exception {
+        // 直接拼字符串，fastjson序列化本身是递归的
+        StringBuilder sb = new StringBuilder("{\"root\":");
+        for (int i = 0; i < DEEP; i++) {
+            sb.append("{\"data\":{\"id\":\"n").append(i).append("\",\"priority\":1,\"resource\":[\"a\"]},\"children\":[");
+        }
+        for (int i = 0; i < DEEP; i++) {
+            sb.append("]}");
+        }
+        sb.append(",\"template\":\"right\"}");
+        String json = sb.toString();
+
+        CaseTree tree = CaseNodeUtil.parse(json, true);
+        Map<String, Integer> progress = Collections.singletonMap("n" + (DEEP - 1), 9);
+        CaseCount count = CaseNodeUtil.mergeAndCount(tree.getRoot(), CaseFilter.of(Collections.singletonList("1"),
+                Collections.singletonList("a")), progress, true);
+        assertEquals(1, count.getTotal());
+        assertEquals(1, count.getSuccess());
+        assertEquals(1, CaseNodeUtil.count(CaseNodeUtil.parse(json, false).getRoot()).getTotal());
+
+        // 没有节点命中时整棵树都被剪掉
+        CaseTree pruned = CaseNodeUtil.parse(json, true);
+        CaseNodeUtil.mergeAndCount(pruned.getRoot(), CaseFilter.of(null, Collections.singletonList("b")),
+                Collections.emptyMap(), true);
+        assertTrue(CaseNodeUtil.toJSONObject(pruned).getJSONObject("root").getJSONArray("children").isEmpty());
+
+        DirNodeDto dirRoot = new DirNodeDto();
+        dirRoot.setId("d0");
+        DirNodeDto dir = dirRoot;
+        for (int i = 1; i < DEEP; i++) {
+            DirNodeDto child = new DirNodeDto();
+            child.setId("d" + i);
+            dir.getChildren().add(child);
+            dir = child;
+        }
+        // 每层的all都包含子孙的用例，只在最深处放一个用例，否则内存随层数平方增长
+        dir.getCaseIds().add("1");
+        DirIndex index = DirIndex.build(dirRoot, 0L);
+        assertEquals(1, index.getCaseIds("d0").length);
+        assertEquals(DEEP, index.subtree("d0").size());
+        assertNotNull(index.toTree(true));
+        assertTrue(new DirServiceImpl().getDir("d" + (DEEP - 1), dirRoot) == dir);
+        assertTrue(index.removeFolder("d0", "d1"));
+
+        // zen版本的content.json
+        sb.setLength(0);
+        sb.append("[{\"rootTopic\":");
+        for (int i = 0; i < DEEP; i++) {
+            sb.append("{\"id\":\"t").append(i).append("\",\"title\":\"t\",\"children\":{\"attached\":[");
+        }
+        for (int i = 0; i < DEEP; i++) {
+            sb.append("]}}");
+        }
+        sb.append("}]");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            zip.putNextEntry(new ZipEntry("content.json"));
+            zip.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+            zip.closeEntry();
+        }
+        CaseNode topic = XmindUtil.readRootTopic(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals(1, CaseNodeUtil.count(topic).getTotal());
+    }
+
+    private static JSONObject randomCase(Random random) {
+        int[] counter = {0};
+        JSONObject content = new JSONObject();
+        content.put("root", randomNode(random, counter, 0, random.nextInt(3) == 0 ? 30 : 6));
+        content.put("template", "right");
+        content.put("version", "1.4.43");
+        return content;
+    }
+
+    private static JSONObject randomNode(Random random, int[] counter, int depth, int maxDepth) {
+        JSONObject data = new JSONObject();
+        data.put("id", "n" + counter[0]++);
+        data.put("text", "t" + random.nextInt(100));
+        if (random.nextInt(3) == 0) {
+            data.put("priority", 1 + random.nextInt(3));
+        }
+        if (random.nextInt(3) == 0) {
+            JSONArray resource = new JSONArray();
+            resource.add(TAGS[random.nextInt(TAGS.length)]);
+            data.put("resource", resource);
+        }
+        if (random.nextInt(4) == 0) {
+            data.put("progress", PROGRESS[random.nextInt(PROGRESS.length)]);
+        }
+        JSONArray children = new JSONArray();
+        // 较深的树每层只有一个分支，较浅的树分支多
+        int width = depth >= maxDepth ? 0 : random.nextInt(maxDepth > 6 ? 2 : 5);
+        for (int i = 0; i < width; i++) {
+            children.add(randomNode(random, counter, depth + 1, maxDepth));
+        }
+        JSONObject node = new JSONObject();
+        node.put("data", data);
+        node.put("children", children);
+        return node;
+    }
+
+    private static Set<String> randomTags(Random random, String field) {
+        Set<String> tags = new HashSet<>();
+        int n = random.nextInt(3);
+        for (int i = 0; i < n; i++) {
+            tags.add("priority".equals(field) ? String.valueOf(1 + random.nextInt(3)) : TAGS[random.nextInt(TAGS.length)]);
+        }
+        return tags;
+    }
+
+    private static List<String> collectIds(JSONObject root) {
+        List<String> ids = new ArrayList<>();
+        ids.add(root.getJSONObject("data").getString("id"));
+        for (Object child : root.getJSONArray("children")) {
+            ids.addAll(collectIds((JSONObject) child));
+        }
+        return ids;
+    }
+
+    private static DirNodeDto randomDir(Random random) {
+        int[] counter = {0};
+        DirNodeDto root = randomDir(random, counter, null, 0);
+        root.setId("root");
+        for (DirNodeDto child : root.getChildren()) {
+            child.setParentId("root");
+        }
+        return root;
+    }
+
+    private static DirNodeDto randomDir(Random random, int[] counter, String parentId, int depth) {
+        DirNodeDto node = new DirNodeDto();
+        node.setId("f" + counter[0]++);
+        node.setText("folder" + node.getId());
+        node.setParentId(parentId);
+        int cases = random.nextInt(4);
+        for (int i = 0; i < cases; i++) {
+            node.getCaseIds().add(String.valueOf(random.nextInt(50)));
+        }
+        int width = depth >= 5 ? 0 : random.nextInt(4);
+        for (int i = 0; i < width; i++) {
+            node.getChildren().add(randomDir(random, counter, node.getId(), depth + 1));
+        }
+        return node;
+    }
+
+    private static List<String> collectDirIds(DirNodeDto root) {
+        List<String> ids = new ArrayList<>();
+        Recursive.collect(root, ids);
+        return ids;
+    }
+
+    private static void assertDirEquals(DirNodeDto expected, DirNodeDto actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getText(), actual.getText());
+        assertEquals(expected.getParentId(), actual.getParentId());
+        assertEquals(new HashSet<>(expected.getCaseIds()), new HashSet<>(actual.getCaseIds()));
+        assertEquals(expected.getChildren().size(), actual.getChildren().size());
+        for (int i = 0; i < expected.getChildren().size(); i++) {
+            assertDirEquals(expected.getChildren().get(i), actual.getChildren().get(i));
+        }
+    }
+
+    private static Set<String> toStrings(long[] ids) {
+        Set<String> result = new TreeSet<>();
+        for (long id : ids) {
+            result.add(String.valueOf(id));
+        }
+        return result;
+    }
+
+    private static String describe(ITopic topic) {
+        StringBuilder sb = new StringBuilder(String.valueOf(topic.getTitleText())).append('(');
+        for (ITopic child : topic.getChildren(ITopic.ATTACHED)) {
+            sb.append(describe(child)).append(',');
+        }
+        return sb.append(')').toString();
+    }
+
+    /**
+     * 改成显式栈之前的递归实现，作为对比的基准
+     */
+    private static class Recursive {
+
+        private final Set<Integer> priorities;
+        private final Set<String> tags;
+        private final Map<String, Integer> progress;
+        private final boolean prune;
+        private final JSONObject progressMap = new JSONObject();
+
+        Recursive(List<String> priorities, List<String> tags, Map<String, Integer> progress, boolean prune) {
+            this.priorities = new HashSet<>();
+            for (String priority : priorities) {
+                this.priorities.add(Integer.parseInt(priority));
+            }
+            this.tags = new HashSet<>(tags);
+            this.progress = progress;
+            this.prune = prune;
+        }
+
+        static boolean getChosenCase(JSONObject root, Set<String> tags, String field) {
+            if (root == null) return false;
+
+            boolean hasTags = false;
+            if (field.equals("resource")) {
+                JSONArray objects = root.getJSONObject("data").getJSONArray("resource");
+                if (objects != null) {
+                    for (Object o : objects) {
+                        hasTags = hasTags || tags.contains(o);
+                    }
+                }
+                if (hasTags) return true;
+            } else if (field.equals("priority")) {
+                String priority = root.getJSONObject("data").getString("priority");
+                if (tags.contains(priority)) return true;
+            }
+            JSONArray children = root.getJSONArray("children");
+            Iterator<Object> iterator = children.iterator();
+            while (iterator.hasNext()) {
+                JSONObject child = (JSONObject) iterator.next();
+                if (!getChosenCase(child, tags, field)) iterator.remove();
+            }
+            return children.size() != 0;
+        }
+
+        static Integer getCaseNum(JSONObject root, Set<String> set) {
+            if (root == null) return 0;
+            int res = 0;
+            JSONArray resource = root.getJSONObject("data").getJSONArray("resource");
+            if (resource != null) {
+                for (Object o : resource) {
+                    set.add((String) o);
+                }
+            }
+            JSONArray children = root.getJSONArray("children");
+            if (children.size() == 0) return 1;
+            for (Object child : children) {
+                res += getCaseNum((JSONObject) child, set);
+            }
+            return res;
+        }
+
+        static void exportData(JSONArray children, IWorkbook workbook, ITopic rootTopic) {
+            for (Object o : children) {
+                JSONObject dataObj = ((JSONObject) o).getJSONObject("data");
+                ITopic topic = workbook.createTopic();
+                topic.setTitleText(dataObj.getString("text"));
+                topic.setFolded(true);
+                rootTopic.add(topic, ITopic.ATTACHED);
+                if (((JSONObject) o).getJSONArray("children").size() > 0) {
+                    exportData(((JSONObject) o).getJSONArray("children"), workbook, topic);
+                }
+            }
+        }
+
+        static DirNodeDto getDir(String bizId, DirNodeDto root) {
+            if (root == null) {
+                return null;
+            }
+            if (bizId.equals(root.getId())) {
+                return root;
+            }
+            for (DirNodeDto child : root.getChildren()) {
+                DirNodeDto dir = getDir(bizId, child);
+                if (dir != null) {
+                    return dir;
+                }
+            }
+            return null;
+        }
+
+        static void addChildrenCaseIds(DirNodeDto root) {
+            if (root == null) {
+                return;
+            }
+            for (DirNodeDto child : root.getChildren()) {
+                addChildrenCaseIds(child);
+                root.getCaseIds().addAll(child.getCaseIds());
+            }
+        }
+
+        static void collect(DirNodeDto node, List<String> result) {
+            result.add(node.getId());
+            for (DirNodeDto child : node.getChildren()) {
+                collect(child, result);
+            }
+        }
+
+        static JSONObject toJSONObject(CaseNode node) {
+            JSONObject data = node.getData() == null ? new JSONObject() : node.getData();
+            if (node.getProgress() != CaseNode.ABSENT) {
+                data.put("progress", node.getProgress());
+            }
+            JSONArray children = new JSONArray(node.getChildren().size());
+            for (CaseNode child : node.getChildren()) {
+                children.add(toJSONObject(child));
+            }
+            JSONObject obj = new JSONObject(2);
+            obj.put("data", data);
+            obj.put("children", children);
+            return obj;
+        }
+
+        CaseCount count(CaseNode root) {
+            int[] tally = visit(root, true, priorities.isEmpty(), tags.isEmpty());
+            CaseCount count = new CaseCount();
+            count.setSuccess(tally[0]);
+            count.setFail(tally[1]);
+            count.setBlock(tally[2]);
+            count.setIgnore(tally[3]);
+            count.setTotal(tally[4]);
+            count.setProgress(progressMap);
+            return count;
+        }
+
+        /**
+         * @return {success, fail, block, ignore, total}，被圈选掉时返回null
+         */
+        private int[] visit(CaseNode node, boolean isRoot, boolean priorityHit, boolean tagHit) {
+            if (!isRoot && !priorityHit) {
+                priorityHit = priorities.contains(node.getPriority());
+            }
+            if (!tagHit && node.getResource() != null) {
+                tagHit = !Collections.disjoint(tags, Arrays.asList(node.getResource()));
+            }
+            int nodeProgress = node.getProgress();
+            Integer value = progress.get(node.getId());
+            if (value != null) {
+                nodeProgress = value;
+                if (prune) {
+                    node.setProgress(value);
+                }
+            }
+
+            if (node.isLeaf()) {
+                if (!isRoot && !(priorityHit && tagHit)) {
+                    return null;
+                }
+                return leaf(node, nodeProgress);
+            }
+
+            List<CaseNode> kept = new ArrayList<>();
+            int[] tally = new int[5];
+            int num = 0;
+            for (CaseNode child : node.getChildren()) {
+                int[] cc = visit(child, false, priorityHit, tagHit);
+                if (cc == null) {
+                    continue;
+                }
+                kept.add(child);
+                num += cc[4];
+                for (int i = 0; i < tally.length; i++) {
+                    tally[i] += cc[i];
+                }
+            }
+            if (prune) {
+                node.setChildren(kept.isEmpty() ? Collections.emptyList() : kept);
+            }
+            if (kept.isEmpty()) {
+                return isRoot ? leaf(node, nodeProgress) : null;
+            }
+            if (nodeProgress != CaseNode.ABSENT) {
+                tally = new int[5];
+                tally[4] = num;
+                int slot = slot(nodeProgress);
+                if (slot >= 0) {
+                    tally[slot] = num;
+                }
+                if (nodeProgress == 4) {
+                    tally[4] = 0;
+                }
+            }
+            addProgress(node, nodeProgress);
+            return tally;
+        }
+
+        private int[] leaf(CaseNode node, int nodeProgress) {
+            int[] tally = new int[5];
+            int slot = slot(nodeProgress);
+            if (slot >= 0) {
+                tally[slot] = 1;
+            }
+            tally[4] = nodeProgress == 4 ? 0 : 1;
+            addProgress(node, nodeProgress);
+            return tally;
+        }
+
+        private void addProgress(CaseNode node, int nodeProgress) {
+            if (slot(nodeProgress) >= 0) {
+                progressMap.put(node.getId(), String.valueOf(nodeProgress));
+            }
+        }
+
+        private static int slot(int progress) {
+            switch (progress) {
+                case 9:
+                    return 0;
+                case 1:
+                    return 1;
+                case 5:
+                    return 2;
+                case 4:
+                    return 3;
+                default:
+                    return -1;
+            }
+        }
+    }
+}